@@ -12,6 +12,9 @@ public class MapConfiguration {
     private GridConfigs gridConfigs = new GridConfigs();
     private Characters characters = new Characters();
     private Settings settings = new Settings();
+    private Fog fog = new Fog();
+    private Storage storage = new Storage();
+    private Cache cache = new Cache();
 
     public Maps getMaps() {
         return maps;
@@ -53,6 +56,30 @@ public class MapConfiguration {
         this.settings = settings;
     }
 
+    public Fog getFog() {
+        return fog;
+    }
+
+    public void setFog(Fog fog) {
+        this.fog = fog;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public void setStorage(Storage storage) {
+        this.storage = storage;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public void setCache(Cache cache) {
+        this.cache = cache;
+    }
+
     public static class Maps {
         private String directory;
 
@@ -103,6 +130,8 @@ public class MapConfiguration {
 
     public static class Settings {
         private String directory = "settings";
+        // Co ile ms najnowszy viewport podglądu trafia do ustawień mapy (seria ruchów kamery = jeden zapis)
+        private long viewportSaveIntervalMs = 1000;
 
         public String getDirectory() {
             return directory;
@@ -111,5 +140,202 @@ public class MapConfiguration {
         public void setDirectory(String directory) {
             this.directory = directory;
         }
+
+        public long getViewportSaveIntervalMs() {
+            return viewportSaveIntervalMs;
+        }
+
+        public void setViewportSaveIntervalMs(long viewportSaveIntervalMs) {
+            this.viewportSaveIntervalMs = viewportSaveIntervalMs;
+        }
+    }
+
+    public static class Fog {
+        // Co ile ms wątek w tle zapisuje zmienione stany mgły na dysk
+        private long flushIntervalMs = 2000;
+        // Po ilu ms bezczynności zapisana mapa jest usuwana z pamięci
+        private long idleEvictMs = 600000;
+        // Loguj liczbę punktów przed/po optymalizacji i czas jej trwania
+        private boolean measureOptimization = false;
+        // Format mgły: "points" (lista odsłoniętych kół) albo "raster" (maska bitowa)
+        private String mode = "points";
+        // Rozmiar komórki rastra w px (1 bit na cellSize x cellSize)
+        private int rasterCellSize = 4;
+        // Ile ostatnich operacji mgły na mapę jest trzymanych dla /changes?since=
+        private int changeBufferSize = 512;
+        // Co ile ms wątek w tle kompaktuje geometrycznie zmienione mapy (0 = wyłączone)
+        private long compactionIntervalMs = 30000;
+        // Minimalna liczba kół, od której mapa jest kompaktowana
+        private int compactionMinPoints = 200;
+        // Ile kroków mgły na mapę można cofnąć (0 = bez historii)
+        private int undoDepth = 50;
+
+        public long getFlushIntervalMs() {
+            return flushIntervalMs;
+        }
+
+        public void setFlushIntervalMs(long flushIntervalMs) {
+            this.flushIntervalMs = flushIntervalMs;
+        }
+
+        public long getIdleEvictMs() {
+            return idleEvictMs;
+        }
+
+        public void setIdleEvictMs(long idleEvictMs) {
+            this.idleEvictMs = idleEvictMs;
+        }
+
+        public boolean isMeasureOptimization() {
+            return measureOptimization;
+        }
+
+        public void setMeasureOptimization(boolean measureOptimization) {
+            this.measureOptimization = measureOptimization;
+        }
+
+        public String getMode() {
+            return mode;
+        }
+
+        public void setMode(String mode) {
+            this.mode = mode;
+        }
+
+        public int getRasterCellSize() {
+            return rasterCellSize;
+        }
+
+        public void setRasterCellSize(int rasterCellSize) {
+            this.rasterCellSize = rasterCellSize;
+        }
+
+        public int getChangeBufferSize() {
+            return changeBufferSize;
+        }
+
+        public void setChangeBufferSize(int changeBufferSize) {
+            this.changeBufferSize = changeBufferSize;
+        }
+
+        public int getUndoDepth() {
+            return undoDepth;
+        }
+
+        public void setUndoDepth(int undoDepth) {
+            this.undoDepth = undoDepth;
+        }
+
+        public long getCompactionIntervalMs() {
+            return compactionIntervalMs;
+        }
+
+        public void setCompactionIntervalMs(long compactionIntervalMs) {
+            this.compactionIntervalMs = compactionIntervalMs;
+        }
+
+        public int getCompactionMinPoints() {
+            return compactionMinPoints;
+        }
+
+        public void setCompactionMinPoints(int compactionMinPoints) {
+            this.compactionMinPoints = compactionMinPoints;
+        }
+    }
+
+    public static class Storage {
+        // Ile ms kolejka zapisu czeka na kolejne zmiany pliku zanim zapisze najnowszą wersję
+        private long writeDelayMs = 250;
+        // Backend dokumentów map: "files" (osobne pliki w katalogach) albo "embedded" (jeden plik logu)
+        private String backend = "files";
+        // Plik magazynu dla backendu "embedded"
+        private String file = "campaign.db";
+        // Co ile ms sprawdzać, czy magazyn wymaga kompaktacji (0 = wyłączone)
+        private long compactionIntervalMs = 60000;
+        // Format zapisu dokumentów: "none" (czysty JSON) albo "gzip"
+        private String compression = "none";
+        // Poziom kompresji gzip 1-9 (1 = najszybciej, 9 = najmniejsze pliki)
+        private int compressionLevel = 6;
+        // Co ile ms przepisywać w tle dokumenty zapisane w innym formacie niż bieżący (0 = wyłączone)
+        private long recompressionIntervalMs = 3600000;
+        // Czy obserwować katalogi dokumentów i unieważniać cache po zmianach plików spoza aplikacji
+        private boolean watchDirectories = true;
+
+        public String getBackend() {
+            return backend;
+        }
+
+        public void setBackend(String backend) {
+            this.backend = backend;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public long getCompactionIntervalMs() {
+            return compactionIntervalMs;
+        }
+
+        public void setCompactionIntervalMs(long compactionIntervalMs) {
+            this.compactionIntervalMs = compactionIntervalMs;
+        }
+
+        public String getCompression() {
+            return compression;
+        }
+
+        public void setCompression(String compression) {
+            this.compression = compression;
+        }
+
+        public int getCompressionLevel() {
+            return compressionLevel;
+        }
+
+        public void setCompressionLevel(int compressionLevel) {
+            this.compressionLevel = compressionLevel;
+        }
+
+        public long getRecompressionIntervalMs() {
+            return recompressionIntervalMs;
+        }
+
+        public void setRecompressionIntervalMs(long recompressionIntervalMs) {
+            this.recompressionIntervalMs = recompressionIntervalMs;
+        }
+
+        public boolean isWatchDirectories() {
+            return watchDirectories;
+        }
+
+        public void setWatchDirectories(boolean watchDirectories) {
+            this.watchDirectories = watchDirectories;
+        }
+
+        public long getWriteDelayMs() {
+            return writeDelayMs;
+        }
+
+        public void setWriteDelayMs(long writeDelayMs) {
+            this.writeDelayMs = writeDelayMs;
+        }
+    }
+
+    public static class Cache {
+        // Limit szacowanej pamięci cache dokumentów map w MB (0 = bez cache)
+        private int maxMb = 32;
+
+        public int getMaxMb() {
+            return maxMb;
+        }
+
+        public void setMaxMb(int maxMb) {
+            this.maxMb = maxMb;
+        }
     }
 }
@@ -0,0 +1,56 @@
+package com.dnd.controller;
+
+import com.dnd.service.CampaignBackupService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin")
+public class AdminController {
+
+    private static final DateTimeFormatter BACKUP_NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final CampaignBackupService campaignBackupService;
+
+    @Autowired
+    public AdminController(CampaignBackupService campaignBackupService) {
+        this.campaignBackupService = campaignBackupService;
+    }
+
+    /**
+     * Backup kampanii (obrazy map + dokumenty) jako ZIP wysyłany strumieniowo
+     */
+    @GetMapping("/backup")
+    public void backup(HttpServletResponse response) throws IOException {
+        String filename = "dnd-backup-" + LocalDateTime.now().format(BACKUP_NAME_FORMAT) + ".zip";
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+
+        Map<String, Object> summary = campaignBackupService.writeBackup(response.getOutputStream());
+        System.out.println("💾 Backup " + filename + ": " + summary);
+    }
+
+    /**
+     * Odtwórz kampanię z archiwum z /backup (treść żądania to plik ZIP)
+     */
+    @PostMapping(value = "/restore", consumes = { "application/zip", "application/octet-stream" })
+    public ResponseEntity<Map<String, Object>> restore(HttpServletRequest request) {
+        try {
+            Map<String, Object> summary = campaignBackupService.restore(request.getInputStream());
+            System.out.println("♻️ Odtworzono kampanię z archiwum: " + summary);
+            return ResponseEntity.ok(summary);
+        } catch (IOException e) {
+            System.err.println("BŁĄD odtwarzania kampanii: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(Map.of("error", e.getMessage()));
+        }
+    }
+}
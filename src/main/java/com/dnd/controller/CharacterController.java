@@ -1,8 +1,11 @@
 package com.dnd.controller;
 
+import com.dnd.model.CharacterChanges;
 import com.dnd.model.CharacterData;
+import com.dnd.model.CharacterOperation;
 import com.dnd.service.CharacterService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -34,5 +37,55 @@ public class CharacterController {
         characterService.deleteCharacters(mapName);
         return ResponseEntity.ok().build();
     }
+
+    /**
+     * Zmiany pionków po wersji since (albo pełny stan)
+     */
+    @GetMapping("/{mapName}/changes")
+    public ResponseEntity<CharacterChanges> getChanges(
+            @PathVariable String mapName,
+            @RequestParam(defaultValue = "0") long since) {
+        return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(characterService.changesSince(mapName, since));
+    }
+
+    /**
+     * Dodaj gracza - odpowiedź zawiera nadane id i wersję
+     */
+    @PostMapping("/{mapName}/players")
+    public ResponseEntity<CharacterOperation> addPlayer(@PathVariable String mapName,
+                                                        @RequestBody CharacterData.Character player) {
+        return ResponseEntity.ok(characterService.addPlayer(mapName, player.getX(), player.getY()));
+    }
+
+    /**
+     * Dodaj wroga - bez litery serwer nada kolejną
+     */
+    @PostMapping("/{mapName}/enemies")
+    public ResponseEntity<CharacterOperation> addEnemy(@PathVariable String mapName,
+                                                       @RequestBody CharacterData.Enemy enemy) {
+        return ResponseEntity.ok(characterService.addEnemy(mapName, enemy.getX(), enemy.getY(), enemy.getLetter()));
+    }
+
+    /**
+     * Przesuń jeden pionek (gracza lub wroga)
+     */
+    @PatchMapping("/{mapName}/tokens/{id}")
+    public ResponseEntity<CharacterOperation> moveCharacter(@PathVariable String mapName, @PathVariable String id,
+                                                            @RequestBody CharacterData.Character position) {
+        CharacterOperation operation = characterService.moveCharacter(mapName, id, position.getX(), position.getY());
+        if (operation == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(operation);
+    }
+
+    @DeleteMapping("/{mapName}/tokens/{id}")
+    public ResponseEntity<CharacterOperation> removeCharacter(@PathVariable String mapName, @PathVariable String id) {
+        CharacterOperation operation = characterService.removeCharacter(mapName, id);
+        if (operation == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(operation);
+    }
 }
 
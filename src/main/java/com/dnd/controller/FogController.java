@@ -1,13 +1,22 @@
 package com.dnd.controller;
 
+import com.dnd.model.FogChanges;
 import com.dnd.model.FogState;
+import com.dnd.service.FogBinaryCodec;
 import com.dnd.service.FogService;
+import com.dnd.service.FogTileRenderer;
 import com.dnd.service.PreviewMapService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 @RestController
@@ -24,10 +33,115 @@ public class FogController {
     }
 
     @GetMapping("/{mapName}")
-    public ResponseEntity<FogState> getFogState(@PathVariable String mapName) {
+    public ResponseEntity<?> getFogState(
+            @PathVariable String mapName,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        boolean binary = prefersBinary(accept);
+
+        // Wersja sprawdzana przed kopiowaniem stanu - niezmieniona mgła to 304 bez treści
+        String currentEtag = FogService.etag(fogService.getFogVersion(mapName), binary);
+        if (notModified(ifNoneMatch, currentEtag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(currentEtag)
+                .cacheControl(CacheControl.noCache()).varyBy(HttpHeaders.ACCEPT).build();
+        }
+
         FogState fogState = fogService.getFogState(mapName);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+            .eTag(FogService.etag(fogState.getVersion() != null ? fogState.getVersion() : 0, binary))
+            .cacheControl(CacheControl.noCache())
+            .varyBy(HttpHeaders.ACCEPT);
+        if (binary) {
+            return response.contentType(MediaType.parseMediaType(FogBinaryCodec.MEDIA_TYPE))
+                .body(FogBinaryCodec.encodeState(fogState));
+        }
+        return response.body(fogState);
+    }
+
+    /**
+     * Format binarny tylko na wyraźne żądanie (bez symboli wieloznacznych) i z jakością (q)
+     * nie niższą niż JSON - "application/x-dnd-fog;q=0.5, application/json" to nadal JSON
+     */
+    static boolean prefersBinary(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return false;
+        }
+        List<MediaType> types;
+        try {
+            types = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+        MediaType binaryType = MediaType.parseMediaType(FogBinaryCodec.MEDIA_TYPE);
+        double binary = 0;
+        double json = 0;
+        for (MediaType type : types) {
+            if (type.equalsTypeAndSubtype(binaryType)) {
+                binary = Math.max(binary, type.getQualityValue());
+            } else if (type.includes(MediaType.APPLICATION_JSON)) {
+                json = Math.max(json, type.getQualityValue());
+            }
+        }
+        return binary > 0 && binary >= json;
+    }
+
+    /**
+     * Czy nagłówek If-None-Match zawiera podany ETag (także w formie słabej W/"...")
+     */
+    static boolean notModified(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals(etag) || value.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @GetMapping("/{mapName}/changes")
+    public ResponseEntity<FogChanges> getFogChanges(
+            @PathVariable String mapName,
+            @RequestParam(defaultValue = "0") long since) {
+        return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(fogService.getFogChanges(mapName, since));
+    }
+
+    @GetMapping(value = "/{mapName}/tiles/{z}/{x}/{y}.png", produces = MediaType.IMAGE_PNG_VALUE)
+    public ResponseEntity<byte[]> getFogTile(
+            @PathVariable String mapName,
+            @PathVariable int z,
+            @PathVariable int x,
+            @PathVariable int y,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        try {
+            FogTileRenderer.Tile tile = fogService.getFogTile(mapName, z, x, y);
+            if (notModified(ifNoneMatch, tile.getEtag())) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tile.getEtag()).build();
+            }
+            return ResponseEntity.ok()
+                .eTag(tile.getEtag())
+                .cacheControl(CacheControl.noCache())
+                .body(tile.getPng());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
 
-        return ResponseEntity.ok(fogState);
+    @GetMapping("/{mapName}/compaction")
+    public ResponseEntity<Map<String, Object>> getCompactionReport(@PathVariable String mapName) {
+        return ResponseEntity.ok(fogService.getCompactionReport(mapName));
+    }
+
+    @GetMapping("/{mapName}/optimization")
+    public ResponseEntity<Map<String, Object>> measureOptimization(@PathVariable String mapName) {
+        return ResponseEntity.ok(fogService.measureOptimization(mapName));
     }
 
     @PostMapping("/{mapName}/reveal")
@@ -62,6 +176,28 @@ public class FogController {
         return ResponseEntity.ok().build();
     }
 
+    @PostMapping(value = "/{mapName}/reveal-batch", consumes = FogBinaryCodec.MEDIA_TYPE)
+    public ResponseEntity<Void> revealAreasBinary(
+            @PathVariable String mapName,
+            @RequestBody byte[] body) {
+        try {
+            return revealAreas(mapName, List.copyOf(FogBinaryCodec.decodeBatch(body)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @PostMapping(value = "/{mapName}/hide-batch", consumes = FogBinaryCodec.MEDIA_TYPE)
+    public ResponseEntity<Void> hideAreasBinary(
+            @PathVariable String mapName,
+            @RequestBody byte[] body) {
+        try {
+            return hideAreas(mapName, List.copyOf(FogBinaryCodec.decodeBatch(body)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @PostMapping("/{mapName}/hide-batch")
     public ResponseEntity<Void> hideAreas(
             @PathVariable String mapName,
@@ -107,6 +243,24 @@ public class FogController {
         return ResponseEntity.ok().build();
     }
 
+    @PostMapping("/{mapName}/undo")
+    public ResponseEntity<Map<String, Object>> undoFog(@PathVariable String mapName) {
+        Map<String, Object> result = fogService.undoFog(mapName);
+        if (mapName.equals(previewMapService.getPreviewMapName())) {
+            previewMapService.requestRefresh();
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    @PostMapping("/{mapName}/redo")
+    public ResponseEntity<Map<String, Object>> redoFog(@PathVariable String mapName) {
+        Map<String, Object> result = fogService.redoFog(mapName);
+        if (mapName.equals(previewMapService.getPreviewMapName())) {
+            previewMapService.requestRefresh();
+        }
+        return ResponseEntity.ok(result);
+    }
+
     @PostMapping("/{mapName}/reveal-cell")
     public ResponseEntity<Void> revealCell(@PathVariable String mapName, @RequestBody FogPoint point) {
         try {
@@ -128,27 +282,30 @@ public class FogController {
     }
 
     @PostMapping("/{mapName}/batch")
-    public ResponseEntity<Void> processBatch(
+    public ResponseEntity<Map<String, Object>> processBatch(
             @PathVariable String mapName,
             @RequestBody List<BatchFogPoint> points) {
         try {
-            for (BatchFogPoint point : points) {
-                if ("erase".equals(point.getAction())) {
-                    fogService.revealFogPoint(mapName, point.getX(), point.getY(), point.getRadius(), point.isGridCell());
-                } else if ("paint".equals(point.getAction())) {
-                    // For paint action, we need to remove revealed areas
-                    FogPoint pointToRemove = new FogPoint(point.getX(), point.getY(), point.getRadius());
-                    pointToRemove.setGridCell(point.isGridCell());
-                    List<FogPoint> pointsToRemove = List.of(pointToRemove);
-                    fogService.removeRevealedAreas(mapName, pointsToRemove);
-                }
-            }
-            return ResponseEntity.ok().build();
+            // Cała partia w jednej operacji na mapie - klient dostaje wersję mgły do potwierdzenia
+            return ResponseEntity.ok(fogService.applyBatch(mapName, points));
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
     }
 
+    @PostMapping(value = "/{mapName}/batch", consumes = FogBinaryCodec.MEDIA_TYPE)
+    public ResponseEntity<Map<String, Object>> processBatchBinary(
+            @PathVariable String mapName,
+            @RequestBody byte[] body) {
+        List<BatchFogPoint> points;
+        try {
+            points = FogBinaryCodec.decodeBatch(body);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        return processBatch(mapName, points);
+    }
+
     public static class BatchFogPoint extends FogPoint {
         private String action;
 
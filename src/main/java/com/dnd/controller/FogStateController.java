@@ -3,6 +3,8 @@ package com.dnd.controller;
 import com.dnd.model.FogState;
 import com.dnd.service.FogService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -21,13 +23,23 @@ public class FogStateController {
     }
 
     @GetMapping("/{mapName}")
-    public ResponseEntity<FogState> getFogState(@PathVariable String mapName) {
+    public ResponseEntity<FogState> getFogState(
+            @PathVariable String mapName,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
         try {
+            String currentEtag = FogService.etag(fogService.getFogVersion(mapName));
+            if (FogController.notModified(ifNoneMatch, currentEtag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(currentEtag).cacheControl(CacheControl.noCache()).build();
+            }
+
             FogState fogState = fogService.getFogState(mapName);
             if (fogState == null) {
                 return ResponseEntity.notFound().build();
             }
-            return ResponseEntity.ok(fogState);
+            return ResponseEntity.ok()
+                .eTag(FogService.etag(fogState.getVersion() != null ? fogState.getVersion() : 0))
+                .cacheControl(CacheControl.noCache())
+                .body(fogState);
         } catch (Exception e) {
             return ResponseEntity.notFound().build();
         }
@@ -42,6 +54,10 @@ public class FogStateController {
             fogState.setMapName(mapName);
             fogService.saveFogState(fogState);
             return ResponseEntity.ok().build();
+        } catch (IllegalArgumentException e) {
+            // Maska niezgodna z rastrem mapy albo uszkodzone dane
+            System.err.println("⚠️ Odrzucono stan mgły dla mapy " + mapName + ": " + e.getMessage());
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
@@ -49,31 +65,9 @@ public class FogStateController {
 
     @GetMapping("/{mapName}/hash")
     public ResponseEntity<Map<String, String>> getFogStateHash(@PathVariable String mapName) {
-        try {
-            // Create a simple hash from the fog state
-            FogState fogState = fogService.getFogState(mapName);
-            String hash = "";
-            if (fogState != null && fogState.getRevealedAreas() != null) {
-                // Create hash based on the number of areas and their coordinates
-                StringBuilder hashBuilder = new StringBuilder();
-                hashBuilder.append("areas:").append(fogState.getRevealedAreas().size());
-
-                long coordSum = fogState.getRevealedAreas().stream()
-                    .mapToLong(area -> area.getX() + area.getY() + area.getRadius())
-                    .sum();
-                hashBuilder.append(":sum:").append(coordSum);
-
-                hash = String.valueOf(hashBuilder.toString().hashCode());
-            }
-
-            Map<String, String> response = new HashMap<>();
-            response.put("hash", hash);
-            return ResponseEntity.ok(response);
-        } catch (Exception e) {
-            Map<String, String> response = new HashMap<>();
-            response.put("hash", "");
-            return ResponseEntity.ok(response);
-        }
+        Map<String, String> response = new HashMap<>();
+        response.put("hash", fogService.getFogStateHash(mapName));
+        return ResponseEntity.ok(response);
     }
 
     @PostMapping("/{mapName}/reset")
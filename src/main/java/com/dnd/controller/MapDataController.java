@@ -1,40 +1,42 @@
 package com.dnd.controller;
 
+import com.dnd.model.CharacterData;
+import com.dnd.model.MapDocument;
+import com.dnd.service.CharacterService;
+import com.dnd.service.FogService;
 import com.dnd.service.MapDataService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.Map;
-
 @RestController
 @RequestMapping("/api/map-data")
 public class MapDataController {
 
     private final MapDataService mapDataService;
+    private final FogService fogService;
+    private final CharacterService characterService;
 
     @Autowired
-    public MapDataController(MapDataService mapDataService) {
+    public MapDataController(MapDataService mapDataService, FogService fogService, CharacterService characterService) {
         this.mapDataService = mapDataService;
+        this.fogService = fogService;
+        this.characterService = characterService;
     }
 
     /**
      * Zapisz wszystkie dane mapy do jednego pliku JSON
      */
     @PostMapping("/{mapName}")
-    public ResponseEntity<String> saveMapData(@PathVariable String mapName, @RequestBody Map<String, Object> mapData) {
+    public ResponseEntity<String> saveMapData(@PathVariable String mapName, @RequestBody MapDocument mapData) {
         try {
             // DIAGNOSTYKA - sprawdź kto nadpisuje dane
             System.out.println("🔍 MapDataController.saveMapData wywoływane dla: " + mapName);
-            System.out.println("   Klucze w otrzymanych danych: " + mapData.keySet());
-            if (mapData.containsKey("fog")) {
-                System.out.println("   ✅ Otrzymane dane ZAWIERAJĄ sekcję fog");
-            } else {
+            if (mapData.getFog() == null) {
                 System.out.println("   ❌ Otrzymane dane NIE ZAWIERAJĄ sekcji fog!");
-                // Wypisz stack trace żeby zobaczyć kto to wywołuje
-                Thread.dumpStack();
             }
 
+            // Sekcja fog z pliku ma pierwszeństwo (mgłę zapisuje FogStore), zapis na dysk w tle
             mapDataService.saveMapData(mapName, mapData);
             return ResponseEntity.ok("Map data saved successfully");
         } catch (Exception e) {
@@ -43,21 +45,38 @@ public class MapDataController {
     }
 
     /**
-     * Załaduj wszystkie dane mapy z pliku JSON
+     * Załaduj wszystkie dane mapy z pliku JSON - sekcja fog z FogStore (plik może być
+     * starszy o interwał zapisu migawki), sekcja characters z CharacterService
      */
     @GetMapping("/{mapName}")
-    public ResponseEntity<Map<String, Object>> getMapData(@PathVariable String mapName) {
+    public ResponseEntity<MapDocument> getMapData(@PathVariable String mapName) {
         try {
-            Map<String, Object> mapData = mapDataService.getMapData(mapName);
+            MapDocument mapData = mapDataService.getMapData(mapName);
             if (mapData == null) {
                 return ResponseEntity.notFound().build();
             }
+            // Dokument jest kopią - podmiana sekcji nie zmienia cache
+            MapDocument.Fog fog = fogService.getFogSection(mapName);
+            if (fog != null) {
+                mapData.setFog(fog);
+            }
+            mapData.setCharacters(toCharactersSection(characterService.loadCharacters(mapName)));
             return ResponseEntity.ok(mapData);
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body(null);
         }
     }
 
+    private static MapDocument.Characters toCharactersSection(CharacterData data) {
+        MapDocument.Characters characters = new MapDocument.Characters();
+        characters.setPlayers(data.getCharacters().getPlayers());
+        characters.setEnemies(data.getCharacters().getEnemies());
+        characters.setEnemyLetterCounter(data.getEnemyLetterCounter());
+        characters.setPlayerColor(data.getPlayerColor());
+        characters.setEnemyColor(data.getEnemyColor());
+        return characters;
+    }
+
     /**
      * Usuń plik danych mapy
      */
@@ -65,6 +84,7 @@ public class MapDataController {
     public ResponseEntity<String> deleteMapData(@PathVariable String mapName) {
         try {
             boolean deleted = mapDataService.deleteMapData(mapName);
+            fogService.evictFogState(mapName);
             if (deleted) {
                 return ResponseEntity.ok("Map data deleted successfully");
             } else {
@@ -64,6 +64,7 @@ public class PreviewMapController {
         status.put("refreshRequested", previewMapService.isRefreshRequested());
         status.put("fogSaveInProgress", previewMapService.isFogSaveInProgress());
         status.put("previewMapName", previewMapService.getPreviewMapName());
+        status.put("viewportPersistence", previewMapService.getViewportStats());
         return ResponseEntity.ok(status);
     }
 
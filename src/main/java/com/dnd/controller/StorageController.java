@@ -0,0 +1,67 @@
+package com.dnd.controller;
+
+import com.dnd.service.DocumentCache;
+import com.dnd.service.PersistenceQueue;
+import com.dnd.service.StorageRecompressor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/storage")
+public class StorageController {
+
+    private final DocumentCache documentCache;
+    private final StorageRecompressor storageRecompressor;
+    private final PersistenceQueue persistenceQueue;
+
+    @Autowired
+    public StorageController(DocumentCache documentCache, StorageRecompressor storageRecompressor,
+                             PersistenceQueue persistenceQueue) {
+        this.documentCache = documentCache;
+        this.storageRecompressor = storageRecompressor;
+        this.persistenceQueue = persistenceQueue;
+    }
+
+    /**
+     * Stan kolejki zapisu - oczekujące dokumenty i pliki, których zapis się nie udaje
+     */
+    @GetMapping("/queue")
+    public ResponseEntity<Map<String, Object>> getQueueStats() {
+        return ResponseEntity.ok(persistenceQueue.getStats());
+    }
+
+    /**
+     * Statystyki cache dokumentów map
+     */
+    @GetMapping("/cache")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        return ResponseEntity.ok(documentCache.getStats());
+    }
+
+    /**
+     * Przepisz dokumenty do bieżącego formatu zapisu (app.storage.compression)
+     */
+    @PostMapping("/recompress")
+    public ResponseEntity<Map<String, Object>> recompress() {
+        try {
+            return ResponseEntity.ok(storageRecompressor.recompressAll());
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Raport ostatniego przepisania dokumentów
+     */
+    @GetMapping("/recompression")
+    public ResponseEntity<Map<String, Object>> getRecompressionReport() {
+        Map<String, Object> report = storageRecompressor.getLastReport();
+        if (report == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(report);
+    }
+}
@@ -0,0 +1,58 @@
+package com.dnd.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * Odpowiedź /api/characters/{map}/changes - operacje po wersji since albo pełny stan,
+ * gdy bufor zmian nie sięga tak daleko wstecz (full = true).
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CharacterChanges {
+    private String mapName;
+    private long since;
+    private long version;
+    private boolean full;
+    private List<CharacterOperation> operations;
+    private CharacterData snapshot;
+
+    public CharacterChanges() {}
+
+    public static CharacterChanges delta(String mapName, long since, long version, List<CharacterOperation> operations) {
+        CharacterChanges changes = new CharacterChanges();
+        changes.mapName = mapName;
+        changes.since = since;
+        changes.version = version;
+        changes.operations = operations;
+        return changes;
+    }
+
+    public static CharacterChanges full(String mapName, long since, CharacterData snapshot) {
+        CharacterChanges changes = new CharacterChanges();
+        changes.mapName = mapName;
+        changes.since = since;
+        changes.version = snapshot.getVersion();
+        changes.full = true;
+        changes.snapshot = snapshot;
+        return changes;
+    }
+
+    public String getMapName() { return mapName; }
+    public void setMapName(String mapName) { this.mapName = mapName; }
+
+    public long getSince() { return since; }
+    public void setSince(long since) { this.since = since; }
+
+    public long getVersion() { return version; }
+    public void setVersion(long version) { this.version = version; }
+
+    public boolean isFull() { return full; }
+    public void setFull(boolean full) { this.full = full; }
+
+    public List<CharacterOperation> getOperations() { return operations; }
+    public void setOperations(List<CharacterOperation> operations) { this.operations = operations; }
+
+    public CharacterData getSnapshot() { return snapshot; }
+    public void setSnapshot(CharacterData snapshot) { this.snapshot = snapshot; }
+}
@@ -8,6 +8,8 @@ public class CharacterData {
     private int enemyLetterCounter;
     private String playerColor;
     private String enemyColor;
+    // Numer ostatniej zmiany pionków - klienci pobierają tylko zmiany po swojej wersji
+    private long version;
 
     public CharacterData() {
         this.characters = new Characters();
@@ -38,6 +40,7 @@ public class CharacterData {
     }
 
     public static class Character {
+        private String id;
         private double x;
         private double y;
 
@@ -48,6 +51,14 @@ public class CharacterData {
             this.y = y;
         }
 
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
         public double getX() {
             return x;
         }
@@ -115,5 +126,13 @@ public class CharacterData {
     public void setEnemyColor(String enemyColor) {
         this.enemyColor = enemyColor;
     }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
 
@@ -0,0 +1,69 @@
+package com.dnd.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Pojedyncza zmiana pionków mapy (dodanie, przesunięcie, usunięcie, zastąpienie wszystkich).
+ * version to numer sekwencyjny nadany przy zastosowaniu operacji.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CharacterOperation {
+
+    public static final String ADD = "add";
+    public static final String MOVE = "move";
+    public static final String REMOVE = "remove";
+    public static final String REPLACE = "replace";
+
+    public static final String PLAYER = "player";
+    public static final String ENEMY = "enemy";
+
+    private long version;
+    private String type;
+    private String kind; // player | enemy
+    private String id;
+    private Double x;
+    private Double y;
+    private String letter;
+
+    public CharacterOperation() {}
+
+    public CharacterOperation(String type, String kind, String id) {
+        this.type = type;
+        this.kind = kind;
+        this.id = id;
+    }
+
+    public static CharacterOperation replace() {
+        return new CharacterOperation(REPLACE, null, null);
+    }
+
+    /**
+     * add/move/remove - klient może je zastosować przyrostowo na swojej kopii pionków
+     */
+    @JsonIgnore
+    public boolean isIncremental() {
+        return !REPLACE.equals(type);
+    }
+
+    public long getVersion() { return version; }
+    public void setVersion(long version) { this.version = version; }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public String getKind() { return kind; }
+    public void setKind(String kind) { this.kind = kind; }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public Double getX() { return x; }
+    public void setX(Double x) { this.x = x; }
+
+    public Double getY() { return y; }
+    public void setY(Double y) { this.y = y; }
+
+    public String getLetter() { return letter; }
+    public void setLetter(String letter) { this.letter = letter; }
+}
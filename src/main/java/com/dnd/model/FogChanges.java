@@ -0,0 +1,58 @@
+package com.dnd.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * Odpowiedź /api/fog/{map}/changes - operacje po wersji since albo pełna migawka,
+ * gdy bufor zmian nie sięga tak daleko wstecz (full = true).
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FogChanges {
+    private String mapName;
+    private long since;
+    private long version;
+    private boolean full;
+    private List<FogOperation> operations;
+    private FogState snapshot;
+
+    public FogChanges() {}
+
+    public static FogChanges delta(String mapName, long since, long version, List<FogOperation> operations) {
+        FogChanges changes = new FogChanges();
+        changes.mapName = mapName;
+        changes.since = since;
+        changes.version = version;
+        changes.operations = operations;
+        return changes;
+    }
+
+    public static FogChanges full(String mapName, long since, FogState snapshot) {
+        FogChanges changes = new FogChanges();
+        changes.mapName = mapName;
+        changes.since = since;
+        changes.version = snapshot.getVersion() != null ? snapshot.getVersion() : 0;
+        changes.full = true;
+        changes.snapshot = snapshot;
+        return changes;
+    }
+
+    public String getMapName() { return mapName; }
+    public void setMapName(String mapName) { this.mapName = mapName; }
+
+    public long getSince() { return since; }
+    public void setSince(long since) { this.since = since; }
+
+    public long getVersion() { return version; }
+    public void setVersion(long version) { this.version = version; }
+
+    public boolean isFull() { return full; }
+    public void setFull(boolean full) { this.full = full; }
+
+    public List<FogOperation> getOperations() { return operations; }
+    public void setOperations(List<FogOperation> operations) { this.operations = operations; }
+
+    public FogState getSnapshot() { return snapshot; }
+    public void setSnapshot(FogState snapshot) { this.snapshot = snapshot; }
+}
@@ -0,0 +1,80 @@
+package com.dnd.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pojedyncza mutacja mgły (odsłonięcie, zasłonięcie, reset, zastąpienie stanu).
+ * version to numer sekwencyjny nadany przy zastosowaniu operacji.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FogOperation {
+
+    public static final String REVEAL = "reveal";
+    public static final String HIDE = "hide";
+    public static final String RESET = "reset";
+    public static final String REPLACE = "replace";
+    public static final String UNDO = "undo";
+    public static final String REDO = "redo";
+
+    private long version;
+    private String type;
+    private List<FogState.FogPoint> points;
+    private FogState.RasterData raster; // tylko dla replace z maską rastrową
+
+    public FogOperation() {}
+
+    public FogOperation(String type, List<FogState.FogPoint> points) {
+        this.type = type;
+        this.points = points;
+    }
+
+    public static FogOperation reveal(List<FogState.FogPoint> points) {
+        return new FogOperation(REVEAL, points);
+    }
+
+    public static FogOperation hide(List<FogState.FogPoint> points) {
+        return new FogOperation(HIDE, points);
+    }
+
+    public static FogOperation reset() {
+        return new FogOperation(RESET, null);
+    }
+
+    public static FogOperation undo() {
+        return new FogOperation(UNDO, null);
+    }
+
+    public static FogOperation redo() {
+        return new FogOperation(REDO, null);
+    }
+
+    /**
+     * Operacje reveal/hide/reset - klient może je zastosować przyrostowo na swojej kopii punktów
+     */
+    @JsonIgnore
+    public boolean isIncremental() {
+        return REVEAL.equals(type) || HIDE.equals(type) || RESET.equals(type);
+    }
+
+    public static FogOperation replace(List<FogState.FogPoint> points, FogState.RasterData raster) {
+        FogOperation operation = new FogOperation(REPLACE, points != null ? points : new ArrayList<>());
+        operation.setRaster(raster);
+        return operation;
+    }
+
+    public long getVersion() { return version; }
+    public void setVersion(long version) { this.version = version; }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public List<FogState.FogPoint> getPoints() { return points; }
+    public void setPoints(List<FogState.FogPoint> points) { this.points = points; }
+
+    public FogState.RasterData getRaster() { return raster; }
+    public void setRaster(FogState.RasterData raster) { this.raster = raster; }
+}
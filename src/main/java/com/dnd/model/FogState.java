@@ -1,11 +1,16 @@
 package com.dnd.model;
 
 import java.util.List;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class FogState {
     private String mapName;
     private List<FogPoint> revealedAreas;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private RasterData raster; // tylko w trybie rastrowym
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long version; // wersja mgły, z której pochodzi migawka
 
     public FogState() {}
 
@@ -14,6 +19,12 @@ public class FogState {
         this.revealedAreas = revealedAreas;
     }
 
+    public FogState(String mapName, List<FogPoint> revealedAreas, RasterData raster) {
+        this.mapName = mapName;
+        this.revealedAreas = revealedAreas;
+        this.raster = raster;
+    }
+
     public String getMapName() {
         return mapName;
     }
@@ -30,6 +41,48 @@ public class FogState {
         this.revealedAreas = revealedAreas;
     }
 
+    public RasterData getRaster() {
+        return raster;
+    }
+
+    public void setRaster(RasterData raster) {
+        this.raster = raster;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    // Maska odsłoniętych komórek: 1 bit na komórkę cellSize x cellSize, wierszami, LSB pierwszy
+    public static class RasterData {
+        private int cellSize;
+        private int width;
+        private int height;
+        private String data; // base64
+
+        public RasterData() {}
+
+        public RasterData(int cellSize, int width, int height, String data) {
+            this.cellSize = cellSize;
+            this.width = width;
+            this.height = height;
+            this.data = data;
+        }
+
+        public int getCellSize() { return cellSize; }
+        public void setCellSize(int cellSize) { this.cellSize = cellSize; }
+        public int getWidth() { return width; }
+        public void setWidth(int width) { this.width = width; }
+        public int getHeight() { return height; }
+        public void setHeight(int height) { this.height = height; }
+        public String getData() { return data; }
+        public void setData(String data) { this.data = data; }
+    }
+
     public static class FogPoint {
         private int x;
         private int y;
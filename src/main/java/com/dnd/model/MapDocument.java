@@ -0,0 +1,257 @@
+package com.dnd.model;
+
+import com.fasterxml.jackson.annotation.JsonAnyGetter;
+import com.fasterxml.jackson.annotation.JsonAnySetter;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Zunifikowany plik danych mapy data/<mapa>_data.json - ustawienia, siatka i mgła. Sekcja postaci
+ * nie jest zapisywana (pionki mają własny plik) - odczyt przez API wypełnia ją z CharacterService.
+ * Nieznane pola najwyższego poziomu są zachowywane (extra), żeby zapis nie gubił danych
+ * z nowszych wersji klienta.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MapDocument {
+    private Settings settings;
+    private Grid grid;
+    private Characters characters;
+    private Fog fog;
+    private String timestamp;
+    private String version;
+    private final Map<String, Object> extra = new LinkedHashMap<>();
+
+    public MapDocument() {}
+
+    /**
+     * Minimalna struktura dla mapy bez pliku danych (domyślne ustawienia, pusta lista postaci)
+     */
+    public static MapDocument createDefault() {
+        MapDocument document = new MapDocument();
+
+        Settings settings = new Settings();
+        settings.setZoom(1.0);
+        settings.setPanX(0.0);
+        settings.setPanY(0.0);
+        settings.setRotation(0.0);
+        settings.setPreviewZoom(100.0);
+        document.setSettings(settings);
+
+        Grid grid = new Grid();
+        grid.setOffsetX(0.0);
+        grid.setOffsetY(0.0);
+        grid.setVisible(false);
+        document.setGrid(grid);
+
+        Characters characters = new Characters();
+        characters.setEnemyLetterCounter(0);
+        document.setCharacters(characters);
+
+        document.setVersion("1.0");
+        return document;
+    }
+
+    public Settings getSettings() { return settings; }
+    public void setSettings(Settings settings) { this.settings = settings; }
+
+    public Grid getGrid() { return grid; }
+    public void setGrid(Grid grid) { this.grid = grid; }
+
+    public Characters getCharacters() { return characters; }
+    public void setCharacters(Characters characters) { this.characters = characters; }
+
+    public Fog getFog() { return fog; }
+    public void setFog(Fog fog) { this.fog = fog; }
+
+    public String getTimestamp() { return timestamp; }
+    public void setTimestamp(String timestamp) { this.timestamp = timestamp; }
+
+    public String getVersion() { return version; }
+    public void setVersion(String version) { this.version = version; }
+
+    @JsonAnyGetter
+    public Map<String, Object> getExtra() { return extra; }
+
+    @JsonAnySetter
+    public void setExtra(String name, Object value) { extra.put(name, value); }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Settings {
+        private Double zoom;
+        private Double panX;
+        private Double panY;
+        private Double rotation;
+        private String fogColor;
+        private Double fogOpacity;
+        private String gridColor;
+        private Double gridOpacity;
+        private Double gridLineWidth;
+        private String previewViewportColor;
+        private Boolean previewViewportVisible;
+        private Double previewZoom;
+
+        public Double getZoom() { return zoom; }
+        public void setZoom(Double zoom) { this.zoom = zoom; }
+
+        public Double getPanX() { return panX; }
+        public void setPanX(Double panX) { this.panX = panX; }
+
+        public Double getPanY() { return panY; }
+        public void setPanY(Double panY) { this.panY = panY; }
+
+        public Double getRotation() { return rotation; }
+        public void setRotation(Double rotation) { this.rotation = rotation; }
+
+        public String getFogColor() { return fogColor; }
+        public void setFogColor(String fogColor) { this.fogColor = fogColor; }
+
+        public Double getFogOpacity() { return fogOpacity; }
+        public void setFogOpacity(Double fogOpacity) { this.fogOpacity = fogOpacity; }
+
+        public String getGridColor() { return gridColor; }
+        public void setGridColor(String gridColor) { this.gridColor = gridColor; }
+
+        public Double getGridOpacity() { return gridOpacity; }
+        public void setGridOpacity(Double gridOpacity) { this.gridOpacity = gridOpacity; }
+
+        public Double getGridLineWidth() { return gridLineWidth; }
+        public void setGridLineWidth(Double gridLineWidth) { this.gridLineWidth = gridLineWidth; }
+
+        public String getPreviewViewportColor() { return previewViewportColor; }
+        public void setPreviewViewportColor(String previewViewportColor) { this.previewViewportColor = previewViewportColor; }
+
+        public Boolean getPreviewViewportVisible() { return previewViewportVisible; }
+        public void setPreviewViewportVisible(Boolean previewViewportVisible) { this.previewViewportVisible = previewViewportVisible; }
+
+        public Double getPreviewZoom() { return previewZoom; }
+        public void setPreviewZoom(Double previewZoom) { this.previewZoom = previewZoom; }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Grid {
+        private Double size;
+        private Double offsetX;
+        private Double offsetY;
+        private Boolean visible;
+        private Double lineWidth;
+        private String color;
+        private Double opacity;
+
+        public Double getSize() { return size; }
+        public void setSize(Double size) { this.size = size; }
+
+        public Double getOffsetX() { return offsetX; }
+        public void setOffsetX(Double offsetX) { this.offsetX = offsetX; }
+
+        public Double getOffsetY() { return offsetY; }
+        public void setOffsetY(Double offsetY) { this.offsetY = offsetY; }
+
+        public Boolean getVisible() { return visible; }
+        public void setVisible(Boolean visible) { this.visible = visible; }
+
+        public Double getLineWidth() { return lineWidth; }
+        public void setLineWidth(Double lineWidth) { this.lineWidth = lineWidth; }
+
+        public String getColor() { return color; }
+        public void setColor(String color) { this.color = color; }
+
+        public Double getOpacity() { return opacity; }
+        public void setOpacity(Double opacity) { this.opacity = opacity; }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Characters {
+        private List<CharacterData.Character> players = new ArrayList<>();
+        private List<CharacterData.Enemy> enemies = new ArrayList<>();
+        private Integer enemyLetterCounter;
+        private String playerColor;
+        private String enemyColor;
+
+        public List<CharacterData.Character> getPlayers() { return players; }
+        public void setPlayers(List<CharacterData.Character> players) { this.players = players; }
+
+        public List<CharacterData.Enemy> getEnemies() { return enemies; }
+        public void setEnemies(List<CharacterData.Enemy> enemies) { this.enemies = enemies; }
+
+        public Integer getEnemyLetterCounter() { return enemyLetterCounter; }
+        public void setEnemyLetterCounter(Integer enemyLetterCounter) { this.enemyLetterCounter = enemyLetterCounter; }
+
+        public String getPlayerColor() { return playerColor; }
+        public void setPlayerColor(String playerColor) { this.playerColor = playerColor; }
+
+        public String getEnemyColor() { return enemyColor; }
+        public void setEnemyColor(String enemyColor) { this.enemyColor = enemyColor; }
+    }
+
+    /**
+     * Sekcja mgły - migawka FogStore (wersja = ostatnia operacja objęta migawką)
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Fog {
+        private String mapName;
+        private Long version;
+        private List<FogState.FogPoint> revealedAreas = new ArrayList<>();
+        private FogState.RasterData raster; // w pliku dane maski są skompresowane (Deflate + Base64)
+        private GridCells gridCells;
+
+        public String getMapName() { return mapName; }
+        public void setMapName(String mapName) { this.mapName = mapName; }
+
+        public Long getVersion() { return version; }
+        public void setVersion(Long version) { this.version = version; }
+
+        public List<FogState.FogPoint> getRevealedAreas() { return revealedAreas; }
+        public void setRevealedAreas(List<FogState.FogPoint> revealedAreas) { this.revealedAreas = revealedAreas; }
+
+        public FogState.RasterData getRaster() { return raster; }
+        public void setRaster(FogState.RasterData raster) { this.raster = raster; }
+
+        public GridCells getGridCells() { return gridCells; }
+        public void setGridCells(GridCells gridCells) { this.gridCells = gridCells; }
+    }
+
+    /**
+     * Odsłonięte kratki siatki jako BitSet (Base64) - układ siatki z chwili zapisu
+     */
+    public static class GridCells {
+        private double gridSize;
+        private double offsetX;
+        private double offsetY;
+        private int columns;
+        private int rows;
+        private String data;
+
+        public GridCells() {}
+
+        public GridCells(double gridSize, double offsetX, double offsetY, int columns, int rows, String data) {
+            this.gridSize = gridSize;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            this.columns = columns;
+            this.rows = rows;
+            this.data = data;
+        }
+
+        public double getGridSize() { return gridSize; }
+        public void setGridSize(double gridSize) { this.gridSize = gridSize; }
+
+        public double getOffsetX() { return offsetX; }
+        public void setOffsetX(double offsetX) { this.offsetX = offsetX; }
+
+        public double getOffsetY() { return offsetY; }
+        public void setOffsetY(double offsetY) { this.offsetY = offsetY; }
+
+        public int getColumns() { return columns; }
+        public void setColumns(int columns) { this.columns = columns; }
+
+        public int getRows() { return rows; }
+        public void setRows(int rows) { this.rows = rows; }
+
+        public String getData() { return data; }
+        public void setData(String data) { this.data = data; }
+    }
+}
@@ -0,0 +1,197 @@
+package com.dnd.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Atomowy zapis pliku: plik tymczasowy w tym samym katalogu -> force() -> ATOMIC_MOVE.
+ * Po awarii w trakcie zapisu na dysku jest stara albo nowa wersja pliku, nigdy urwana.
+ *
+ * Zmiana nazwy jest trwała dopiero po fsync katalogu. Zapisy do jednego katalogu
+ * współdzielą ten fsync (group commit): gdy trwa fsync, kolejni piszący czekają
+ * i wszystkich obejmuje jeden następny fsync.
+ */
+public final class AtomicFiles {
+
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int MOVE_ATTEMPTS = 3;
+    private static final Map<Path, DirectorySync> DIRECTORIES = new ConcurrentHashMap<>();
+
+    private AtomicFiles() {}
+
+    public static void write(Path target, byte[] data) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Path temp = temporaryFile(target);
+
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            move(temp, target);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        DIRECTORIES.computeIfAbsent(directory, DirectorySync::new).sync();
+    }
+
+    /**
+     * Zapisz strumień (np. obraz mapy) do pliku tymczasowego obok docelowego. Plik pojawi się
+     * pod docelową nazwą dopiero w commit() - blokada pliku nie musi trwać przez cały transfer.
+     */
+    public static Path writeTemporary(Path target, InputStream in) throws IOException {
+        Path temp = temporaryFile(target);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            OutputStream out = Channels.newOutputStream(channel);
+            in.transferTo(out);
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    /**
+     * Podmień plik docelowy plikiem z writeTemporary()
+     */
+    public static void commit(Path temp, Path target) throws IOException {
+        try {
+            move(temp, target);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        DIRECTORIES.computeIfAbsent(target.toAbsolutePath().getParent(), DirectorySync::new).sync();
+    }
+
+    private static Path temporaryFile(Path target) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        return directory.resolve(target.getFileName() + "." +
+            Long.toHexString(ThreadLocalRandom.current().nextLong()) + TEMP_SUFFIX);
+    }
+
+    /**
+     * Usuń pliki tymczasowe po przerwanych zapisach (np. awaria procesu przed zmianą nazwy)
+     */
+    public static void cleanTemporaryFiles(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + TEMP_SUFFIX)) {
+            for (Path temp : stream) {
+                Files.deleteIfExists(temp);
+                System.out.println("🧹 Usunięto plik tymczasowy po przerwanym zapisie: " + temp.getFileName());
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️ Nie można wyczyścić plików tymczasowych w " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private static void move(Path temp, Path target) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                return;
+            } catch (AtomicMoveNotSupportedException e) {
+                // System plików bez atomowej zmiany nazwy - zwykłe zastąpienie
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                return;
+            } catch (AccessDeniedException e) {
+                // Windows: plik docelowy chwilowo otwarty przez inny proces (antywirus, indeksowanie)
+                if (attempt >= MOVE_ATTEMPTS) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(25L * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Group commit fsync katalogu - numer żądania jest obsłużony, gdy zakończony fsync
+     * rozpoczął się po jego zgłoszeniu
+     */
+    private static final class DirectorySync {
+        private final Path directory;
+        private long requested;
+        private long completed;
+        private boolean syncing;
+        private volatile boolean supported = true;
+
+        DirectorySync(Path directory) {
+            this.directory = directory;
+        }
+
+        void sync() throws IOException {
+            if (!supported) {
+                return;
+            }
+
+            long covered;
+            synchronized (this) {
+                long ticket = ++requested;
+                while (syncing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Przerwano oczekiwanie na fsync katalogu " + directory);
+                    }
+                }
+                if (completed >= ticket) {
+                    return; // Objęty fsync wykonanym przez inny wątek
+                }
+                // Ten wątek wykonuje fsync za wszystkich zgłoszonych do tej pory
+                syncing = true;
+                covered = requested;
+            }
+
+            try {
+                forceDirectory();
+            } finally {
+                synchronized (this) {
+                    syncing = false;
+                    completed = Math.max(completed, covered);
+                    notifyAll();
+                }
+            }
+        }
+
+        // Poza monitorem - w trakcie fsync kolejni piszący mogą się zgłaszać
+        private void forceDirectory() {
+            try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                // Np. Windows nie pozwala otworzyć katalogu - zmiana nazwy i tak jest atomowa
+                supported = false;
+                System.err.println("⚠️ fsync katalogu niedostępny (" + directory + "): " + e.getMessage());
+            }
+        }
+    }
+}
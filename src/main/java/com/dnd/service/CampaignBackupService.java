@@ -0,0 +1,360 @@
+package com.dnd.service;
+
+import com.dnd.config.MapConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Backup i odtwarzanie kampanii jako archiwum ZIP przesyłane strumieniowo: obrazy map
+ * ("maps/<plik>") i dokumenty map pod nazwami z DocumentStorage ("grid-configs/<mapa>_grid.json" itd.).
+ *
+ * Backup mapy to migawka z jednej chwili: mgła z pamięci jest zapisywana, a potem pod krótką
+ * barierą zapisu wszystkich plików mapy (PersistenceQueue.withBarrier) dokumenty są odczytywane
+ * i otwierany jest obraz. Przesyłanie do klienta odbywa się już bez blokad - zapisy podmieniają
+ * pliki przez zmianę nazwy, więc otwarty obraz zostaje w wersji z chwili migawki.
+ *
+ * Odtwarzanie zbiera pliki jednej mapy (obrazy trafiają do plików tymczasowych) i podmienia je
+ * razem pod barierą - dokumenty mapy, których nie ma w archiwum, są usuwane.
+ * Dokumenty są czytane do pamięci, więc ich rozmiar jest ograniczony (MAX_DOCUMENT_BYTES) -
+ * większy wpis przerywa odtwarzanie przed podmianą plików jego mapy.
+ */
+@Service
+public class CampaignBackupService {
+
+    private static final String MAPS_PREFIX = "maps/";
+    // Sufiksy plików dokumentów mapy - kolejność ma znaczenie (".json" = stan mgły w fog-states)
+    private static final List<String> DOCUMENT_SUFFIXES = List.of("_data.json", "_characters.json", "_grid.json", "_settings.json", ".json");
+    // Rozmiar po rozpakowaniu - nagłówek ZIP może podawać dowolny
+    static final int MAX_DOCUMENT_BYTES = 64 << 20;
+
+    private final MapConfiguration mapConfiguration;
+    private final MapService mapService;
+    private final MapDataService mapDataService;
+    private final DocumentStorage storage;
+    private final PersistenceQueue persistenceQueue;
+    private final DocumentCache documentCache;
+    private final FogStore fogStore;
+    private final FogService fogService;
+    private final CharacterService characterService;
+
+    @Autowired
+    public CampaignBackupService(MapConfiguration mapConfiguration, MapService mapService, MapDataService mapDataService,
+                                 DocumentStorage storage, PersistenceQueue persistenceQueue, DocumentCache documentCache,
+                                 FogStore fogStore, FogService fogService, CharacterService characterService) {
+        this.mapConfiguration = mapConfiguration;
+        this.mapService = mapService;
+        this.mapDataService = mapDataService;
+        this.storage = storage;
+        this.persistenceQueue = persistenceQueue;
+        this.documentCache = documentCache;
+        this.fogStore = fogStore;
+        this.fogService = fogService;
+        this.characterService = characterService;
+    }
+
+    // Migawka mapy: dokumenty (małe, w pamięci) i otwarty obraz (przesyłany strumieniowo)
+    private static class MapSnapshot {
+        private final Map<String, byte[]> documents = new LinkedHashMap<>();
+        private InputStream image;
+    }
+
+    // Pliki jednej mapy z archiwum, podmieniane razem
+    private static class RestoreGroup {
+        private final String mapName; // null = dokument spoza map (np. backup uszkodzonego pliku)
+        private final Map<Path, byte[]> documents = new LinkedHashMap<>();
+        private final Map<Path, Path> images = new LinkedHashMap<>(); // docelowy -> tymczasowy
+
+        RestoreGroup(String mapName) {
+            this.mapName = mapName;
+        }
+    }
+
+    /**
+     * Zapisz archiwum wszystkich map i dokumentów do strumienia
+     */
+    public Map<String, Object> writeBackup(OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        int maps = 0;
+        int documents = 0;
+        Set<Path> written = new HashSet<>();
+
+        ZipOutputStream zip = new ZipOutputStream(out);
+        for (Path image : mapService.getMapImages()) {
+            String filename = image.getFileName().toString();
+            String mapName = filename.substring(0, filename.lastIndexOf('.'));
+            List<Path> mapDocuments = mapDocuments(mapName);
+            written.addAll(mapDocuments);
+
+            MapSnapshot snapshot = snapshot(mapName, image, mapDocuments);
+            try (InputStream in = snapshot.image) {
+                if (in != null) {
+                    putEntry(zip, MAPS_PREFIX + filename, in);
+                }
+            }
+            for (Map.Entry<String, byte[]> document : snapshot.documents.entrySet()) {
+                putEntry(zip, document.getKey(), document.getValue());
+            }
+            documents += snapshot.documents.size();
+            maps++;
+        }
+
+        // Dokumenty bez obrazu mapy (np. backupy uszkodzonych plików) - każdy pod własną barierą
+        for (Path document : storage.documents()) {
+            Path key = document.toAbsolutePath().normalize();
+            if (!written.add(key)) {
+                continue;
+            }
+            String mapName = mapNameOf(key);
+            if (mapName != null) {
+                characterService.flush(mapName); // Pionki mapy bez obrazu też mogą czekać na zapis
+            }
+            byte[] raw = persistenceQueue.withBarrier(List.of(key), () -> storage.readRaw(key));
+            if (raw != null) {
+                putEntry(zip, storage.name(key), raw);
+                documents++;
+            }
+        }
+        zip.finish();
+        zip.flush();
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("maps", maps);
+        summary.put("documents", documents);
+        summary.put("durationMs", System.currentTimeMillis() - start);
+        return summary;
+    }
+
+    private MapSnapshot snapshot(String mapName, Path image, List<Path> mapDocuments) throws IOException {
+        fogStore.flush(mapName); // Mgła z pamięci trafia do pliku danych przed migawką
+        characterService.flush(mapName); // Tak samo niezapisane ruchy pionków
+
+        List<Path> barrier = new ArrayList<>(mapDocuments);
+        barrier.add(image);
+        return persistenceQueue.withBarrier(barrier, () -> {
+            MapSnapshot snapshot = new MapSnapshot();
+            for (Path document : mapDocuments) {
+                byte[] raw = storage.readRaw(document);
+                if (raw != null) {
+                    snapshot.documents.put(storage.name(document), raw);
+                }
+            }
+            if (Files.isRegularFile(image)) {
+                snapshot.image = Files.newInputStream(image);
+            }
+            return snapshot;
+        });
+    }
+
+    /**
+     * Odtwórz mapy i dokumenty z archiwum - nadpisuje istniejące, mapy spoza archiwum zostają
+     */
+    public Map<String, Object> restore(InputStream in) throws IOException {
+        long start = System.currentTimeMillis();
+        int[] counts = new int[3]; // mapy, dokumenty, obrazy
+        int skipped = 0;
+
+        ZipInputStream zip = new ZipInputStream(in);
+        RestoreGroup group = null;
+        try {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String name = entry.getName();
+                Path image = null;
+                Path document = null;
+                String mapName;
+                if (name.startsWith(MAPS_PREFIX)) {
+                    image = imagePath(name.substring(MAPS_PREFIX.length()));
+                    mapName = image != null ? stripExtension(image.getFileName().toString()) : null;
+                } else {
+                    document = storage.resolve(name);
+                    mapName = document != null ? mapNameOf(document) : null;
+                }
+                if (image == null && document == null) {
+                    skipped++;
+                    System.err.println("⚠️ Pominięto nieznany plik w archiwum: " + name);
+                    continue;
+                }
+
+                // Pliki mapy leżą w archiwum obok siebie - nowa mapa zamyka poprzednią grupę
+                if (group != null && (mapName == null || !Objects.equals(group.mapName, mapName))) {
+                    apply(group, counts);
+                    group = null;
+                }
+                if (group == null) {
+                    group = new RestoreGroup(mapName);
+                }
+                if (image != null) {
+                    Path previous = group.images.put(image, AtomicFiles.writeTemporary(image, zip));
+                    if (previous != null) {
+                        Files.deleteIfExists(previous);
+                    }
+                } else {
+                    group.documents.put(document.toAbsolutePath().normalize(), readDocument(zip, name));
+                }
+            }
+            if (group != null) {
+                apply(group, counts);
+                group = null;
+            }
+        } finally {
+            if (group != null) {
+                for (Path temp : group.images.values()) {
+                    Files.deleteIfExists(temp);
+                }
+            }
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("maps", counts[0]);
+        summary.put("documents", counts[1]);
+        summary.put("images", counts[2]);
+        summary.put("skipped", skipped);
+        summary.put("durationMs", System.currentTimeMillis() - start);
+        return summary;
+    }
+
+    private static byte[] readDocument(ZipInputStream zip, String name) throws IOException {
+        byte[] data = zip.readNBytes(MAX_DOCUMENT_BYTES + 1);
+        if (data.length > MAX_DOCUMENT_BYTES) {
+            throw new IOException("Dokument " + name + " w archiwum przekracza " + (MAX_DOCUMENT_BYTES >> 20) + " MB");
+        }
+        return data;
+    }
+
+    private void apply(RestoreGroup group, int[] counts) throws IOException {
+        Set<Path> barrier = new LinkedHashSet<>(group.documents.keySet());
+        barrier.addAll(group.images.keySet());
+        List<Path> replacedImages = new ArrayList<>();
+        if (group.mapName != null) {
+            barrier.addAll(mapDocuments(group.mapName));
+            if (!group.images.isEmpty()) {
+                // Obraz mapy w innym formacie niż w archiwum (np. .png zamiast .jpg) byłby drugą mapą
+                for (Path existing : mapService.getMapImages()) {
+                    Path key = existing.toAbsolutePath().normalize();
+                    if (group.mapName.equals(stripExtension(existing.getFileName().toString())) && !group.images.containsKey(key)) {
+                        replacedImages.add(key);
+                    }
+                }
+                barrier.addAll(replacedImages);
+            }
+            // Mgła w pamięci nie może nadpisać odtworzonego pliku danych
+            fogService.evictFogState(group.mapName);
+            // Niezapisane ruchy pionków trafiają na dysk przed podmianą - odtworzony plik różni się
+            // od ostatniego zapisu serwisu, więc kolejny odczyt go wczyta zamiast zachować ruchy
+            characterService.flush(group.mapName);
+        }
+
+        try {
+            persistenceQueue.withBarrier(barrier, () -> {
+                for (Map.Entry<Path, Path> image : group.images.entrySet()) {
+                    AtomicFiles.commit(image.getValue(), image.getKey());
+                }
+                for (Path replaced : replacedImages) {
+                    Files.deleteIfExists(replaced);
+                }
+                for (Map.Entry<Path, byte[]> document : group.documents.entrySet()) {
+                    persistenceQueue.writeRaw(document.getKey(), document.getValue());
+                }
+                if (group.mapName != null) {
+                    for (Path document : mapDocuments(group.mapName)) {
+                        if (!group.documents.containsKey(document)) {
+                            persistenceQueue.delete(document);
+                        }
+                    }
+                }
+                return null;
+            });
+        } finally {
+            for (Path temp : group.images.values()) {
+                Files.deleteIfExists(temp); // Po udanym commit() już nie istnieje
+            }
+            for (Path file : barrier) {
+                documentCache.invalidate(file);
+            }
+        }
+
+        if (group.mapName != null) {
+            // Odczyt w trakcie odtwarzania mógł wczytać stary plik danych
+            fogService.evictFogState(group.mapName);
+            counts[0]++;
+        }
+        counts[1] += group.documents.size();
+        counts[2] += group.images.size();
+    }
+
+    // Wszystkie dokumenty mapy - jak przy usuwaniu mapy w MapService
+    private List<Path> mapDocuments(String mapName) {
+        return List.of(
+            mapDataService.dataFile(mapName),
+            Paths.get(mapConfiguration.getCharacters().getDirectory(), mapName + "_characters.json"),
+            Paths.get(mapConfiguration.getGridConfigs().getDirectory(), mapName + "_grid.json"),
+            Paths.get(mapConfiguration.getSettings().getDirectory(), mapName + "_settings.json"),
+            Paths.get(mapConfiguration.getFogStates().getDirectory(), mapName + ".json")
+        ).stream().map(path -> path.toAbsolutePath().normalize()).toList();
+    }
+
+    // Mapa, do której należy dokument, albo null (np. data/<mapa>_data_backup_<czas>.json)
+    private String mapNameOf(Path document) {
+        Path key = document.toAbsolutePath().normalize();
+        String filename = key.getFileName().toString();
+        for (String suffix : DOCUMENT_SUFFIXES) {
+            if (filename.endsWith(suffix) && filename.length() > suffix.length()) {
+                String mapName = filename.substring(0, filename.length() - suffix.length());
+                if (mapDocuments(mapName).contains(key)) {
+                    return mapName;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Path imagePath(String filename) {
+        if (filename.isEmpty() || filename.contains("/") || filename.contains("\\") || filename.startsWith(".")
+            || filename.indexOf('.') < 1 || !mapService.isSupportedFormat(filename)) {
+            return null;
+        }
+        return Paths.get(mapConfiguration.getMaps().getDirectory(), filename).toAbsolutePath().normalize();
+    }
+
+    private static String stripExtension(String filename) {
+        return filename.substring(0, filename.lastIndexOf('.'));
+    }
+
+    private static void putEntry(ZipOutputStream zip, String name, byte[] data) throws IOException {
+        // Dokumenty gzip są już skompresowane - kompresujemy tylko JSON
+        zip.setLevel(DocumentStorage.isGzip(data) ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(data);
+        zip.closeEntry();
+    }
+
+    private static void putEntry(ZipOutputStream zip, String name, InputStream in) throws IOException {
+        // Obrazy (jpg, png, gif) są już skompresowane - deflate tylko zużyłby CPU
+        zip.setLevel(Deflater.NO_COMPRESSION);
+        zip.putNextEntry(new ZipEntry(name));
+        in.transferTo(zip);
+        zip.closeEntry();
+    }
+}
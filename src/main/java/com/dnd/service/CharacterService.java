@@ -1,26 +1,89 @@
 package com.dnd.service;
 
 import com.dnd.config.MapConfiguration;
+import com.dnd.model.CharacterChanges;
 import com.dnd.model.CharacterData;
+import com.dnd.model.CharacterOperation;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Pionki map trzymane w pamięci (po jednym wpisie na mapę) z numerem wersji i buforem
+ * ostatnich operacji - przesunięcie jednego pionka to jedna operacja, a klienci pobierają
+ * tylko zmiany po swojej wersji (/changes).
+ *
+ * Operacja tylko oznacza mapę jako zmienioną - wątek "character-writer" serializuje dokument mapy
+ * raz na app.storage.write-delay-ms, więc seria przesunięć kończy się jedną serializacją i jednym
+ * zapisem małego pliku. Zmiana generacji klucza w DocumentCache (odtworzenie backupu, edycja na dysku,
+ * ale też samo unieważnienie cache) powoduje porównanie sumy CRC32 pliku z ostatnio wczytaną/zapisaną -
+ * wpis jest wczytywany od nowa tylko wtedy, gdy treść pliku naprawdę się zmieniła.
+ */
 @Service
 public class CharacterService {
 
+    private static final int CHANGE_BUFFER_SIZE = 256;
+    private static final String ENEMY_LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    private static final long ABSENT = -1; // suma "pliku nie ma" - CRC32 nigdy nie jest ujemne
+    private static final long NONE = -2; // brak zapisu w toku
+
     private final MapConfiguration mapConfiguration;
+    private final PersistenceQueue persistenceQueue;
+    private final DocumentCache documentCache;
+    private final DocumentStorage storage;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, CharacterEntry> entries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService writer;
+    private final long writeDelayMs;
+
+    private static final class CharacterEntry {
+        private final Path file;
+        // Zapisy jednej mapy są serializowane - starszy dokument nie nadpisze nowszego
+        private final Object flushLock = new Object();
+        private boolean dirty; // zmiany jeszcze nie zapisane do pliku
+        private boolean scheduled;
+        private CharacterData data;
+        private long generation; // generacja pliku w DocumentCache z chwili wczytania/zapisu
+        private long checksum = ABSENT; // CRC32 treści pliku z chwili wczytania/zapisu
+        private long writing = NONE; // CRC32 dokumentu zapisywanego właśnie przez flushEntry
+        private final Deque<CharacterOperation> changes = new ArrayDeque<>();
+        private long changesFrom; // najstarsza wersja, od której bufor zawiera wszystkie operacje
+
+        CharacterEntry(Path file) {
+            this.file = file;
+        }
+    }
 
     @Autowired
-    public CharacterService(MapConfiguration mapConfiguration) {
+    public CharacterService(MapConfiguration mapConfiguration, PersistenceQueue persistenceQueue,
+                            DocumentCache documentCache, DocumentStorage storage) {
         this.mapConfiguration = mapConfiguration;
+        this.persistenceQueue = persistenceQueue;
+        this.documentCache = documentCache;
+        this.storage = storage;
+        this.writeDelayMs = Math.max(0, mapConfiguration.getStorage().getWriteDelayMs());
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "character-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
 
         // Utwórz katalog na postacie jeśli nie istnieje
         File dir = new File(mapConfiguration.getCharacters().getDirectory());
@@ -29,39 +92,362 @@ public class CharacterService {
         }
     }
 
+    /**
+     * Zastąp wszystkie pionki mapy - klienci przyrostowi pobiorą pełny stan
+     */
     public void saveCharacters(String mapName, CharacterData data) {
-        try {
-            String charactersDir = mapConfiguration.getCharacters().getDirectory();
-            File file = new File(charactersDir, mapName + "_characters.json");
-            objectMapper.writeValue(file, data);
-        } catch (IOException e) {
-            System.err.println("Błąd zapisywania postaci dla mapy " + mapName + ": " + e.getMessage());
+        CharacterEntry entry = entry(mapName);
+        synchronized (entry) {
+            refresh(entry);
+            data.setVersion(entry.data.getVersion());
+            assignIds(data);
+            entry.data = data;
+            record(entry, CharacterOperation.replace());
         }
     }
 
+    /**
+     * Kopia pionków mapy (pusta struktura, gdy mapa nie ma pionków)
+     */
     public CharacterData loadCharacters(String mapName) {
-        try {
-            String charactersDir = mapConfiguration.getCharacters().getDirectory();
-            File file = new File(charactersDir, mapName + "_characters.json");
-            if (file.exists()) {
-                return objectMapper.readValue(file, CharacterData.class);
+        CharacterEntry entry = entry(mapName);
+        synchronized (entry) {
+            refresh(entry);
+            return copy(entry.data);
+        }
+    }
+
+    public CharacterOperation addPlayer(String mapName, double x, double y) {
+        CharacterEntry entry = entry(mapName);
+        synchronized (entry) {
+            refresh(entry);
+            CharacterData.Character player = new CharacterData.Character(x, y);
+            player.setId(newId(entry.data));
+            entry.data.getCharacters().getPlayers().add(player);
+
+            CharacterOperation operation = new CharacterOperation(CharacterOperation.ADD, CharacterOperation.PLAYER, player.getId());
+            operation.setX(x);
+            operation.setY(y);
+            return record(entry, operation);
+        }
+    }
+
+    /**
+     * Dodaj wroga - bez litery dostaje kolejną (A, B, ...), jak przy dodawaniu w edytorze
+     */
+    public CharacterOperation addEnemy(String mapName, double x, double y, String letter) {
+        CharacterEntry entry = entry(mapName);
+        synchronized (entry) {
+            refresh(entry);
+            if (letter == null || letter.isBlank()) {
+                int counter = entry.data.getEnemyLetterCounter();
+                letter = String.valueOf(ENEMY_LETTERS.charAt(Math.floorMod(counter, ENEMY_LETTERS.length())));
+                entry.data.setEnemyLetterCounter(counter + 1);
             }
-        } catch (IOException e) {
-            System.err.println("Błąd wczytywania postaci dla mapy " + mapName + ": " + e.getMessage());
+            CharacterData.Enemy enemy = new CharacterData.Enemy(x, y, letter);
+            enemy.setId(newId(entry.data));
+            entry.data.getCharacters().getEnemies().add(enemy);
+
+            CharacterOperation operation = new CharacterOperation(CharacterOperation.ADD, CharacterOperation.ENEMY, enemy.getId());
+            operation.setX(x);
+            operation.setY(y);
+            operation.setLetter(letter);
+            return record(entry, operation);
+        }
+    }
+
+    /**
+     * Przesuń pionek - null, gdy mapa nie ma pionka o tym id
+     */
+    public CharacterOperation moveCharacter(String mapName, String id, double x, double y) {
+        CharacterEntry entry = entry(mapName);
+        synchronized (entry) {
+            refresh(entry);
+            CharacterData.Character character = find(entry.data.getCharacters().getPlayers(), id);
+            String kind = CharacterOperation.PLAYER;
+            if (character == null) {
+                character = find(entry.data.getCharacters().getEnemies(), id);
+                kind = CharacterOperation.ENEMY;
+            }
+            if (character == null) {
+                return null;
+            }
+            character.setX(x);
+            character.setY(y);
+
+            CharacterOperation operation = new CharacterOperation(CharacterOperation.MOVE, kind, id);
+            operation.setX(x);
+            operation.setY(y);
+            return record(entry, operation);
+        }
+    }
+
+    /**
+     * Usuń pionek - null, gdy mapa nie ma pionka o tym id
+     */
+    public CharacterOperation removeCharacter(String mapName, String id) {
+        CharacterEntry entry = entry(mapName);
+        synchronized (entry) {
+            refresh(entry);
+            String kind;
+            if (entry.data.getCharacters().getPlayers().removeIf(player -> id.equals(player.getId()))) {
+                kind = CharacterOperation.PLAYER;
+            } else if (entry.data.getCharacters().getEnemies().removeIf(enemy -> id.equals(enemy.getId()))) {
+                kind = CharacterOperation.ENEMY;
+            } else {
+                return null;
+            }
+            return record(entry, new CharacterOperation(CharacterOperation.REMOVE, kind, id));
+        }
+    }
+
+    /**
+     * Operacje po wersji since albo pełny stan, gdy bufor nie sięga tak daleko (lub była zamiana całości)
+     */
+    public CharacterChanges changesSince(String mapName, long since) {
+        CharacterEntry entry = entry(mapName);
+        synchronized (entry) {
+            refresh(entry);
+            long version = entry.data.getVersion();
+            if (since < entry.changesFrom || since > version) {
+                return CharacterChanges.full(mapName, since, copy(entry.data));
+            }
+            List<CharacterOperation> operations = new ArrayList<>();
+            for (CharacterOperation operation : entry.changes) {
+                if (operation.getVersion() <= since) {
+                    continue;
+                }
+                if (!operation.isIncremental()) {
+                    return CharacterChanges.full(mapName, since, copy(entry.data));
+                }
+                operations.add(operation);
+            }
+            return CharacterChanges.delta(mapName, since, version, operations);
         }
-        return new CharacterData(); // Zwróć pustą strukturę
     }
 
     public void deleteCharacters(String mapName) {
         try {
-            String charactersDir = mapConfiguration.getCharacters().getDirectory();
-            File file = new File(charactersDir, mapName + "_characters.json");
-            if (file.exists()) {
-                file.delete();
+            CharacterEntry entry = entry(mapName);
+            synchronized (entry.flushLock) {
+                synchronized (entry) {
+                    // Wpis zostaje - pusta struktura z nową wersją, klienci pobiorą pełny stan
+                    persistenceQueue.delete(entry.file);
+                    documentCache.invalidate(entry.file);
+                    if (entry.data != null) {
+                        load(entry, new CharacterData(), ABSENT, documentCache.generation(entry.file));
+                    }
+                }
             }
         } catch (Exception e) {
             System.err.println("Błąd usuwania postaci dla mapy " + mapName + ": " + e.getMessage());
         }
     }
-}
 
+    /**
+     * Zapisz natychmiast pionki mapy, jeśli mają niezapisane zmiany (np. przed migawką backupu)
+     */
+    public void flush(String mapName) {
+        CharacterEntry entry = entries.get(mapName);
+        if (entry != null) {
+            flushEntry(entry);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (CharacterEntry entry : entries.values()) {
+            flushEntry(entry);
+        }
+    }
+
+    private CharacterEntry entry(String mapName) {
+        return entries.computeIfAbsent(mapName, name ->
+            new CharacterEntry(new File(mapConfiguration.getCharacters().getDirectory(), name + "_characters.json").toPath()));
+    }
+
+    // Wczytaj pionki, gdy wpis jest nowy albo plik zmieniono poza serwisem - wywoływane pod blokadą wpisu
+    private void refresh(CharacterEntry entry) {
+        long generation = documentCache.generation(entry.file);
+        if (entry.data != null && entry.generation == generation) {
+            return;
+        }
+
+        byte[] bytes;
+        try {
+            // Niezapisana jeszcze wersja z kolejki -> magazyn
+            bytes = persistenceQueue.pending(entry.file, document -> document);
+            if (bytes == null) {
+                bytes = storage.read(entry.file);
+            }
+        } catch (IOException e) {
+            // Nie wiadomo, co jest w pliku - wpis zostaje, spróbujemy przy kolejnym dostępie
+            System.err.println("Błąd wczytywania postaci z " + entry.file.getFileName() + ": " + e.getMessage());
+            if (entry.data != null) {
+                return;
+            }
+            bytes = null;
+        }
+
+        long checksum = bytes != null ? DocumentStorage.checksum(bytes) : ABSENT;
+        if (entry.data != null && (checksum == entry.checksum || checksum == entry.writing)) {
+            entry.generation = generation; // Unieważnienie bez zmiany treści (np. własny zapis, przepełnienie zdarzeń)
+            return;
+        }
+        if (entry.dirty) {
+            System.err.println("⚠️ Plik " + entry.file.getFileName() + " zmieniony poza serwisem - porzucono niezapisane zmiany pionków do wersji "
+                + entry.data.getVersion());
+        }
+
+        CharacterData data = null;
+        if (bytes != null) {
+            try {
+                data = objectMapper.readValue(bytes, CharacterData.class);
+            } catch (IOException e) {
+                System.err.println("Błąd wczytywania postaci z " + entry.file.getFileName() + ": " + e.getMessage());
+            }
+        }
+        load(entry, data != null ? data : new CharacterData(), checksum, generation);
+    }
+
+    // Zastąp dokument wpisu wczytanym - wywoływane pod blokadą wpisu
+    private void load(CharacterEntry entry, CharacterData data, long checksum, long generation) {
+        assignIds(data);
+        if (entry.data != null) {
+            // Wersja nigdy się nie cofa - klienci z buforem zmian muszą dostać pełny stan
+            data.setVersion(Math.max(data.getVersion(), entry.data.getVersion() + 1));
+        }
+        entry.data = data;
+        entry.changes.clear();
+        entry.changesFrom = data.getVersion();
+        entry.checksum = checksum;
+        entry.generation = generation;
+        entry.dirty = false; // Plik wczytany od nowa - nie ma czego zapisywać
+    }
+
+    private CharacterOperation record(CharacterEntry entry, CharacterOperation operation) {
+        long version = entry.data.getVersion() + 1;
+        entry.data.setVersion(version);
+        operation.setVersion(version);
+
+        entry.changes.addLast(operation);
+        while (entry.changes.size() > CHANGE_BUFFER_SIZE) {
+            entry.changesFrom = entry.changes.removeFirst().getVersion();
+        }
+
+        // Bez serializacji w żądaniu - kolejne operacje przed zapisem dołączą do tego samego zapisu
+        entry.dirty = true;
+        schedule(entry);
+        return operation;
+    }
+
+    // Wywoływane pod blokadą wpisu
+    private void schedule(CharacterEntry entry) {
+        // Po zamknięciu wątku zapisu zmiany zapisze shutdown()
+        if (!entry.scheduled && !writer.isShutdown()) {
+            entry.scheduled = true;
+            writer.schedule(() -> flushEntry(entry), writeDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushEntry(CharacterEntry entry) {
+        synchronized (entry.flushLock) {
+            byte[] document;
+            long checksum;
+            synchronized (entry) {
+                entry.scheduled = false;
+                if (entry.data == null) {
+                    return;
+                }
+                // Zmiana pliku spoza serwisu ma pierwszeństwo przed niezapisanymi zmianami (z ostrzeżeniem)
+                refresh(entry);
+                if (!entry.dirty) {
+                    return;
+                }
+                try {
+                    document = objectMapper.writeValueAsBytes(entry.data);
+                } catch (IOException e) {
+                    System.err.println("Błąd serializacji postaci z " + entry.file.getFileName() + ": " + e.getMessage());
+                    return;
+                }
+                entry.dirty = false;
+                checksum = DocumentStorage.checksum(document);
+                // Odczyt w trakcie zapisu może już zobaczyć nowy plik - to nadal własna zmiana
+                entry.writing = checksum;
+            }
+
+            boolean written = false;
+            try {
+                persistenceQueue.writeNow(entry.file, document, bytes -> bytes);
+                written = true;
+            } catch (IOException e) {
+                // Wpis pozostaje oznaczony do zapisu - spróbujemy po kolejnym interwale
+                System.err.println("Błąd zapisu postaci do " + entry.file.getFileName() + ": " + e.getMessage());
+            }
+            synchronized (entry) {
+                entry.writing = NONE;
+                if (written) {
+                    entry.checksum = checksum;
+                } else {
+                    entry.dirty = true;
+                    schedule(entry);
+                }
+            }
+        }
+    }
+
+    private void assignIds(CharacterData data) {
+        if (data.getCharacters() == null) {
+            data.setCharacters(new CharacterData.Characters());
+        }
+        if (data.getCharacters().getPlayers() == null) {
+            data.getCharacters().setPlayers(new ArrayList<>());
+        }
+        if (data.getCharacters().getEnemies() == null) {
+            data.getCharacters().setEnemies(new ArrayList<>());
+        }
+        Set<String> used = new HashSet<>();
+        List<CharacterData.Character> all = new ArrayList<>(data.getCharacters().getPlayers());
+        all.addAll(data.getCharacters().getEnemies());
+        for (CharacterData.Character character : all) {
+            if (character.getId() == null || !used.add(character.getId())) {
+                String id;
+                do {
+                    id = randomId();
+                } while (!used.add(id));
+                character.setId(id);
+            }
+        }
+    }
+
+    private static String newId(CharacterData data) {
+        String id;
+        do {
+            id = randomId();
+        } while (find(data.getCharacters().getPlayers(), id) != null || find(data.getCharacters().getEnemies(), id) != null);
+        return id;
+    }
+
+    private static String randomId() {
+        return Long.toString(ThreadLocalRandom.current().nextLong(Long.MAX_VALUE), 36);
+    }
+
+    private static <T extends CharacterData.Character> T find(List<T> characters, String id) {
+        for (T character : characters) {
+            if (id.equals(character.getId())) {
+                return character;
+            }
+        }
+        return null;
+    }
+
+    private CharacterData copy(CharacterData data) {
+        return objectMapper.convertValue(data, CharacterData.class);
+    }
+}
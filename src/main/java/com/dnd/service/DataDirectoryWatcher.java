@@ -0,0 +1,216 @@
+package com.dnd.service;
+
+import com.dnd.config.MapConfiguration;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Obserwuje katalogi dokumentów (WatchService) i unieważnia tylko wpisy plików zmienionych
+ * z zewnątrz - przywrócony backup albo ręczna edycja JSON w zamontowanym ./data działa bez restartu.
+ *
+ * Zapisy aplikacji też generują zdarzenia - DocumentStorage.isOwnChange je odfiltrowuje,
+ * więc mgła w pamięci nie jest przeładowywana po każdym własnym zapisie.
+ * Przy przepełnieniu kolejki zdarzeń (OVERFLOW) katalog jest skanowany od nowa - rozmiar i czas
+ * modyfikacji plików są porównywane z ostatnio widzianymi, a unieważniane są tylko pliki zmienione
+ * z zewnątrz (nie cały cache).
+ * Dla backendu "embedded" dokumenty nie leżą w katalogach - obserwowanie jest wyłączone.
+ */
+@Service
+public class DataDirectoryWatcher {
+
+    private static final String DOCUMENT_SUFFIX = ".json";
+    private static final String DATA_SUFFIX = "_data.json";
+
+    private final DocumentStorage storage;
+    private final DocumentCache documentCache;
+    private final FogService fogService;
+    private final Path dataDirectory;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    // Ostatnio widziany stan dokumentów - tylko wątek obserwatora (i konstruktor przed jego startem)
+    private final Map<Path, FileStamp> stamps = new HashMap<>();
+
+    private record FileStamp(long size, long modified) {}
+
+    @Autowired
+    public DataDirectoryWatcher(MapConfiguration mapConfiguration, DocumentStorage storage, DocumentCache documentCache,
+                                FogService fogService, MapDataService mapDataService) {
+        this.storage = storage;
+        this.documentCache = documentCache;
+        this.fogService = fogService;
+        this.dataDirectory = mapDataService.getDataDirectory().toAbsolutePath().normalize();
+
+        if (!mapConfiguration.getStorage().isWatchDirectories() || storage.isEmbedded()) {
+            this.watchService = null;
+            return;
+        }
+
+        WatchService service = null;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+            for (Path directory : storage.directories()) {
+                if (!Files.isDirectory(directory)) {
+                    continue;
+                }
+                WatchKey key = directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                directories.put(key, directory);
+                for (Path file : listDocuments(directory)) {
+                    stamps.put(file, stamp(file));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️ Nie można obserwować katalogów danych: " + e.getMessage());
+            closeQuietly(service);
+            service = null;
+        }
+        this.watchService = service;
+        if (watchService == null) {
+            return;
+        }
+
+        Thread thread = new Thread(this::watch, "directory-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("👀 Obserwowane katalogi danych: " + directories.size());
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = directories.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Zgubione zdarzenia - porównaj stan katalogu z ostatnio widzianym
+                    System.err.println("⚠️ Przepełnienie zdarzeń katalogu " + directory + " - skanuję pliki");
+                    rescan(directory);
+                    continue;
+                }
+                if (directory != null && event.context() instanceof Path name) {
+                    handleChange(directory, name.toString());
+                }
+            }
+            if (!key.reset()) {
+                directories.remove(key); // Katalog usunięty
+            }
+        }
+    }
+
+    // Katalog null = wszystkie obserwowane (OVERFLOW bez klucza)
+    private void rescan(Path directory) {
+        int changed = 0;
+        for (Path watched : directories.values()) {
+            if (directory != null && !directory.equals(watched)) {
+                continue;
+            }
+            Map<Path, FileStamp> current = new HashMap<>();
+            for (Path file : listDocuments(watched)) {
+                current.put(file, stamp(file));
+            }
+            List<Path> candidates = new ArrayList<>(current.keySet());
+            for (Path known : stamps.keySet()) {
+                if (known.getParent().equals(watched) && !current.containsKey(known)) {
+                    candidates.add(known); // Usunięty w czasie zgubionych zdarzeń
+                }
+            }
+            for (Path file : candidates) {
+                if (!Objects.equals(stamps.get(file), current.get(file))
+                        && handleChange(watched, file.getFileName().toString())) {
+                    changed++;
+                }
+            }
+        }
+        System.out.println("🔄 Po przepełnieniu zdarzeń unieważniono zmienionych plików: " + changed);
+    }
+
+    private List<Path> listDocuments(Path directory) {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + DOCUMENT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file.toAbsolutePath().normalize());
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️ Nie można odczytać katalogu " + directory + ": " + e.getMessage());
+        }
+        return files;
+    }
+
+    // null, gdy pliku nie ma
+    private static FileStamp stamp(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new FileStamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // true, gdy plik zmieniono z zewnątrz i jego wpisy zostały unieważnione
+    private boolean handleChange(Path directory, String name) {
+        // Pliki tymczasowe AtomicFiles (*.tmp), dziennik mgły i obrazy nie są dokumentami
+        if (!name.endsWith(DOCUMENT_SUFFIX)) {
+            return false;
+        }
+        Path file = directory.resolve(name).toAbsolutePath().normalize();
+        FileStamp stamp = stamp(file);
+        if (stamp != null) {
+            stamps.put(file, stamp);
+        } else {
+            stamps.remove(file);
+        }
+        try {
+            if (storage.isOwnChange(file)) {
+                return false;
+            }
+        } catch (IOException e) {
+            // Plik w trakcie zmiany - bezpieczniej unieważnić
+        }
+
+        documentCache.invalidate(file);
+        if (directory.equals(dataDirectory) && name.endsWith(DATA_SUFFIX)) {
+            // Mgła w pamięci i jej dziennik dotyczą poprzedniej wersji pliku - kolejny odczyt wczyta nową
+            fogService.evictFogState(name.substring(0, name.length() - DATA_SUFFIX.length()));
+        }
+        System.out.println("🔄 Plik zmieniony z zewnątrz: " + file);
+        return true;
+    }
+
+    private static void closeQuietly(WatchService service) {
+        if (service == null) {
+            return;
+        }
+        try {
+            service.close();
+        } catch (IOException e) {
+            // ignorujemy
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        closeQuietly(watchService);
+    }
+}
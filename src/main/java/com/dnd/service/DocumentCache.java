@@ -0,0 +1,218 @@
+package com.dnd.service;
+
+import com.dnd.config.MapConfiguration;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wspólny cache dokumentów map (dane mapy, postacie, siatka, ustawienia) - klucz to ścieżka pliku.
+ * LRU ograniczone szacowanym rozmiarem w pamięci (app.cache.max-mb), żeby zmieścić się
+ * w -Xmx512m kontenera niezależnie od liczby map i widzów.
+ *
+ * Zapis unieważnia wpis (invalidate) i zwiększa generację klucza - odczyt, który zaczął się
+ * przed zapisem, nie wstawi już starej wersji. Dokument czekający w kolejce zapisu
+ * nie jest cachowany: jest zwracany z PersistenceQueue, dopóki nie trafi do magazynu.
+ *
+ * Wpis w cache jest niezmienną migawką: put() zapisuje kopię, a odczyt zwraca nową kopię
+ * (przez bufor tokenów Jacksona, bez tekstu JSON) - wywołujący może modyfikować wynik,
+ * a inne wątki serializujące ten sam dokument nie widzą zmian w trakcie.
+ */
+@Service
+public class DocumentCache {
+
+    @FunctionalInterface
+    public interface Deserializer<T> {
+        T deserialize(byte[] data) throws IOException;
+    }
+
+    // Obiekty Jacksona zajmują w pamięci więcej niż JSON - waga wpisu to rozmiar JSON x 2
+    private static final int HEAP_FACTOR = 2;
+
+    private static final class Entry {
+        private final Object value;
+        private final long weight;
+
+        Entry(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    // Kopie wpisów - ignoruje nieznane pola jak czytniki dokumentów
+    private final ObjectMapper copier = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final long maxBytes;
+    private final PersistenceQueue persistenceQueue;
+    private final DocumentStorage storage;
+
+    // Kolejność dostępu - pierwszy wpis jest najdawniej używany
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<Path, Long> generations = new HashMap<>();
+    // Zwiększane przez invalidateAll - unieważnia też odczyty kluczy, których nie ma w cache
+    private long epoch;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    @Autowired
+    public DocumentCache(MapConfiguration mapConfiguration, PersistenceQueue persistenceQueue, DocumentStorage storage) {
+        this(mapConfiguration.getCache().getMaxMb() * 1024L * 1024L, persistenceQueue, storage);
+    }
+
+    DocumentCache(long maxBytes, PersistenceQueue persistenceQueue, DocumentStorage storage) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.persistenceQueue = persistenceQueue;
+        this.storage = storage;
+    }
+
+    /**
+     * Dokument z cache, z kolejki zapisu albo z magazynu (null, gdy nie istnieje)
+     */
+    public <T> T get(Path file, Class<T> type, Deserializer<T> deserializer) throws IOException {
+        T cached = getIfPresent(file, type);
+        if (cached != null) {
+            return cached;
+        }
+        // Generacja przed odczytem - zapis w trakcie odczytu unieważni wynik
+        long generation = generation(file);
+        T pending = persistenceQueue.pending(file, deserializer::deserialize);
+        if (pending != null) {
+            return pending;
+        }
+        byte[] data = storage.read(file);
+        if (data == null) {
+            return null;
+        }
+        T value = deserializer.deserialize(data);
+        put(file, generation, value, data.length);
+        return value;
+    }
+
+    /**
+     * Kopia dokumentu z cache albo null
+     */
+    public <T> T getIfPresent(Path file, Class<T> type) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key(file));
+            if (entry == null || !type.isInstance(entry.value)) {
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+        // Migawka się nie zmienia - kopiowanie poza blokadą cache
+        return type.cast(copy(entry.value));
+    }
+
+    public synchronized long generation(Path file) {
+        return epoch + generations.getOrDefault(key(file), 0L);
+    }
+
+    /**
+     * Wstaw kopię dokumentu odczytanego z magazynu - pomijany, gdy od odczytu generacji klucz został unieważniony
+     */
+    public void put(Path file, long generation, Object value, long jsonBytes) {
+        long weight = jsonBytes * HEAP_FACTOR;
+        if (value == null || weight > maxBytes / 4) {
+            return; // Za duży - jeden dokument nie może wypchnąć całego cache
+        }
+        Object snapshot = copy(value);
+        synchronized (this) {
+            Path key = key(file);
+            if (epoch + generations.getOrDefault(key, 0L) == generation) {
+                insert(key, new Entry(snapshot, weight));
+            }
+        }
+    }
+
+    /**
+     * Zastąp wpis dokumentem właśnie zapisanym do magazynu (kopia) - kolejne odczyty nie czytają pliku
+     */
+    public void replace(Path file, Object value, long jsonBytes) {
+        long weight = jsonBytes * HEAP_FACTOR;
+        Object snapshot = value != null && weight <= maxBytes / 4 ? copy(value) : null;
+        synchronized (this) {
+            invalidate(file);
+            if (snapshot != null) {
+                insert(key(file), new Entry(snapshot, weight));
+            }
+        }
+    }
+
+    private void insert(Path key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.weight;
+        }
+        bytes += entry.weight;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().weight;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Usuń wpis po zapisie lub usunięciu dokumentu
+     */
+    public synchronized void invalidate(Path file) {
+        Path key = key(file);
+        generations.merge(key, 1L, Long::sum);
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.weight;
+        }
+    }
+
+    /**
+     * Usuń wszystkie wpisy (np. gdy WatchService zgubił zdarzenia)
+     */
+    public synchronized void invalidateAll() {
+        epoch++;
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entries", entries.size());
+        stats.put("bytes", bytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        long total = hits + misses;
+        stats.put("hitRatio", total > 0 ? (double) hits / total : 0.0);
+        return stats;
+    }
+
+    private Object copy(Object value) {
+        try {
+            TokenBuffer buffer = new TokenBuffer(copier, false);
+            copier.writeValue(buffer, value);
+            return copier.readValue(buffer.asParser(), value.getClass());
+        } catch (IOException e) {
+            // Model dokumentu zawsze przechodzi przez Jacksona - błąd oznacza błąd programu
+            throw new IllegalStateException("Nie można skopiować dokumentu " + value.getClass().getSimpleName(), e);
+        }
+    }
+
+    private static Path key(Path file) {
+        return file.toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,431 @@
+package com.dnd.service;
+
+import com.dnd.config.MapConfiguration;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Dokumenty JSON map (dane mapy, postacie, siatka, ustawienia) - odczyt, zapis i usuwanie
+ * po ścieżce pliku. Backend wybiera app.storage.backend:
+ * - "files" (domyślnie): osobne pliki w katalogach, zapis atomowy przez AtomicFiles
+ * - "embedded": jeden plik logu (LogStructuredStore) z kluczem "<katalog>/<plik>";
+ *   przy pierwszym uruchomieniu istniejące katalogi są importowane (pliki zostają na dysku)
+ *
+ * Dziennik mgły (FogJournal) i pliki obrazów map zawsze zostają w katalogach.
+ *
+ * app.storage.compression=gzip kompresuje zapisywane dokumenty (nazwy plików się nie zmieniają).
+ * Odczyt rozpoznaje format po nagłówku gzip (1f 8b) - stare i nowe dokumenty mogą współistnieć,
+ * a StorageRecompressor przepisuje je w tle do bieżącego formatu.
+ *
+ * Backend "files" pamięta sumę kontrolną ostatniego zapisu każdego pliku - DataDirectoryWatcher
+ * odróżnia po niej zapisy aplikacji od plików zmienionych z zewnątrz (isOwnChange).
+ */
+@Service
+public class DocumentStorage {
+
+    public static final String FILES = "files";
+    public static final String EMBEDDED = "embedded";
+    public static final String GZIP = "gzip";
+
+    private static final String DOCUMENT_SUFFIX = ".json";
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+    // Kompaktacja, gdy nieaktualne rekordy zajmują więcej niż żywe i co najmniej tyle bajtów
+    private static final long COMPACTION_MIN_GARBAGE = 1 << 20;
+    private static final long DELETED = -1;
+
+    private final LogStructuredStore store; // null = backend "files"
+    private final boolean compress;
+    private final int compressionLevel;
+    // Katalog (ścieżka bezwzględna) -> prefiks klucza w magazynie
+    private final Map<Path, String> roots = new LinkedHashMap<>();
+    private final ScheduledExecutorService compactor;
+    // Plik -> CRC32 ostatnio zapisanych bajtów albo DELETED (tylko backend "files")
+    private final Map<Path, Long> ownWrites = new ConcurrentHashMap<>();
+
+    @Autowired
+    public DocumentStorage(MapConfiguration mapConfiguration) {
+        this(mapConfiguration, Paths.get(MapDataService.DATA_DIR));
+    }
+
+    /**
+     * Katalog danych map podany wprost (testy)
+     */
+    DocumentStorage(MapConfiguration mapConfiguration, Path dataDirectory) {
+        MapConfiguration.Storage config = mapConfiguration.getStorage();
+        this.compress = GZIP.equalsIgnoreCase(config.getCompression());
+        this.compressionLevel = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, config.getCompressionLevel()));
+
+        addRoot(dataDirectory.toString(), "data");
+        addRoot(mapConfiguration.getCharacters().getDirectory(), "characters");
+        addRoot(mapConfiguration.getGridConfigs().getDirectory(), "grid-configs");
+        addRoot(mapConfiguration.getSettings().getDirectory(), "settings");
+        addRoot(mapConfiguration.getFogStates().getDirectory(), "fog-states");
+        // Pliki *.tmp po zapisach przerwanych awarią procesu - we wszystkich katalogach dokumentów
+        for (Path root : roots.keySet()) {
+            AtomicFiles.cleanTemporaryFiles(root);
+        }
+
+        if (!EMBEDDED.equalsIgnoreCase(config.getBackend())) {
+            this.store = null;
+            this.compactor = null;
+            return;
+        }
+
+        Path file = Paths.get(config.getFile());
+        boolean firstStart = !Files.exists(file);
+        try {
+            this.store = LogStructuredStore.open(file);
+            if (firstStart) {
+                importDirectories();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Nie można otworzyć magazynu " + file + ": " + e.getMessage(), e);
+        }
+        System.out.println("📦 Magazyn " + file + ": " + store.size() + " dokumentów");
+
+        long interval = config.getCompactionIntervalMs();
+        if (interval > 0) {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "storage-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            compactor.scheduleWithFixedDelay(this::compactIfNeeded, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.compactor = null;
+        }
+    }
+
+    /**
+     * Backend plikowy (testy)
+     */
+    DocumentStorage() {
+        this.store = null;
+        this.compactor = null;
+        this.compress = false;
+        this.compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    }
+
+    public boolean isEmbedded() {
+        return store != null;
+    }
+
+    public boolean isCompressed() {
+        return compress;
+    }
+
+    /**
+     * Katalogi dokumentów (bezwzględne, bez powtórzeń)
+     */
+    public Set<Path> directories() {
+        return Collections.unmodifiableSet(roots.keySet());
+    }
+
+    /**
+     * Czy obecny stan pliku to wynik ostatniego zapisu/usunięcia przez aplikację
+     */
+    public boolean isOwnChange(Path file) throws IOException {
+        Long expected = ownWrites.get(file.toAbsolutePath().normalize());
+        if (expected == null) {
+            return false;
+        }
+        if (!Files.exists(file)) {
+            return expected == DELETED;
+        }
+        return expected == checksum(Files.readAllBytes(file));
+    }
+
+    /**
+     * Zawartość dokumentu (po dekompresji) albo null, gdy nie istnieje
+     */
+    public byte[] read(Path file) throws IOException {
+        byte[] data = readRaw(file);
+        return data != null ? decode(data) : null;
+    }
+
+    /**
+     * Bajty dokumentu tak, jak leżą w magazynie (ewentualnie skompresowane)
+     */
+    public byte[] readRaw(Path file) throws IOException {
+        if (store != null) {
+            return store.read(key(file));
+        }
+        return Files.exists(file) ? Files.readAllBytes(file) : null;
+    }
+
+    /**
+     * Strumień dokumentu (po dekompresji) albo null, gdy nie istnieje
+     */
+    public InputStream open(Path file) throws IOException {
+        InputStream in;
+        if (store != null) {
+            byte[] data = store.read(key(file));
+            if (data == null) {
+                return null;
+            }
+            in = new ByteArrayInputStream(data);
+        } else {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            in = new BufferedInputStream(Files.newInputStream(file));
+        }
+
+        in.mark(2);
+        boolean gzip = in.read() == GZIP_MAGIC_1 && in.read() == GZIP_MAGIC_2;
+        in.reset();
+        return gzip ? new GZIPInputStream(in) : in;
+    }
+
+    public boolean exists(Path file) {
+        return store != null ? store.contains(key(file)) : Files.exists(file);
+    }
+
+    /**
+     * Zapisz dokument w bieżącym formacie (app.storage.compression)
+     */
+    public void write(Path file, byte[] data) throws IOException {
+        writeRaw(file, encode(data));
+    }
+
+    public void writeRaw(Path file, byte[] data) throws IOException {
+        if (store != null) {
+            store.write(key(file), data);
+        } else {
+            // Przed zmianą nazwy - zdarzenie WatchService może przyjść zanim write() wróci
+            ownWrites.put(file.toAbsolutePath().normalize(), checksum(data));
+            AtomicFiles.write(file, data);
+        }
+    }
+
+    /**
+     * Czy bajty z magazynu są w innym formacie niż bieżący (do przepisania przez StorageRecompressor)
+     */
+    public boolean needsRecompression(byte[] raw) {
+        return isGzip(raw) != compress;
+    }
+
+    public byte[] encode(byte[] data) throws IOException {
+        if (!compress) {
+            return data;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {{ def.setLevel(compressionLevel); }}) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    public static byte[] decode(byte[] raw) throws IOException {
+        if (!isGzip(raw)) {
+            return raw;
+        }
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(raw))) {
+            return gzip.readAllBytes();
+        }
+    }
+
+    static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    // JSON nigdy nie zaczyna się od 0x1f - nagłówek gzip jednoznacznie odróżnia formaty
+    static boolean isGzip(byte[] raw) {
+        return raw.length >= 2 && (raw[0] & 0xff) == GZIP_MAGIC_1 && (raw[1] & 0xff) == GZIP_MAGIC_2;
+    }
+
+    /**
+     * Wszystkie dokumenty w magazynie (pliki *.json katalogów albo klucze magazynu embedded)
+     */
+    public List<Path> documents() throws IOException {
+        List<Path> result = new ArrayList<>();
+        if (store != null) {
+            for (String key : store.keys()) {
+                result.add(path(key));
+            }
+            return result;
+        }
+        Set<Path> seen = new HashSet<>();
+        for (Path root : roots.keySet()) {
+            if (!Files.isDirectory(root)) {
+                continue;
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, "*" + DOCUMENT_SUFFIX)) {
+                for (Path file : stream) {
+                    if (Files.isRegularFile(file) && seen.add(file.toAbsolutePath().normalize())) {
+                        result.add(file);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public boolean delete(Path file) throws IOException {
+        if (store != null) {
+            return store.delete(key(file));
+        }
+        ownWrites.put(file.toAbsolutePath().normalize(), DELETED);
+        return Files.deleteIfExists(file);
+    }
+
+    public void move(Path source, Path target) throws IOException {
+        if (store == null) {
+            ownWrites.put(source.toAbsolutePath().normalize(), DELETED);
+            Files.move(source, target);
+            return;
+        }
+        byte[] data = store.read(key(source));
+        if (data == null) {
+            throw new IOException("Dokument nie istnieje: " + source);
+        }
+        store.write(key(target), data);
+        store.delete(key(source));
+    }
+
+    private void compactIfNeeded() {
+        long garbage = store.garbageBytes();
+        long live = store.liveBytes();
+        if (garbage < COMPACTION_MIN_GARBAGE || garbage < live) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            store.compact();
+            System.out.println("🧹 Kompaktacja magazynu: odzyskano " + garbage / 1024 + " KB w " +
+                (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            System.err.println("⚠️ Kompaktacja magazynu nie powiodła się: " + e.getMessage());
+        }
+    }
+
+    private void addRoot(String directory, String prefix) {
+        if (directory != null) {
+            roots.putIfAbsent(Paths.get(directory).toAbsolutePath().normalize(), prefix);
+        }
+    }
+
+    // "<prefiks katalogu>/<ścieżka w katalogu>" - niezależny od położenia instalacji.
+    // Katalogi mogą być zagnieżdżone (np. /app/data/characters w /app/data) - wygrywa najdłuższy.
+    private String key(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        Path best = null;
+        for (Path root : roots.keySet()) {
+            if (absolute.startsWith(root) && (best == null || root.getNameCount() > best.getNameCount())) {
+                best = root;
+            }
+        }
+        if (best == null) {
+            return absolute.toString().replace('\\', '/');
+        }
+        return roots.get(best) + "/" + best.relativize(absolute).toString().replace('\\', '/');
+    }
+
+    /**
+     * Nazwa dokumentu niezależna od położenia instalacji, np. "grid-configs/Zamek_grid.json" (nazwy w backupie)
+     */
+    String name(Path file) {
+        return key(file);
+    }
+
+    /**
+     * Ścieżka dokumentu o nazwie z name() albo null, gdy nazwa nie wskazuje pliku *.json
+     * bezpośrednio w jednym ze skonfigurowanych katalogów
+     */
+    Path resolve(String name) {
+        int slash = name.indexOf('/');
+        if (slash <= 0 || !name.endsWith(DOCUMENT_SUFFIX)) {
+            return null;
+        }
+        String prefix = name.substring(0, slash);
+        String fileName = name.substring(slash + 1);
+        if (fileName.length() <= DOCUMENT_SUFFIX.length() || fileName.contains("/") || fileName.contains("\\")
+            || fileName.startsWith(".") || !roots.containsValue(prefix)) {
+            return null;
+        }
+        return path(name);
+    }
+
+    // Odwrotność key() - klucz magazynu na ścieżkę w skonfigurowanym katalogu
+    private Path path(String key) {
+        int slash = key.indexOf('/');
+        if (slash > 0) {
+            String prefix = key.substring(0, slash);
+            for (Map.Entry<Path, String> root : roots.entrySet()) {
+                if (root.getValue().equals(prefix)) {
+                    return root.getKey().resolve(key.substring(slash + 1));
+                }
+            }
+        }
+        return Paths.get(key);
+    }
+
+    // Pierwsze uruchomienie - przenieś dokumenty z katalogów jednym zapisem
+    private void importDirectories() throws IOException {
+        Map<String, byte[]> documents = new LinkedHashMap<>();
+        for (Path root : roots.keySet()) {
+            if (!Files.isDirectory(root)) {
+                continue;
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, "*" + DOCUMENT_SUFFIX)) {
+                for (Path file : stream) {
+                    if (Files.isRegularFile(file)) {
+                        documents.put(key(file), Files.readAllBytes(file));
+                    }
+                }
+            }
+        }
+        if (!documents.isEmpty()) {
+            store.writeAll(documents);
+            System.out.println("📦 Zaimportowano " + documents.size() + " dokumentów z katalogów do magazynu");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (compactor != null) {
+            compactor.shutdown(); // Trwająca kompaktacja kończy się przed zamknięciem pliku
+            try {
+                compactor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                System.err.println("⚠️ Błąd zamykania magazynu: " + e.getMessage());
+            }
+        }
+    }
+}
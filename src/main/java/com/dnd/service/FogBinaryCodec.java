@@ -0,0 +1,272 @@
+package com.dnd.service;
+
+import com.dnd.controller.FogController;
+import com.dnd.model.FogState;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binarny format mgły application/x-dnd-fog (JSON pozostaje domyślny).
+ *
+ * Stan (magic "DF", wersja formatu 1):
+ *   varint wersja mgły, varint długość + UTF-8 nazwa mapy,
+ *   varint liczba promieni + varint promienie (słownik),
+ *   varint liczba punktów, dla każdego: zigzag dx, zigzag dy (względem poprzedniego punktu),
+ *   varint (indeks promienia << 1 | kratka),
+ *   bajt 0/1 maska rastrowa, a jeśli 1: varint cellSize, width, height, długość + surowe bity.
+ *
+ * Partia pędzla (magic "DB", wersja 1): słownik promieni jak wyżej, varint liczba punktów,
+ *   dla każdego: zigzag dx, zigzag dy, varint (indeks promienia << 2 | kratka << 1 | erase).
+ */
+public final class FogBinaryCodec {
+
+    public static final String MEDIA_TYPE = "application/x-dnd-fog";
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private FogBinaryCodec() {}
+
+    public static byte[] encodeState(FogState state) {
+        List<FogState.FogPoint> points = state.getRevealedAreas() != null ? state.getRevealedAreas() : List.of();
+        Writer out = new Writer();
+        out.header('D', 'F');
+        out.varint(state.getVersion() != null ? state.getVersion() : 0);
+        byte[] name = (state.getMapName() != null ? state.getMapName() : "").getBytes(StandardCharsets.UTF_8);
+        out.bytes(name);
+
+        Map<Integer, Integer> dictionary = out.radiusDictionary(points.stream().map(FogState.FogPoint::getRadius).toList());
+        out.varint(points.size());
+        int lastX = 0;
+        int lastY = 0;
+        for (FogState.FogPoint point : points) {
+            out.zigzag(point.getX() - lastX);
+            out.zigzag(point.getY() - lastY);
+            out.varint(((long) dictionary.get(point.getRadius()) << 1) | (point.isGridCell() ? 1 : 0));
+            lastX = point.getX();
+            lastY = point.getY();
+        }
+
+        FogState.RasterData raster = state.getRaster();
+        if (raster != null && raster.getData() != null) {
+            out.raw(1);
+            out.varint(raster.getCellSize());
+            out.varint(raster.getWidth());
+            out.varint(raster.getHeight());
+            out.bytes(Base64.getDecoder().decode(raster.getData()));
+        } else {
+            out.raw(0);
+        }
+        return out.toByteArray();
+    }
+
+    public static FogState decodeState(byte[] data) {
+        Reader in = new Reader(data);
+        in.header('D', 'F');
+        long version = in.varint();
+        String mapName = new String(in.bytes(), StandardCharsets.UTF_8);
+
+        int[] radii = in.radiusDictionary();
+        int count = in.count();
+        List<FogState.FogPoint> points = new ArrayList<>(count);
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < count; i++) {
+            x += in.zigzag();
+            y += in.zigzag();
+            long packed = in.varint();
+            points.add(new FogState.FogPoint(x, y, radii[in.index(packed >>> 1, radii)], (packed & 1) != 0));
+        }
+
+        FogState.RasterData raster = null;
+        if (in.raw() == 1) {
+            int cellSize = (int) in.varint();
+            int width = (int) in.varint();
+            int height = (int) in.varint();
+            raster = new FogState.RasterData(cellSize, width, height,
+                Base64.getEncoder().encodeToString(in.bytes()));
+        }
+
+        FogState state = new FogState(mapName, points, raster);
+        state.setVersion(version);
+        return state;
+    }
+
+    public static byte[] encodeBatch(List<FogController.BatchFogPoint> points) {
+        Writer out = new Writer();
+        out.header('D', 'B');
+        Map<Integer, Integer> dictionary = out.radiusDictionary(points.stream().map(FogController.FogPoint::getRadius).toList());
+        out.varint(points.size());
+        int lastX = 0;
+        int lastY = 0;
+        for (FogController.BatchFogPoint point : points) {
+            out.zigzag(point.getX() - lastX);
+            out.zigzag(point.getY() - lastY);
+            out.varint(((long) dictionary.get(point.getRadius()) << 2)
+                | (point.isGridCell() ? 2 : 0)
+                | ("erase".equals(point.getAction()) ? 1 : 0));
+            lastX = point.getX();
+            lastY = point.getY();
+        }
+        return out.toByteArray();
+    }
+
+    public static List<FogController.BatchFogPoint> decodeBatch(byte[] data) {
+        Reader in = new Reader(data);
+        in.header('D', 'B');
+        int[] radii = in.radiusDictionary();
+        int count = in.count();
+        List<FogController.BatchFogPoint> points = new ArrayList<>(count);
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < count; i++) {
+            x += in.zigzag();
+            y += in.zigzag();
+            long packed = in.varint();
+
+            FogController.BatchFogPoint point = new FogController.BatchFogPoint();
+            point.setX(x);
+            point.setY(y);
+            point.setRadius(radii[in.index(packed >>> 2, radii)]);
+            point.setGridCell((packed & 2) != 0);
+            point.setAction((packed & 1) != 0 ? "erase" : "paint");
+            points.add(point);
+        }
+        return points;
+    }
+
+    private static final class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        void header(char first, char second) {
+            out.write(first);
+            out.write(second);
+            out.write(FORMAT_VERSION);
+        }
+
+        void raw(int value) {
+            out.write(value);
+        }
+
+        void varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        void zigzag(int value) {
+            varint(Integer.toUnsignedLong((value << 1) ^ (value >> 31)));
+        }
+
+        void bytes(byte[] data) {
+            varint(data.length);
+            out.write(data, 0, data.length);
+        }
+
+        // Słownik promieni w kolejności pierwszego wystąpienia - zwraca promień -> indeks
+        Map<Integer, Integer> radiusDictionary(List<Integer> radii) {
+            Map<Integer, Integer> dictionary = new HashMap<>();
+            List<Integer> ordered = new ArrayList<>();
+            for (Integer radius : radii) {
+                if (dictionary.putIfAbsent(radius, ordered.size()) == null) {
+                    ordered.add(radius);
+                }
+            }
+            varint(ordered.size());
+            for (Integer radius : ordered) {
+                zigzag(radius);
+            }
+            return dictionary;
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        void header(char first, char second) {
+            if (data.length < 3 || data[0] != first || data[1] != second) {
+                throw new IllegalArgumentException("Nieprawidłowy nagłówek formatu " + MEDIA_TYPE);
+            }
+            if (data[2] != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Nieobsługiwana wersja formatu mgły: " + data[2]);
+            }
+            position = 3;
+        }
+
+        int raw() {
+            require(1);
+            return data[position++] & 0xFF;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = raw();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Zbyt długi varint w danych mgły");
+        }
+
+        int zigzag() {
+            int value = (int) varint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        // Liczniki ograniczone rozmiarem danych - każdy element zajmuje co najmniej bajt
+        int count() {
+            long count = varint();
+            if (count > data.length - position) {
+                throw new IllegalArgumentException("Nieprawidłowa liczba elementów w danych mgły: " + count);
+            }
+            return (int) count;
+        }
+
+        byte[] bytes() {
+            int length = count();
+            byte[] result = new byte[length];
+            System.arraycopy(data, position, result, 0, length);
+            position += length;
+            return result;
+        }
+
+        int[] radiusDictionary() {
+            int[] radii = new int[count()];
+            for (int i = 0; i < radii.length; i++) {
+                radii[i] = zigzag();
+            }
+            return radii;
+        }
+
+        int index(long index, int[] radii) {
+            if (index >= radii.length) {
+                throw new IllegalArgumentException("Indeks promienia poza słownikiem: " + index);
+            }
+            return (int) index;
+        }
+
+        private void require(int bytes) {
+            if (position + bytes > data.length) {
+                throw new IllegalArgumentException("Dane mgły urwane na bajcie " + position);
+            }
+        }
+    }
+}
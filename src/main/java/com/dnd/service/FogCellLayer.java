@@ -0,0 +1,220 @@
+package com.dnd.service;
+
+import com.dnd.model.FogState;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Odsłonięte kratki siatki jako BitSet - indeks = wiersz * columns + kolumna.
+ * Geometria (gridSize/offsetX/offsetY) pochodzi z GridService.GridConfig mapy
+ * i jest zapisywana razem z bitami, więc warstwa jest samodzielna.
+ * Odsłonięcie i zasłonięcie kratki to O(1). Liczba wierszy wynika z wysokości obrazu -
+ * punkty poza nimi nie są kratkami warstwy, więc współrzędne z żądania nie powiększają BitSet.
+ */
+public class FogCellLayer {
+
+    // Wymiary warstwy, gdy wymiary obrazu mapy są nieznane
+    static final int DEFAULT_COLUMNS = 1024;
+    static final int DEFAULT_ROWS = 1024;
+
+    private final double gridSize;
+    private final double offsetX;
+    private final double offsetY;
+    private final int columns;
+    private final int rows;
+    private final BitSet cells;
+
+    public FogCellLayer(double gridSize, double offsetX, double offsetY, int columns, int rows) {
+        this(gridSize, offsetX, offsetY, columns, rows, new BitSet());
+    }
+
+    private FogCellLayer(double gridSize, double offsetX, double offsetY, int columns, int rows, BitSet cells) {
+        this.gridSize = gridSize;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.columns = Math.max(1, columns);
+        // Indeks ostatniej kratki musi zmieścić się w int
+        this.rows = (int) Math.max(1, Math.min(rows, Integer.MAX_VALUE / this.columns));
+        this.cells = cells;
+    }
+
+    /**
+     * Warstwa dla siatki mapy - liczba kolumn i wierszy wynika z wymiarów obrazu (jeśli znane)
+     */
+    public static FogCellLayer forGrid(GridService.GridConfig config, Integer mapWidth, Integer mapHeight) {
+        int columns = mapWidth != null ? cellCount(mapWidth, config.getOffsetX(), config.getGridSize()) : DEFAULT_COLUMNS;
+        int rows = mapHeight != null ? cellCount(mapHeight, config.getOffsetY(), config.getGridSize()) : DEFAULT_ROWS;
+        return new FogCellLayer(config.getGridSize(), config.getOffsetX(), config.getOffsetY(), columns, rows);
+    }
+
+    private static int cellCount(int pixels, double offset, double gridSize) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.ceil((pixels - offset) / gridSize) + 1);
+    }
+
+    public double getGridSize() { return gridSize; }
+    public double getOffsetX() { return offsetX; }
+    public double getOffsetY() { return offsetY; }
+    public int getColumns() { return columns; }
+    public int getRows() { return rows; }
+
+    public int size() {
+        return cells.cardinality();
+    }
+
+    public boolean matches(GridService.GridConfig config) {
+        return config != null
+            && Math.abs(config.getGridSize() - gridSize) < 0.001
+            && Math.abs(config.getOffsetX() - offsetX) < 0.001
+            && Math.abs(config.getOffsetY() - offsetY) < 0.001;
+    }
+
+    /**
+     * Indeks kratki dla punktu kratki siatki albo -1, gdy punkt nie odpowiada kratce tej siatki
+     */
+    public int indexOf(FogState.FogPoint point) {
+        if (!point.isGridCell() || Math.abs(point.getRadius() - gridSize / 2) > 1) {
+            return -1;
+        }
+        int column = (int) Math.floor((point.getX() - offsetX) / gridSize);
+        int row = (int) Math.floor((point.getY() - offsetY) / gridSize);
+        int index = index(row, column);
+        if (index < 0) {
+            return -1;
+        }
+
+        // Środek punktu musi leżeć w środku kratki (klient przesyła pełne px)
+        double centerX = offsetX + (column + 0.5) * gridSize;
+        double centerY = offsetY + (row + 0.5) * gridSize;
+        if (Math.abs(centerX - point.getX()) > 2 || Math.abs(centerY - point.getY()) > 2) {
+            return -1;
+        }
+        return index;
+    }
+
+    // Indeks kratki albo -1 poza warstwą (liczony w long - duże współrzędne nie przepełnią int)
+    private int index(int row, int column) {
+        if (row < 0 || column < 0 || row >= rows || column >= columns) {
+            return -1;
+        }
+        long index = (long) row * columns + column;
+        return index <= Integer.MAX_VALUE ? (int) index : -1;
+    }
+
+    /**
+     * Odsłoń kratkę - false, gdy punkt nie jest kratką tej siatki
+     */
+    public boolean reveal(FogState.FogPoint point) {
+        int index = indexOf(point);
+        if (index < 0) {
+            return false;
+        }
+        cells.set(index);
+        return true;
+    }
+
+    public boolean get(int index) {
+        return cells.get(index);
+    }
+
+    public void set(int index, boolean revealed) {
+        cells.set(index, revealed);
+    }
+
+    /**
+     * Zasłoń kratki, których środek leży w odległości <= distance od (x, y) - zwraca ich indeksy
+     */
+    public List<Integer> hideWithin(int x, int y, int distance) {
+        List<Integer> hidden = new ArrayList<>();
+        long maxDistanceSq = (long) distance * distance;
+        int firstColumn = Math.max(0, (int) Math.floor((x - distance - offsetX) / gridSize));
+        int lastColumn = Math.min(columns - 1, (int) Math.floor((x + distance - offsetX) / gridSize));
+        int firstRow = Math.max(0, (int) Math.floor((y - distance - offsetY) / gridSize));
+        int lastRow = Math.min(rows - 1, (int) Math.floor((y + distance - offsetY) / gridSize));
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int index = index(row, column);
+                if (index < 0 || !cells.get(index)) {
+                    continue;
+                }
+                FogState.FogPoint center = toPoint(index);
+                long dx = center.getX() - x;
+                long dy = center.getY() - y;
+                if (dx * dx + dy * dy <= maxDistanceSq) {
+                    cells.clear(index);
+                    hidden.add(index);
+                }
+            }
+        }
+        return hidden;
+    }
+
+    public void clear() {
+        cells.clear();
+    }
+
+    /**
+     * Odsłonięte kratki jako punkty - format zgodny z klientem
+     */
+    public List<FogState.FogPoint> toPoints() {
+        List<FogState.FogPoint> points = new ArrayList<>(cells.cardinality());
+        for (int index = cells.nextSetBit(0); index >= 0; index = cells.nextSetBit(index + 1)) {
+            points.add(toPoint(index));
+        }
+        return points;
+    }
+
+    /**
+     * Odsłonięte kratki, które przecinają prostokąt [minX, maxX] x [minY, maxY] - tylko jego wiersze i kolumny
+     */
+    public List<FogState.FogPoint> pointsWithin(double minX, double minY, double maxX, double maxY) {
+        List<FogState.FogPoint> points = new ArrayList<>();
+        int firstColumn = (int) Math.max(0, Math.floor((minX - offsetX) / gridSize));
+        int lastColumn = (int) Math.min(columns - 1, Math.floor((maxX - offsetX) / gridSize));
+        int firstRow = (int) Math.max(0, Math.floor((minY - offsetY) / gridSize));
+        int lastRow = (int) Math.min(rows - 1, Math.floor((maxY - offsetY) / gridSize));
+        if (firstColumn > lastColumn) {
+            return points;
+        }
+        for (int row = firstRow; row <= lastRow; row++) {
+            int rowEnd = index(row, lastColumn);
+            for (int index = cells.nextSetBit(index(row, firstColumn)); index >= 0 && index <= rowEnd;
+                 index = cells.nextSetBit(index + 1)) {
+                points.add(toPoint(index));
+            }
+        }
+        return points;
+    }
+
+    private FogState.FogPoint toPoint(int index) {
+        int row = index / columns;
+        int column = index % columns;
+        // Obcięcie do int - tak jak przy deserializacji punktów wysyłanych przez klienta
+        int x = (int) (offsetX + (column + 0.5) * gridSize);
+        int y = (int) (offsetY + (row + 0.5) * gridSize);
+        return new FogState.FogPoint(x, y, (int) (gridSize / 2), true);
+    }
+
+    public FogCellLayer copy() {
+        return new FogCellLayer(gridSize, offsetX, offsetY, columns, rows, (BitSet) cells.clone());
+    }
+
+    public String toBase64() {
+        return Base64.getEncoder().encodeToString(cells.toByteArray());
+    }
+
+    /**
+     * Warstwa z pliku danych - rows <= 0 (pliki sprzed zapisu liczby wierszy) obejmuje wszystkie zapisane kratki
+     */
+    public static FogCellLayer fromBase64(double gridSize, double offsetX, double offsetY, int columns, int rows, String data) {
+        BitSet cells = BitSet.valueOf(Base64.getDecoder().decode(data));
+        if (rows <= 0) {
+            int width = Math.max(1, columns);
+            rows = Math.max(DEFAULT_ROWS, (cells.length() + width - 1) / width);
+        }
+        return new FogCellLayer(gridSize, offsetX, offsetY, columns, rows, cells);
+    }
+}
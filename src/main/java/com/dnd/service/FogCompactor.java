@@ -0,0 +1,266 @@
+package com.dnd.service;
+
+import com.dnd.config.MapConfiguration;
+import com.dnd.model.FogState;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Geometryczna kompaktacja mgły: usuwa koła pokryte przez sumę sąsiednich kół
+ * (java.awt.geom.Area), a nie tylko przez jedno większe koło jak FogOptimizer.
+ *
+ * Każde usunięcie jest sprawdzane względem aktualnie zachowanego zbioru, więc suma
+ * odsłoniętych obszarów nie zmienia się (indukcyjnie). Wynik jest dodatkowo weryfikowany
+ * rasteryzacją 1 px obu zbiorów - przy jakiejkolwiek różnicy kompaktacja jest odrzucana.
+ *
+ * Liczone we własnym wątku na kopii punktów; FogStore podmienia punkty przy najbliższym
+ * zapisie migawki, o ile mapa nie zmieniła się w międzyczasie.
+ */
+@Service
+public class FogCompactor {
+
+    // Weryfikacja rastrowa tylko dla rozsądnych rozmiarów map
+    private static final long MAX_VERIFY_PIXELS = 64L * 1024 * 1024;
+    private static final int BOUNDARY_SAMPLES = 16;
+    // Próbki tuż wewnątrz brzegu - punkt dokładnie na stycznym brzegu nie odrzuca kandydata
+    private static final double SAMPLE_INSET = 0.999;
+
+    private final FogStore fogStore;
+    private final int minPoints;
+    private final ScheduledExecutorService executor;
+    private final Map<String, Long> compactedVersions = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Object>> reports = new ConcurrentHashMap<>();
+
+    @Autowired
+    public FogCompactor(FogStore fogStore, MapConfiguration mapConfiguration) {
+        this.fogStore = fogStore;
+        this.minPoints = mapConfiguration.getFog().getCompactionMinPoints();
+
+        long interval = mapConfiguration.getFog().getCompactionIntervalMs();
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fog-compactor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        if (interval > 0) {
+            executor.scheduleWithFixedDelay(this::compactActiveMaps, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static class Result {
+        private final List<FogState.FogPoint> points;
+        private final int pointsBefore;
+        private final boolean verified;
+        private final long durationNanos;
+
+        Result(List<FogState.FogPoint> points, int pointsBefore, boolean verified, long durationNanos) {
+            this.points = points;
+            this.pointsBefore = pointsBefore;
+            this.verified = verified;
+            this.durationNanos = durationNanos;
+        }
+
+        public List<FogState.FogPoint> getPoints() { return points; }
+        public int getPointsBefore() { return pointsBefore; }
+        public int getPointsAfter() { return points.size(); }
+        public boolean isVerified() { return verified; }
+        public double getDurationMs() { return durationNanos / 1_000_000.0; }
+
+        // Stopień kompresji - ile razy mniej punktów
+        public double getCompressionRatio() {
+            return points.isEmpty() ? 1.0 : (double) pointsBefore / points.size();
+        }
+    }
+
+    /**
+     * Ostatni raport kompaktacji mapy (null, gdy jeszcze nie była kompaktowana)
+     */
+    public Map<String, Object> getReport(String mapName) {
+        return reports.get(mapName);
+    }
+
+    /**
+     * Kompaktuj mapy w pamięci, które zmieniły się od ostatniej kompaktacji
+     */
+    public void compactActiveMaps() {
+        for (String mapName : fogStore.activeMaps()) {
+            try {
+                compactMap(mapName);
+            } catch (Exception e) {
+                System.err.println("Błąd kompaktacji mgły dla mapy: " + mapName + " - " + e.getMessage());
+            }
+        }
+    }
+
+    private void compactMap(String mapName) {
+        long[] version = new long[1];
+        List<FogState.FogPoint> protectedPoints = new ArrayList<>();
+        List<FogState.FogPoint> points = fogStore.read(mapName, entry -> {
+            version[0] = entry.getVersion();
+            if (entry.getAreas().size() < minPoints) {
+                return null;
+            }
+            // Punkty z historii cofania muszą zostać - cofnięcie kroku je usuwa
+            Set<FogState.FogPoint> history = entry.getProtectedPoints();
+            List<FogState.FogPoint> stable = new ArrayList<>();
+            for (FogState.FogPoint point : entry.getAreas().toList()) {
+                (history.contains(point) ? protectedPoints : stable).add(point);
+            }
+            return stable;
+        });
+        if (points == null || Long.valueOf(version[0]).equals(compactedVersions.get(mapName))) {
+            return;
+        }
+
+        Result result = compact(points);
+        compactedVersions.put(mapName, version[0]);
+
+        Map<String, Object> report = new HashMap<>();
+        report.put("mapName", mapName);
+        report.put("version", version[0]);
+        report.put("pointsBefore", result.getPointsBefore());
+        report.put("pointsAfter", result.getPointsAfter());
+        report.put("compressionRatio", result.getCompressionRatio());
+        report.put("verified", result.isVerified());
+        report.put("durationMs", result.getDurationMs());
+        reports.put(mapName, report);
+
+        if (result.isVerified() && result.getPointsAfter() < result.getPointsBefore()) {
+            List<FogState.FogPoint> compacted = new ArrayList<>(result.getPoints());
+            compacted.addAll(protectedPoints);
+            fogStore.offerCompaction(mapName, version[0], compacted);
+            System.out.printf("🧩 Kompaktacja mgły %s: %d -> %d punktów (x%.2f) w %.0f ms%n",
+                mapName, result.getPointsBefore(), result.getPointsAfter(), result.getCompressionRatio(), result.getDurationMs());
+        }
+    }
+
+    /**
+     * Zbiór punktów o tej samej sumie obszarów - bez zmiany danych wejściowych
+     */
+    public static Result compact(List<FogState.FogPoint> points) {
+        long start = System.nanoTime();
+        FogIndex kept = new FogIndex(points);
+        int maxRadius = points.stream().mapToInt(FogState.FogPoint::getRadius).max().orElse(0);
+
+        // Najpierw najmniejsze - najczęściej są pokryte przez sąsiadów
+        List<FogState.FogPoint> order = new ArrayList<>(points);
+        order.sort(Comparator.comparingInt(FogState.FogPoint::getRadius));
+
+        List<FogState.FogPoint> neighbours = new ArrayList<>();
+        for (FogState.FogPoint point : order) {
+            Rectangle2D bounds = shape(point).getBounds2D();
+            neighbours.clear();
+            // Kwadrat kratki sięga do r * sqrt(2) od środka
+            int reach = (int) Math.ceil((point.getRadius() + maxRadius) * 1.415) + 1;
+            kept.forEachWithin(point.getX(), point.getY(), reach, other -> {
+                if (other != point && shape(other).intersects(bounds)) {
+                    neighbours.add(other);
+                }
+            });
+            if (neighbours.isEmpty() || !boundaryCovered(point, neighbours)) {
+                continue;
+            }
+
+            // Odejmowanie od małego obszaru jest tańsze niż budowanie sumy wszystkich sąsiadów;
+            // najpierw sąsiedzi pokrywający najwięcej (blisko i duży promień)
+            neighbours.sort(Comparator.comparingDouble(other ->
+                Math.hypot(other.getX() - point.getX(), other.getY() - point.getY()) - other.getRadius()));
+            Area uncovered = new Area(shape(point));
+            for (FogState.FogPoint other : neighbours) {
+                uncovered.subtract(new Area(shape(other)));
+                if (uncovered.isEmpty()) {
+                    kept.remove(point);
+                    break;
+                }
+            }
+        }
+
+        List<FogState.FogPoint> result = kept.toList();
+        boolean verified = sameCoverage(points, result);
+        return new Result(verified ? result : new ArrayList<>(points), points.size(), verified, System.nanoTime() - start);
+    }
+
+    // Szybki warunek konieczny przed operacjami na Area - punkty brzegu muszą leżeć w którymś z sąsiadów
+    private static boolean boundaryCovered(FogState.FogPoint point, List<FogState.FogPoint> neighbours) {
+        List<Shape> shapes = new ArrayList<>(neighbours.size());
+        for (FogState.FogPoint other : neighbours) {
+            shapes.add(shape(other));
+        }
+
+        double r = point.getRadius();
+        for (int i = 0; i < BOUNDARY_SAMPLES; i++) {
+            double angle = 2 * Math.PI * i / BOUNDARY_SAMPLES;
+            double dx = Math.cos(angle);
+            double dy = Math.sin(angle);
+            if (point.isGridCell()) {
+                // Rzut kierunku na brzeg kwadratu
+                double scale = 1 / Math.max(Math.abs(dx), Math.abs(dy));
+                dx *= scale;
+                dy *= scale;
+            }
+            double x = point.getX() + dx * r * SAMPLE_INSET;
+            double y = point.getY() + dy * r * SAMPLE_INSET;
+
+            boolean covered = false;
+            for (Shape shape : shapes) {
+                if (shape.contains(x, y)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Porównanie rasteryzacji 1 px - zachowane punkty są podzbiorem, więc równa liczba komórek oznacza równe pokrycie
+    private static boolean sameCoverage(List<FogState.FogPoint> before, List<FogState.FogPoint> after) {
+        int width = 1;
+        int height = 1;
+        for (FogState.FogPoint point : before) {
+            width = Math.max(width, point.getX() + point.getRadius() + 1);
+            height = Math.max(height, point.getY() + point.getRadius() + 1);
+        }
+        if ((long) width * height > MAX_VERIFY_PIXELS) {
+            return false;
+        }
+
+        FogRaster expected = FogRaster.forMap(width, height, 1);
+        FogRaster actual = FogRaster.forMap(width, height, 1);
+        before.forEach(expected::reveal);
+        after.forEach(actual::reveal);
+        return expected.revealedCells() == actual.revealedCells();
+    }
+
+    private static Shape shape(FogState.FogPoint point) {
+        double r = point.getRadius();
+        if (point.isGridCell()) {
+            return new Rectangle2D.Double(point.getX() - r, point.getY() - r, 2 * r, 2 * r);
+        }
+        return new Ellipse2D.Double(point.getX() - r, point.getY() - r, 2 * r, 2 * r);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
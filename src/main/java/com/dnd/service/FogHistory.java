@@ -0,0 +1,140 @@
+package com.dnd.service;
+
+import com.dnd.model.FogOperation;
+import com.dnd.model.FogState;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ograniczona historia cofania mgły jednej mapy. Krok to jedno wywołanie FogStore.apply
+ * (np. cała partia pędzla) - zapamiętuje operacje (do ponowienia) i akcje odwrotne
+ * zarejestrowane przez FogEntry w trakcie ich stosowania (do cofnięcia).
+ * Cofnięcie wykonuje akcje odwrotne w odwrotnej kolejności, bez przeładowania stanu.
+ *
+ * Dostęp tylko pod blokadą wpisu FogStore.
+ */
+class FogHistory {
+
+    static class Step {
+        private final List<FogOperation> operations;
+        private final List<Runnable> inverse = new ArrayList<>();
+        // Punkty dodane w tym kroku - nie mogą zniknąć przy kompaktacji, bo cofnięcie je usuwa
+        private final Set<FogState.FogPoint> added = Collections.newSetFromMap(new IdentityHashMap<>());
+        private boolean fullState;
+        private boolean rasterSaved;
+
+        Step(List<FogOperation> operations) {
+            this.operations = operations;
+        }
+
+        List<FogOperation> getOperations() { return operations; }
+    }
+
+    private final int depth;
+    private final ArrayDeque<Step> undo = new ArrayDeque<>();
+    private final ArrayDeque<Step> redo = new ArrayDeque<>();
+    private Step recording;
+
+    FogHistory(int depth) {
+        this.depth = Math.max(0, depth);
+    }
+
+    void begin(List<FogOperation> operations) {
+        recording = depth > 0 ? new Step(operations) : null;
+    }
+
+    /**
+     * Zakończ krok - nowa zmiana (clearRedo) unieważnia kroki do ponowienia
+     */
+    void commit(boolean clearRedo) {
+        if (recording != null) {
+            undo.addLast(recording);
+            if (undo.size() > depth) {
+                undo.removeFirst();
+            }
+            recording = null;
+        }
+        if (clearRedo) {
+            redo.clear();
+        }
+    }
+
+    boolean isRecording() {
+        return recording != null && !recording.fullState;
+    }
+
+    /**
+     * Akcja odwrotna do właśnie wykonanej zmiany
+     */
+    void record(Runnable inverse) {
+        if (isRecording()) {
+            recording.inverse.add(inverse);
+        }
+    }
+
+    void recordAdded(FogState.FogPoint point) {
+        if (isRecording()) {
+            recording.added.add(point);
+        }
+    }
+
+    /**
+     * Pełny stan sprzed kroku (reset/zastąpienie) - kolejne drobne zmiany kroku nie są już potrzebne
+     */
+    void recordFullState(Runnable restore) {
+        if (recording != null) {
+            recording.inverse.add(restore);
+            recording.fullState = true;
+        }
+    }
+
+    /**
+     * Czy maska rastra ma już kopię w bieżącym kroku (jedna kopia na krok wystarcza)
+     */
+    boolean markRasterSaved() {
+        if (!isRecording() || recording.rasterSaved) {
+            return false;
+        }
+        recording.rasterSaved = true;
+        return true;
+    }
+
+    /**
+     * Cofnij ostatni krok - null, gdy historia jest pusta
+     */
+    Step undo() {
+        Step step = undo.pollLast();
+        if (step == null) {
+            return null;
+        }
+        List<Runnable> inverse = step.inverse;
+        for (int i = inverse.size() - 1; i >= 0; i--) {
+            inverse.get(i).run();
+        }
+        redo.addLast(new Step(step.operations));
+        return step;
+    }
+
+    /**
+     * Krok do ponowienia - wywołujący stosuje jego operacje w nowym kroku (begin/commit(false))
+     */
+    Step popRedo() {
+        return redo.pollLast();
+    }
+
+    Set<FogState.FogPoint> protectedPoints() {
+        Set<FogState.FogPoint> points = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Step step : undo) {
+            points.addAll(step.added);
+        }
+        return points;
+    }
+
+    int undoSize() { return undo.size(); }
+    int redoSize() { return redo.size(); }
+}
@@ -0,0 +1,196 @@
+package com.dnd.service;
+
+import com.dnd.model.FogState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Indeks przestrzenny odsłoniętych obszarów mgły - równomierna siatka kubełków
+ * po środkach punktów. Zapytania o sąsiedztwo dotykają tylko kubełków w zasięgu,
+ * zamiast całej listy. Kolejność wstawiania jest zachowana (toList).
+ */
+public class FogIndex {
+
+    static final int CELL_SIZE = 64;
+
+    // FogPoint nie nadpisuje equals/hashCode - zbiór działa po tożsamości obiektów
+    private final Set<FogState.FogPoint> points = Collections.newSetFromMap(new LinkedHashMap<>());
+    private final Map<Long, List<FogState.FogPoint>> buckets = new HashMap<>();
+    // Zakres kubełków, w których były punkty (nie kurczy się przy usuwaniu - tylko przy clear)
+    private int minBucketX = Integer.MAX_VALUE;
+    private int maxBucketX = Integer.MIN_VALUE;
+    private int minBucketY = Integer.MAX_VALUE;
+    private int maxBucketY = Integer.MIN_VALUE;
+
+    public FogIndex() {}
+
+    public FogIndex(Collection<FogState.FogPoint> initial) {
+        for (FogState.FogPoint point : initial) {
+            add(point);
+        }
+    }
+
+    public void add(FogState.FogPoint point) {
+        if (points.add(point)) {
+            int cellX = Math.floorDiv(point.getX(), CELL_SIZE);
+            int cellY = Math.floorDiv(point.getY(), CELL_SIZE);
+            buckets.computeIfAbsent(key(cellX, cellY), k -> new ArrayList<>()).add(point);
+            minBucketX = Math.min(minBucketX, cellX);
+            maxBucketX = Math.max(maxBucketX, cellX);
+            minBucketY = Math.min(minBucketY, cellY);
+            maxBucketY = Math.max(maxBucketY, cellY);
+        }
+    }
+
+    public boolean remove(FogState.FogPoint point) {
+        if (!points.remove(point)) {
+            return false;
+        }
+        long key = keyFor(point.getX(), point.getY());
+        List<FogState.FogPoint> bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.remove(point);
+            if (bucket.isEmpty()) {
+                buckets.remove(key);
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return points.size();
+    }
+
+    public boolean isEmpty() {
+        return points.isEmpty();
+    }
+
+    public void clear() {
+        points.clear();
+        buckets.clear();
+        minBucketX = Integer.MAX_VALUE;
+        maxBucketX = Integer.MIN_VALUE;
+        minBucketY = Integer.MAX_VALUE;
+        maxBucketY = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Punkty w kolejności wstawiania (kopia)
+     */
+    public List<FogState.FogPoint> toList() {
+        return new ArrayList<>(points);
+    }
+
+    /**
+     * Wywołaj akcję dla każdego punktu, którego środek leży w odległości <= distance od (x, y)
+     */
+    public void forEachWithin(int x, int y, int distance, Consumer<FogState.FogPoint> action) {
+        if (distance < 0 || buckets.isEmpty()) {
+            return;
+        }
+        // Promień pochodzi od klienta - granice w long i przycięte do zajętych kubełków
+        long minCellX = Math.max(Math.floorDiv((long) x - distance, CELL_SIZE), minBucketX);
+        long maxCellX = Math.min(Math.floorDiv((long) x + distance, CELL_SIZE), maxBucketX);
+        long minCellY = Math.max(Math.floorDiv((long) y - distance, CELL_SIZE), minBucketY);
+        long maxCellY = Math.min(Math.floorDiv((long) y + distance, CELL_SIZE), maxBucketY);
+        if (minCellX > maxCellX || minCellY > maxCellY) {
+            return;
+        }
+
+        // Prostokąt większy niż liczba kubełków - taniej przejrzeć same kubełki
+        if ((maxCellX - minCellX + 1) * (maxCellY - minCellY + 1) > buckets.size()) {
+            for (List<FogState.FogPoint> bucket : buckets.values()) {
+                acceptWithin(bucket, x, y, distance, action);
+            }
+            return;
+        }
+        for (long cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (long cellY = minCellY; cellY <= maxCellY; cellY++) {
+                List<FogState.FogPoint> bucket = buckets.get(key((int) cellX, (int) cellY));
+                if (bucket != null) {
+                    acceptWithin(bucket, x, y, distance, action);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wywołaj akcję dla każdego punktu, którego środek leży w prostokącie [minX, maxX] x [minY, maxY]
+     */
+    public void forEachInside(long minX, long minY, long maxX, long maxY, Consumer<FogState.FogPoint> action) {
+        if (minX > maxX || minY > maxY || buckets.isEmpty()) {
+            return;
+        }
+        long minCellX = Math.max(Math.floorDiv(minX, CELL_SIZE), minBucketX);
+        long maxCellX = Math.min(Math.floorDiv(maxX, CELL_SIZE), maxBucketX);
+        long minCellY = Math.max(Math.floorDiv(minY, CELL_SIZE), minBucketY);
+        long maxCellY = Math.min(Math.floorDiv(maxY, CELL_SIZE), maxBucketY);
+        if (minCellX > maxCellX || minCellY > maxCellY) {
+            return;
+        }
+
+        boolean scanBuckets = (maxCellX - minCellX + 1) * (maxCellY - minCellY + 1) > buckets.size();
+        Collection<List<FogState.FogPoint>> candidates = scanBuckets ? buckets.values() : new ArrayList<>();
+        if (!scanBuckets) {
+            for (long cellX = minCellX; cellX <= maxCellX; cellX++) {
+                for (long cellY = minCellY; cellY <= maxCellY; cellY++) {
+                    List<FogState.FogPoint> bucket = buckets.get(key((int) cellX, (int) cellY));
+                    if (bucket != null) {
+                        candidates.add(bucket);
+                    }
+                }
+            }
+        }
+        for (List<FogState.FogPoint> bucket : candidates) {
+            for (FogState.FogPoint point : bucket) {
+                if (point.getX() >= minX && point.getX() <= maxX && point.getY() >= minY && point.getY() <= maxY) {
+                    action.accept(point);
+                }
+            }
+        }
+    }
+
+    private static void acceptWithin(List<FogState.FogPoint> bucket, int x, int y, int distance,
+                                     Consumer<FogState.FogPoint> action) {
+        long maxDistanceSq = (long) distance * distance;
+        for (FogState.FogPoint point : bucket) {
+            long dx = (long) point.getX() - x;
+            long dy = (long) point.getY() - y;
+            // Odrzucenie po osiach - kwadraty różnic do 2^32 przepełniłyby long
+            if (Math.abs(dx) > distance || Math.abs(dy) > distance) {
+                continue;
+            }
+            if (dx * dx + dy * dy <= maxDistanceSq) {
+                action.accept(point);
+            }
+        }
+    }
+
+    /**
+     * Usuń wszystkie punkty, których środek leży w odległości <= distance od (x, y)
+     */
+    public List<FogState.FogPoint> removeWithin(int x, int y, int distance) {
+        List<FogState.FogPoint> removed = new ArrayList<>();
+        forEachWithin(x, y, distance, removed::add);
+        for (FogState.FogPoint point : removed) {
+            remove(point);
+        }
+        return removed;
+    }
+
+    private static long keyFor(int x, int y) {
+        return key(Math.floorDiv(x, CELL_SIZE), Math.floorDiv(y, CELL_SIZE));
+    }
+
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+}
@@ -0,0 +1,188 @@
+package com.dnd.service;
+
+import com.dnd.model.FogOperation;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dziennik mutacji mgły - każde wywołanie FogStore.apply to jedna linia JSON dopisywana
+ * na koniec pliku (pojedyncza operacja albo tablica operacji - jeden krok historii cofania).
+ * Zawiera tylko faktyczne zmiany: cofnięcie jest zapisywane jako zastąpienie stanu jego wynikiem,
+ * ponowienie jako ponownie zastosowane operacje - historia cofania nie przetrwa restartu.
+ * Dziennik jest dzielony na segmenty data/<mapa>_fog.<pierwsza wersja>.journal:
+ * przy zapisie migawki FogStore zamyka bieżący segment, a po udanym zapisie
+ * usuwa segmenty w całości objęte migawką. Przy wczytaniu mapy odtwarzane są
+ * tylko operacje nowsze niż wersja zapisana w migawce.
+ *
+ * Wywołania dla jednej mapy są serializowane przez blokadę wpisu FogStore.
+ */
+@Service
+public class FogJournal {
+
+    private static final String SUFFIX = ".journal";
+
+    private final MapDataService mapDataService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, OutputStream> writers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public FogJournal(MapDataService mapDataService) {
+        this.mapDataService = mapDataService;
+    }
+
+    /**
+     * Dopisz operacje do bieżącego segmentu mapy (nowy segment zaczyna się od wersji pierwszej operacji)
+     */
+    public void append(String mapName, List<FogOperation> operations) throws IOException {
+        if (operations.isEmpty()) {
+            return;
+        }
+        OutputStream out = writers.get(mapName);
+        if (out == null) {
+            Path dataDir = mapDataService.getDataDirectory();
+            Files.createDirectories(dataDir);
+            Path segment = dataDir.resolve(prefix(mapName) + operations.get(0).getVersion() + SUFFIX);
+            out = new BufferedOutputStream(Files.newOutputStream(segment,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE));
+            writers.put(mapName, out);
+        }
+
+        Object line = operations.size() == 1 ? operations.get(0) : operations;
+        out.write(objectMapper.writeValueAsBytes(line));
+        out.write('\n');
+        // Do systemu operacyjnego - przeżyje awarię procesu, fsync robi dopiero migawka
+        out.flush();
+    }
+
+    /**
+     * Zamknij bieżący segment - kolejne operacje trafią do nowego pliku
+     */
+    public void roll(String mapName) {
+        OutputStream out = writers.remove(mapName);
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("⚠️ Błąd zamykania dziennika mgły dla mapy: " + mapName + " - " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Usuń segmenty zaczynające się nie później niż snapshotVersion - są już w migawce
+     */
+    public void compact(String mapName, long snapshotVersion) {
+        for (Map.Entry<Long, Path> segment : segments(mapName).entrySet()) {
+            if (segment.getKey() > snapshotVersion) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(segment.getValue());
+            } catch (IOException e) {
+                System.err.println("⚠️ Nie można usunąć segmentu dziennika: " + segment.getValue() + " - " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Operacje nowsze niż afterVersion, w kolejności zastosowania - pogrupowane tak,
+     * jak zostały zastosowane (jedna grupa = jeden krok historii cofania)
+     */
+    public List<List<FogOperation>> replay(String mapName, long afterVersion) {
+        List<List<FogOperation>> groups = new ArrayList<>();
+        for (Path segment : segments(mapName).values()) {
+            try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        JsonNode node = objectMapper.readTree(line);
+                        List<FogOperation> group = new ArrayList<>();
+                        for (JsonNode item : node.isArray() ? node : List.of(node)) {
+                            FogOperation operation = objectMapper.treeToValue(item, FogOperation.class);
+                            if (operation.getVersion() > afterVersion) {
+                                group.add(operation);
+                            }
+                        }
+                        if (!group.isEmpty()) {
+                            groups.add(group);
+                        }
+                    } catch (IOException lineError) {
+                        // Urwana ostatnia linia po awarii - reszta segmentu jest spójna
+                        System.err.println("⚠️ Ignoruję uszkodzony wpis dziennika " + segment.getFileName() + ": " + lineError.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("BŁĄD odczytu dziennika mgły: " + segment + " - " + e.getMessage());
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Usuń cały dziennik mapy (np. po usunięciu pliku danych)
+     */
+    public void delete(String mapName) {
+        roll(mapName);
+        compact(mapName, Long.MAX_VALUE);
+    }
+
+    @PreDestroy
+    public void close() {
+        for (String mapName : new ArrayList<>(writers.keySet())) {
+            roll(mapName);
+        }
+    }
+
+    private String prefix(String mapName) {
+        return mapName + "_fog.";
+    }
+
+    private TreeMap<Long, Path> segments(String mapName) {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        Path dataDir = mapDataService.getDataDirectory();
+        if (!Files.isDirectory(dataDir)) {
+            return segments;
+        }
+
+        String prefix = prefix(mapName);
+        DirectoryStream.Filter<Path> filter = path -> {
+            String name = path.getFileName().toString();
+            return name.startsWith(prefix) && name.endsWith(SUFFIX);
+        };
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataDir, filter)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                String sequence = name.substring(prefix.length(), name.length() - SUFFIX.length());
+                try {
+                    segments.put(Long.parseLong(sequence), path);
+                } catch (NumberFormatException ignored) {
+                    // Plik innej mapy o podobnej nazwie
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("BŁĄD listowania dziennika mgły dla mapy: " + mapName + " - " + e.getMessage());
+        }
+        return segments;
+    }
+}
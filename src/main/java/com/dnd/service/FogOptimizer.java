@@ -0,0 +1,79 @@
+package com.dnd.service;
+
+import com.dnd.model.FogState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Usuwanie zbędnych punktów mgły w czasie liniowym.
+ * Punkt jest usuwany tylko wtedy, gdy w całości leży wewnątrz innego punktu
+ * (dist + r <= R), więc odsłonięty obszar nigdy się nie zmniejsza. Kandydaci
+ * są szukani w sąsiednich kubełkach FogIndex, a nie na całej liście.
+ */
+public final class FogOptimizer {
+
+    private FogOptimizer() {}
+
+    public static class Result {
+        private final List<FogState.FogPoint> points;
+        private final int pointsBefore;
+        private final long durationNanos;
+
+        Result(List<FogState.FogPoint> points, int pointsBefore, long durationNanos) {
+            this.points = points;
+            this.pointsBefore = pointsBefore;
+            this.durationNanos = durationNanos;
+        }
+
+        public List<FogState.FogPoint> getPoints() { return points; }
+        public int getPointsBefore() { return pointsBefore; }
+        public int getPointsAfter() { return points.size(); }
+        public double getDurationMs() { return durationNanos / 1_000_000.0; }
+    }
+
+    public static Result optimize(List<FogState.FogPoint> areas) {
+        long start = System.nanoTime();
+        FogIndex kept = new FogIndex();
+        List<FogState.FogPoint> covered = new ArrayList<>();
+
+        for (FogState.FogPoint point : areas) {
+            // Czy punkt jest już pokryty przez któryś z zachowanych?
+            boolean[] isCovered = {false};
+            kept.forEachWithin(point.getX(), point.getY(), FogIndex.CELL_SIZE, existing -> {
+                if (!isCovered[0] && contains(existing, point)) {
+                    isCovered[0] = true;
+                }
+            });
+            if (isCovered[0]) {
+                continue;
+            }
+
+            // Nowy punkt może pokrywać wcześniej zachowane mniejsze punkty
+            covered.clear();
+            kept.forEachWithin(point.getX(), point.getY(), FogIndex.CELL_SIZE, existing -> {
+                if (contains(point, existing)) {
+                    covered.add(existing);
+                }
+            });
+            for (FogState.FogPoint existing : covered) {
+                kept.remove(existing);
+            }
+
+            kept.add(point);
+        }
+
+        return new Result(kept.toList(), areas.size(), System.nanoTime() - start);
+    }
+
+    // Porównanie na kwadratach odległości - bez sqrt
+    private static boolean contains(FogState.FogPoint outer, FogState.FogPoint inner) {
+        long margin = (long) outer.getRadius() - inner.getRadius();
+        if (margin < 0) {
+            return false;
+        }
+        long dx = outer.getX() - inner.getX();
+        long dy = outer.getY() - inner.getY();
+        return dx * dx + dy * dy <= margin * margin;
+    }
+}
@@ -0,0 +1,192 @@
+package com.dnd.service;
+
+import com.dnd.model.FogState;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Rastrowa reprezentacja mgły - 1 bit na komórkę cellSize x cellSize px.
+ * Rozmiar zależy tylko od wymiarów mapy, a nie od tego, ile GM namalował.
+ * Bity są ułożone wierszami (indeks = y * width + x), bit ustawiony = odsłonięte.
+ */
+public class FogRaster {
+
+    private final int cellSize;
+    private final int width;  // w komórkach
+    private final int height; // w komórkach
+    private final BitSet bits;
+
+    public FogRaster(int cellSize, int width, int height) {
+        this(cellSize, width, height, new BitSet(width * height));
+    }
+
+    private FogRaster(int cellSize, int width, int height, BitSet bits) {
+        this.cellSize = cellSize;
+        this.width = width;
+        this.height = height;
+        this.bits = bits;
+    }
+
+    /**
+     * Raster pokrywający mapę o podanych wymiarach w pikselach
+     */
+    public static FogRaster forMap(int mapWidth, int mapHeight, int cellSize) {
+        int size = Math.max(1, cellSize);
+        return new FogRaster(size, (mapWidth + size - 1) / size, (mapHeight + size - 1) / size);
+    }
+
+    public int getCellSize() { return cellSize; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    public FogRaster copy() {
+        return new FogRaster(cellSize, width, height, (BitSet) bits.clone());
+    }
+
+    public int revealedCells() {
+        return bits.cardinality();
+    }
+
+    public boolean isRevealed(int cellX, int cellY) {
+        return cellX >= 0 && cellY >= 0 && cellX < width && cellY < height && bits.get(cellY * width + cellX);
+    }
+
+    public void reveal(FogState.FogPoint point) {
+        fill(point, true);
+    }
+
+    public void hide(FogState.FogPoint point) {
+        fill(point, false);
+    }
+
+    public void clear() {
+        bits.clear();
+    }
+
+    /**
+     * Rasteryzuj punkt: kratka siatki jako kwadrat 2r x 2r, pozostałe jako koło.
+     * Komórka należy do kształtu, gdy jej środek leży w jego wnętrzu.
+     */
+    private void fill(FogState.FogPoint point, boolean value) {
+        int x = point.getX();
+        int y = point.getY();
+        int r = point.getRadius();
+        if (r <= 0) {
+            return;
+        }
+
+        int firstRow = Math.max(0, cellFloor(y - r));
+        int lastRow = Math.min(height - 1, cellFloor(y + r));
+        long rSq = (long) r * r;
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            double centerY = (row + 0.5) * cellSize;
+            double dy = centerY - y;
+            double half;
+            if (point.isGridCell()) {
+                if (Math.abs(dy) > r) {
+                    continue;
+                }
+                half = r;
+            } else {
+                double rest = rSq - dy * dy;
+                if (rest < 0) {
+                    continue;
+                }
+                half = Math.sqrt(rest);
+            }
+
+            int from = Math.max(0, (int) Math.ceil((x - half) / cellSize - 0.5));
+            int to = Math.min(width - 1, (int) Math.floor((x + half) / cellSize - 0.5));
+            if (from > to) {
+                continue;
+            }
+            int base = row * width;
+            bits.set(base + from, base + to + 1, value);
+        }
+    }
+
+    private int cellFloor(int pixel) {
+        return Math.floorDiv(pixel, cellSize);
+    }
+
+    /**
+     * Bity spakowane w bajty (LSB pierwszy) o stałej długości ceil(width*height/8)
+     */
+    public byte[] toBytes() {
+        byte[] packed = new byte[(width * height + 7) / 8];
+        byte[] raw = bits.toByteArray();
+        System.arraycopy(raw, 0, packed, 0, Math.min(raw.length, packed.length));
+        return packed;
+    }
+
+    /**
+     * Format przesyłany do klienta - surowe bity w base64
+     */
+    public FogState.RasterData toData() {
+        return new FogState.RasterData(cellSize, width, height, Base64.getEncoder().encodeToString(toBytes()));
+    }
+
+    /**
+     * Maska z formatu klienta - IllegalArgumentException przy niepoprawnych wymiarach lub danych
+     * (zgodność z rastrem mapy sprawdza FogStore przed zastosowaniem operacji)
+     */
+    public static FogRaster fromData(FogState.RasterData data) {
+        if (data.getCellSize() <= 0 || data.getWidth() <= 0 || data.getHeight() <= 0) {
+            throw new IllegalArgumentException("Nieprawidłowe wymiary maski mgły: " + data.getCellSize() + "/"
+                + data.getWidth() + "x" + data.getHeight());
+        }
+        byte[] packed = Base64.getDecoder().decode(data.getData());
+        if (packed.length > ((long) data.getWidth() * data.getHeight() + 7) / 8) {
+            throw new IllegalArgumentException("Dane maski mgły dłuższe niż jej wymiary");
+        }
+        return new FogRaster(data.getCellSize(), data.getWidth(), data.getHeight(), BitSet.valueOf(packed));
+    }
+
+    /**
+     * Czy maska ma ten sam układ komórek (rozmiar komórki i wymiary)
+     */
+    public boolean matches(FogState.RasterData data) {
+        return data.getCellSize() == cellSize && data.getWidth() == width && data.getHeight() == height;
+    }
+
+    /**
+     * Format zapisywany na dysk - bity skompresowane deflate, w base64
+     */
+    public String toCompressedBase64() {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(toBytes());
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            out.write(buffer, 0, count);
+        }
+        deflater.end();
+        return Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+    public static FogRaster fromCompressedBase64(int cellSize, int width, int height, String compressed) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(Base64.getDecoder().decode(compressed));
+
+        byte[] packed = new byte[(width * height + 7) / 8];
+        int offset = 0;
+        while (!inflater.finished() && offset < packed.length) {
+            int count = inflater.inflate(packed, offset, packed.length - offset);
+            if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                break;
+            }
+            offset += count;
+        }
+        inflater.end();
+        return new FogRaster(cellSize, width, height, BitSet.valueOf(packed));
+    }
+}
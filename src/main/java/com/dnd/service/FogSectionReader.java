@@ -0,0 +1,203 @@
+package com.dnd.service;
+
+import com.dnd.model.FogState;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Strumieniowy odczyt sekcji "fog" z data/<mapa>_data.json (JsonParser, bez drzewa Map).
+ * Pozostałe sekcje są pomijane bez tworzenia obiektów, a punkty trafiają do tablicy int
+ * (x, y, promień, kratka) - obiekty FogPoint powstają dopiero w FogStore.
+ *
+ * Odczyt kończy się zaraz po sekcji mgły - reszta pliku nie jest czytana.
+ */
+public final class FogSectionReader {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    // Pola punktu w tablicy points
+    private static final int STRIDE = 4;
+
+    private FogSectionReader() {}
+
+    public static class FogSection {
+        private String mapName;
+        private Long version;
+        private int[] points = new int[STRIDE * 64];
+        private int count;
+        private RasterSection raster;
+        private CellsSection gridCells;
+
+        public String getMapName() { return mapName; }
+        public Long getVersion() { return version; }
+        public int getCount() { return count; }
+        public RasterSection getRaster() { return raster; }
+        public CellsSection getGridCells() { return gridCells; }
+
+        public List<FogState.FogPoint> toPoints() {
+            List<FogState.FogPoint> result = new ArrayList<>(count);
+            for (int i = 0; i < count * STRIDE; i += STRIDE) {
+                result.add(new FogState.FogPoint(points[i], points[i + 1], points[i + 2], points[i + 3] != 0));
+            }
+            return result;
+        }
+
+        private void add(int x, int y, int radius, boolean isGridCell) {
+            if (count * STRIDE == points.length) {
+                points = Arrays.copyOf(points, points.length * 2);
+            }
+            int i = count * STRIDE;
+            points[i] = x;
+            points[i + 1] = y;
+            points[i + 2] = radius;
+            points[i + 3] = isGridCell ? 1 : 0;
+            count++;
+        }
+    }
+
+    public static class RasterSection {
+        private int cellSize;
+        private int width;
+        private int height;
+        private String data;
+
+        public int getCellSize() { return cellSize; }
+        public int getWidth() { return width; }
+        public int getHeight() { return height; }
+        public String getData() { return data; }
+    }
+
+    public static class CellsSection {
+        private double gridSize;
+        private double offsetX;
+        private double offsetY;
+        private int columns;
+        private int rows;
+        private String data;
+
+        public double getGridSize() { return gridSize; }
+        public double getOffsetX() { return offsetX; }
+        public double getOffsetY() { return offsetY; }
+        public int getColumns() { return columns; }
+        public int getRows() { return rows; }
+        public String getData() { return data; }
+    }
+
+    /**
+     * Sekcja mgły z pliku danych mapy - null, gdy plik jest pusty albo nie ma sekcji "fog".
+     * Błędy składni JSON są zgłaszane jako JsonProcessingException.
+     */
+    public static FogSection read(InputStream in) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("fog".equals(field) && value == JsonToken.START_OBJECT) {
+                    return readFog(parser);
+                }
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+
+    private static FogSection readFog(JsonParser parser) throws IOException {
+        FogSection section = new FogSection();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "mapName" -> section.mapName = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                case "version" -> section.version = value.isNumeric() ? parser.getLongValue() : null;
+                case "revealedAreas" -> {
+                    if (value == JsonToken.START_ARRAY) {
+                        readPoints(parser, section);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                case "raster" -> section.raster = value == JsonToken.START_OBJECT ? readRaster(parser) : null;
+                case "gridCells" -> section.gridCells = value == JsonToken.START_OBJECT ? readCells(parser) : null;
+                default -> parser.skipChildren();
+            }
+        }
+        return section;
+    }
+
+    private static void readPoints(JsonParser parser, FogSection section) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+
+            int x = 0;
+            int y = 0;
+            int radius = 0;
+            boolean isGridCell = false;
+            int seen = 0; // bity x, y, radius - punkt bez któregoś z nich jest pomijany
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "x" -> { if (value.isNumeric()) { x = parser.getValueAsInt(); seen |= 1; } }
+                    case "y" -> { if (value.isNumeric()) { y = parser.getValueAsInt(); seen |= 2; } }
+                    case "radius" -> { if (value.isNumeric()) { radius = parser.getValueAsInt(); seen |= 4; } }
+                    case "isGridCell" -> isGridCell = value == JsonToken.VALUE_TRUE;
+                    default -> parser.skipChildren();
+                }
+            }
+
+            if (seen == 7) {
+                section.add(x, y, radius, isGridCell);
+            } else {
+                System.err.println("⚠️ Ignoruję uszkodzony punkt mgły: brak współrzędnych lub promienia");
+            }
+        }
+    }
+
+    private static RasterSection readRaster(JsonParser parser) throws IOException {
+        RasterSection raster = new RasterSection();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "cellSize" -> raster.cellSize = parser.getValueAsInt();
+                case "width" -> raster.width = parser.getValueAsInt();
+                case "height" -> raster.height = parser.getValueAsInt();
+                case "data" -> raster.data = parser.getValueAsString();
+                default -> parser.skipChildren();
+            }
+        }
+        return raster;
+    }
+
+    private static CellsSection readCells(JsonParser parser) throws IOException {
+        CellsSection cells = new CellsSection();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "gridSize" -> cells.gridSize = parser.getValueAsDouble();
+                case "offsetX" -> cells.offsetX = parser.getValueAsDouble();
+                case "offsetY" -> cells.offsetY = parser.getValueAsDouble();
+                case "columns" -> cells.columns = parser.getValueAsInt();
+                case "rows" -> cells.rows = parser.getValueAsInt();
+                case "data" -> cells.data = parser.getValueAsString();
+                default -> parser.skipChildren();
+            }
+        }
+        return cells;
+    }
+}
@@ -1,68 +1,37 @@
 package com.dnd.service;
 
+import com.dnd.model.FogChanges;
+import com.dnd.model.FogOperation;
 import com.dnd.model.FogState;
+import com.dnd.model.MapDocument;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
 
 @Service
 public class FogService {
 
-    private final MapDataService mapDataService;
+    private final FogStore fogStore;
     private final PreviewMapService previewMapService;
+    private final FogTileRenderer tileRenderer;
+    private final FogCompactor compactor;
 
     @Autowired
-    public FogService(MapDataService mapDataService, PreviewMapService previewMapService) {
-        this.mapDataService = mapDataService;
+    public FogService(FogStore fogStore, PreviewMapService previewMapService, FogTileRenderer tileRenderer,
+                      FogCompactor compactor) {
+        this.fogStore = fogStore;
         this.previewMapService = previewMapService;
+        this.tileRenderer = tileRenderer;
+        this.compactor = compactor;
     }
 
     public FogState getFogState(String mapName) {
         try {
-            Map<String, Object> mapData = mapDataService.getMapData(mapName);
-
-            if (mapData == null) {
-                return new FogState(mapName, new ArrayList<>());
-            }
-
-            @SuppressWarnings("unchecked")
-            Map<String, Object> fogSection = (Map<String, Object>) mapData.get("fog");
-
-            if (fogSection == null) {
-                return new FogState(mapName, new ArrayList<>());
-            }
-
-            // Konwertuj dane mgły na FogState
-            String fogMapName = (String) fogSection.get("mapName");
-            @SuppressWarnings("unchecked")
-            List<Map<String, Object>> areasData = (List<Map<String, Object>>) fogSection.get("revealedAreas");
-
-
-            List<FogState.FogPoint> revealedAreas = new ArrayList<>();
-            if (areasData != null) {
-                for (Map<String, Object> areaData : areasData) {
-                    try {
-                        int x = ((Number) areaData.get("x")).intValue();
-                        int y = ((Number) areaData.get("y")).intValue();
-                        int radius = ((Number) areaData.get("radius")).intValue();
-                        boolean isGridCell = Boolean.TRUE.equals(areaData.get("isGridCell"));
-
-                        revealedAreas.add(new FogState.FogPoint(x, y, radius, isGridCell));
-                    } catch (Exception pointError) {
-                        // Ignoruj uszkodzone punkty mgły
-                        System.err.println("⚠️ Ignoruję uszkodzony punkt mgły: " + pointError.getMessage());
-                    }
-                }
-            }
-
-            FogState result = new FogState(fogMapName != null ? fogMapName : mapName, revealedAreas);
-            return result;
-
+            return fogStore.snapshot(mapName);
         } catch (Exception e) {
             System.err.println("BŁĄD odczytu stanu mgły dla mapy: " + mapName);
             System.err.println("Szczegóły błędu: " + e.getMessage());
@@ -72,95 +41,28 @@ public class FogService {
         }
     }
 
-    public synchronized void saveFogState(FogState fogState) {
-        long startTime = System.currentTimeMillis();
-        String mapName = fogState.getMapName();
-        int areaCount = fogState.getRevealedAreas().size();
-
-
+    /**
+     * Sekcja fog pliku danych z aktualnego stanu w pamięci - null przy błędzie odczytu
+     */
+    public MapDocument.Fog getFogSection(String mapName) {
         try {
-            // Optymalizuj stan mgły przed zapisem
-            optimizeFogState(fogState);
-
-            // Pobierz istniejące dane mapy - DEFENSYWNIE
-            Map<String, Object> mapData = null;
-            try {
-                mapData = mapDataService.getMapData(mapName);
-                System.out.println("📖 Odczytano mapData w saveFogState, klucze: " + (mapData != null ? mapData.keySet() : "null"));
-            } catch (Exception e) {
-                System.err.println("⚠️ Błąd odczytu pliku podczas zapisu mgły: " + e.getMessage());
-                // Kontynuuj z mapData = null - zostanie utworzona podstawowa struktura
-            }
-
-            if (mapData == null) {
-                // Plik nie istnieje lub jest uszkodzony - stwórz MINIMALNĄ strukturę
-                mapData = new HashMap<>();
-
-                // Utwórz tylko PODSTAWOWĄ strukturę - bez nadpisywania zaawansowanych ustawień
-                Map<String, Object> settings = new HashMap<>();
-                settings.put("zoom", 1);
-                settings.put("panX", 0);
-                settings.put("panY", 0);
-                settings.put("rotation", 0);
-                settings.put("previewZoom", 100);
-                mapData.put("settings", settings);
-
-                Map<String, Object> grid = new HashMap<>();
-                grid.put("size", null);
-                grid.put("offsetX", 0);
-                grid.put("offsetY", 0);
-                grid.put("visible", false);
-                mapData.put("grid", grid);
-
-                Map<String, Object> characters = new HashMap<>();
-                characters.put("players", new ArrayList<>());
-                characters.put("enemies", new ArrayList<>());
-                characters.put("enemyLetterCounter", 0);
-                mapData.put("characters", characters);
-
-                mapData.put("timestamp", java.time.Instant.now().toString());
-                mapData.put("version", "1.0");
-            }
-
-            // Zaktualizuj sekcję mgły
-            Map<String, Object> fogSection = new HashMap<>();
-            fogSection.put("mapName", fogState.getMapName());
-
-            List<Map<String, Object>> areasData = new ArrayList<>();
-            for (FogState.FogPoint point : fogState.getRevealedAreas()) {
-                Map<String, Object> areaData = new HashMap<>();
-                areaData.put("x", point.getX());
-                areaData.put("y", point.getY());
-                areaData.put("radius", point.getRadius());
-                areaData.put("isGridCell", point.isGridCell());
-                areasData.add(areaData);
-            }
-            fogSection.put("revealedAreas", areasData);
-
-            mapData.put("fog", fogSection);
-
-            // Zaktualizuj timestamp
-            mapData.put("timestamp", java.time.Instant.now().toString());
-
-            // PROSTY zapis do unified system
-            try {
-                mapDataService.saveMapData(mapName, mapData);
-            } catch (IOException saveEx) {
-                System.err.println("Błąd zapisu pliku danych dla mapy: " + mapName);
-                System.err.println("Błąd I/O: " + saveEx.getMessage());
-                // Po prostu loguj błąd - podgląd odświeży mgłę ręcznie przyciskiem
-            }
-
+            return fogStore.fogSection(mapName);
         } catch (Exception e) {
-            System.err.println("Błąd zapisu stanu mgły dla mapy: " + fogState.getMapName());
-            System.err.println("Szczegóły: " + e.getMessage());
-            e.printStackTrace();
-
-        } finally {
-            long duration = System.currentTimeMillis() - startTime;
+            System.err.println("BŁĄD odczytu stanu mgły dla mapy: " + mapName + " - " + e.getMessage());
+            return null;
         }
     }
 
+    public void saveFogState(FogState fogState) {
+        String mapName = fogState.getMapName();
+        List<FogState.FogPoint> areas = fogState.getRevealedAreas() != null
+            ? new ArrayList<>(fogState.getRevealedAreas())
+            : new ArrayList<>();
+
+        // Stan w pamięci jest autorytatywny - zapis na dysk wykona FogStore w tle
+        fogStore.apply(mapName, List.of(FogOperation.replace(areas, fogState.getRaster())));
+    }
+
     // New method for controller compatibility
     public void saveFogState(String mapName, FogState fogState) {
         // Ensure the map name is set
@@ -168,102 +70,98 @@ public class FogService {
         saveFogState(fogState);
     }
 
+    /**
+     * Wersja mgły jako "hash" - rośnie przy każdej zmianie, odczyt bez kopiowania stanu
+     */
     public String getFogStateHash(String mapName) {
         try {
-            FogState fogState = getFogState(mapName);
-            if (fogState == null || fogState.getRevealedAreas() == null) {
-                return "";
-            }
-
-            // Create a simple hash based on the number of revealed areas and their coordinates
-            StringBuilder hashBuilder = new StringBuilder();
-            hashBuilder.append("areas:").append(fogState.getRevealedAreas().size());
-
-            // Add sum of coordinates for basic change detection
-            long coordSum = fogState.getRevealedAreas().stream()
-                .mapToLong(area -> area.getX() + area.getY() + area.getRadius())
-                .sum();
-            hashBuilder.append(":sum:").append(coordSum);
-
-            return String.valueOf(hashBuilder.toString().hashCode());
+            return String.valueOf(getFogVersion(mapName));
         } catch (Exception e) {
             return "";
         }
     }
 
-    private void optimizeFogState(FogState fogState) {
-        List<FogState.FogPoint> areas = fogState.getRevealedAreas();
-        if (areas == null || areas.isEmpty()) {
-            return;
-        }
+    /**
+     * Kafelek PNG maski mgły (z, x, y opisane w FogTileRenderer)
+     */
+    public FogTileRenderer.Tile getFogTile(String mapName, int z, int x, int y) throws java.io.IOException {
+        return tileRenderer.renderTile(mapName, z, x, y);
+    }
 
-        // Jeśli lista jest za duża (powyżej 1000 punktów), usuń duplikaty i zmniejsz
-        if (areas.size() > 1000) {
-            // Usuń duplikaty - punkty w bardzo podobnej lokalizacji
-            List<FogState.FogPoint> optimized = new ArrayList<>();
-            for (FogState.FogPoint point : areas) {
-                boolean isDuplicate = optimized.stream().anyMatch(p ->
-                    Math.abs(p.getX() - point.getX()) < 3 &&
-                    Math.abs(p.getY() - point.getY()) < 3 &&
-                    Math.abs(p.getRadius() - point.getRadius()) < 3
-                );
-                if (!isDuplicate) {
-                    optimized.add(point);
-                }
-            }
+    /**
+     * Zmiany mgły od wersji since - dla przyrostowej synchronizacji widoku graczy
+     */
+    public FogChanges getFogChanges(String mapName, long since) {
+        return fogStore.changesSince(mapName, since);
+    }
 
-            fogState.setRevealedAreas(optimized);
+    public long getFogVersion(String mapName) {
+        return fogStore.version(mapName);
+    }
 
-            // Jeśli nadal za dużo (powyżej 5000), weź tylko co N-ty punkt
-            if (optimized.size() > 5000) {
-                List<FogState.FogPoint> reduced = new ArrayList<>();
-                int step = optimized.size() / 5000 + 1;
-                for (int i = 0; i < optimized.size(); i += step) {
-                    reduced.add(optimized.get(i));
-                }
-                fogState.setRevealedAreas(reduced);
-            }
-        }
+    /**
+     * Wartość nagłówka ETag dla wersji mgły
+     */
+    public static String etag(long version) {
+        return etag(version, false);
     }
 
-    public void addRevealedArea(String mapName, int x, int y, int radius) {
-        FogState fogState = getFogState(mapName);
-        List<FogState.FogPoint> revealedAreas = fogState.getRevealedAreas();
+    /**
+     * ETag reprezentacji - format binarny ma własny znacznik dla tej samej wersji
+     */
+    public static String etag(long version, boolean binary) {
+        return "\"fog-" + version + (binary ? ".bin" : "") + "\"";
+    }
 
-        if (revealedAreas == null) {
-            revealedAreas = new ArrayList<>();
-            fogState.setRevealedAreas(revealedAreas);
-        }
+    /**
+     * Tryb pomiarowy optymalizacji - liczy wynik na kopii stanu, bez jego zmiany
+     */
+    public Map<String, Object> measureOptimization(String mapName) {
+        // Optymalizowana jest tylko lista kół - kratki siatki i raster są już kompaktowe
+        List<FogState.FogPoint> areas = fogStore.read(mapName, entry -> entry.getAreas().toList());
+        FogOptimizer.Result result = FogOptimizer.optimize(areas);
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("mapName", mapName);
+        stats.put("pointsBefore", result.getPointsBefore());
+        stats.put("pointsAfter", result.getPointsAfter());
+        stats.put("durationMs", result.getDurationMs());
+        return stats;
+    }
 
-        revealedAreas.add(new FogState.FogPoint(x, y, radius, false));
-        saveFogState(fogState);
+    /**
+     * Raport ostatniej kompaktacji geometrycznej mapy
+     */
+    public Map<String, Object> getCompactionReport(String mapName) {
+        Map<String, Object> report = compactor.getReport(mapName);
+        if (report != null) {
+            return report;
+        }
+        Map<String, Object> empty = new HashMap<>();
+        empty.put("mapName", mapName);
+        empty.put("status", "not-compacted");
+        return empty;
     }
 
-    public void addRevealedAreas(String mapName, List<com.dnd.controller.FogController.FogPoint> points) {
-        FogState fogState = getFogState(mapName);
+    /**
+     * Usuń stan mgły mapy z pamięci (bez zapisu) - np. po usunięciu pliku danych
+     */
+    public void evictFogState(String mapName) {
+        fogStore.invalidate(mapName);
+        tileRenderer.evict(mapName);
+    }
 
-        for (com.dnd.controller.FogController.FogPoint point : points) {
-            fogState.getRevealedAreas().add(new FogState.FogPoint(point.getX(), point.getY(), point.getRadius(), point.isGridCell()));
-        }
+    public void addRevealedArea(String mapName, int x, int y, int radius) {
+        fogStore.apply(mapName, List.of(FogOperation.reveal(List.of(new FogState.FogPoint(x, y, radius, false)))));
+    }
 
-        saveFogState(fogState);
+    public void addRevealedAreas(String mapName, List<com.dnd.controller.FogController.FogPoint> points) {
+        fogStore.apply(mapName, List.of(FogOperation.reveal(toFogPoints(points))));
     }
 
     public void removeRevealedAreas(String mapName, List<com.dnd.controller.FogController.FogPoint> points) {
-        FogState fogState = getFogState(mapName);
-        List<FogState.FogPoint> revealedAreas = fogState.getRevealedAreas();
-
-        for (com.dnd.controller.FogController.FogPoint pointToRemove : points) {
-            revealedAreas.removeIf(existingPoint -> {
-                double distance = Math.sqrt(
-                    Math.pow(existingPoint.getX() - pointToRemove.getX(), 2) +
-                    Math.pow(existingPoint.getY() - pointToRemove.getY(), 2)
-                );
-                return distance <= (pointToRemove.getRadius() + 10);
-            });
-        }
-
-        saveFogState(fogState);
+        // Indeks przestrzenny - sprawdzane są tylko punkty z sąsiednich kubełków
+        fogStore.apply(mapName, List.of(FogOperation.hide(toFogPoints(points))));
     }
 
     // Stara metoda kompatybilności (bez flagi)
@@ -273,15 +171,80 @@ public class FogService {
 
     // Nowa metoda z flagą informującą o kratce siatki
     public void revealFogPoint(String mapName, int x, int y, int radius, boolean isGridCell) {
-        FogState fogState = getFogState(mapName);
-        fogState.getRevealedAreas().add(new FogState.FogPoint(x, y, radius, isGridCell));
-        saveFogState(fogState);
+        fogStore.apply(mapName, List.of(FogOperation.reveal(List.of(new FogState.FogPoint(x, y, radius, isGridCell)))));
     }
 
     public void resetFog(String mapName) {
-        FogState fogState = new FogState(mapName, new ArrayList<>());
-        saveFogState(fogState);
+        fogStore.apply(mapName, List.of(FogOperation.reset()));
+    }
+
+    /**
+     * Cofnij ostatni krok mgły (partię pędzla, reset...) - przy pustej historii wersja się nie zmienia
+     */
+    public Map<String, Object> undoFog(String mapName) {
+        long version = fogStore.apply(mapName, List.of(FogOperation.undo()));
+        return historyStatus(mapName, version);
+    }
+
+    public Map<String, Object> redoFog(String mapName) {
+        long version = fogStore.apply(mapName, List.of(FogOperation.redo()));
+        return historyStatus(mapName, version);
+    }
+
+    private Map<String, Object> historyStatus(String mapName, long version) {
+        Map<String, Object> status = new HashMap<>();
+        status.put("version", version);
+        fogStore.read(mapName, entry -> {
+            status.put("undo", entry.getUndoSize());
+            status.put("redo", entry.getRedoSize());
+            return null;
+        });
+        return status;
+    }
+
+    /**
+     * Zastosuj partię punktów pędzla w jednej operacji na mapie - "erase" odsłania,
+     * "paint" zasłania. Kolejne punkty z tą samą akcją są łączone w jedną operację,
+     * kolejność akcji jest zachowana. Zwraca wersję mgły po zastosowaniu partii ("version")
+     * i liczbę punktów zamienionych na operacje ("applied") - nieznane akcje są pomijane.
+     */
+    public Map<String, Object> applyBatch(String mapName, List<com.dnd.controller.FogController.BatchFogPoint> points) {
+        List<FogOperation> operations = new ArrayList<>();
+        String currentType = null;
+        List<FogState.FogPoint> currentPoints = null;
+        int applied = 0;
+
+        for (com.dnd.controller.FogController.BatchFogPoint point : points) {
+            String type;
+            if ("erase".equals(point.getAction())) {
+                type = FogOperation.REVEAL;
+            } else if ("paint".equals(point.getAction())) {
+                type = FogOperation.HIDE;
+            } else {
+                continue; // Nieznana akcja - pomijana jak dotychczas
+            }
+
+            if (!type.equals(currentType)) {
+                currentType = type;
+                currentPoints = new ArrayList<>();
+                operations.add(new FogOperation(type, currentPoints));
+            }
+            currentPoints.add(new FogState.FogPoint(point.getX(), point.getY(), point.getRadius(), point.isGridCell()));
+            applied++;
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("version", fogStore.apply(mapName, operations));
+        result.put("applied", applied);
+        return result;
     }
 
+    private List<FogState.FogPoint> toFogPoints(List<com.dnd.controller.FogController.FogPoint> points) {
+        List<FogState.FogPoint> fogPoints = new ArrayList<>(points.size());
+        for (com.dnd.controller.FogController.FogPoint point : points) {
+            fogPoints.add(new FogState.FogPoint(point.getX(), point.getY(), point.getRadius(), point.isGridCell()));
+        }
+        return fogPoints;
+    }
 
 }
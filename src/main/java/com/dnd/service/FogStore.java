@@ -0,0 +1,843 @@
+package com.dnd.service;
+
+import com.dnd.config.MapConfiguration;
+import com.dnd.model.FogChanges;
+import com.dnd.model.FogOperation;
+import com.dnd.model.FogState;
+import com.dnd.model.MapDocument;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Autorytatywny stan mgły w pamięci dla aktywnych map.
+ * Mutacje zmieniają pamięć i są dopisywane do dziennika (FogJournal), a wątek
+ * w tle zapisuje migawkę zmienionych map do pliku danych co app.fog.flush-interval-ms
+ * oraz przy zamykaniu aplikacji - migawka zastępuje zapisane wcześniej segmenty dziennika.
+ */
+@Service
+public class FogStore {
+
+    private final MapDataService mapDataService;
+    private final MapService mapService;
+    private final GridService gridService;
+    private final FogJournal journal;
+    private final boolean rasterMode;
+    private final int rasterCellSize;
+    private final Map<String, FogEntry> entries = new ConcurrentHashMap<>();
+    // Ostatnie wersje map usuniętych z pamięci przez invalidate - wersja nigdy się nie cofa
+    private final Map<String, Long> retiredVersions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final long idleEvictMs;
+    private final boolean measureOptimization;
+    private final int changeBufferSize;
+    private final int undoDepth;
+
+    private static final int OPTIMIZE_THRESHOLD = 1000;
+
+    @Autowired
+    public FogStore(MapDataService mapDataService, MapService mapService, GridService gridService,
+                    FogJournal journal, MapConfiguration mapConfiguration) {
+        this.mapDataService = mapDataService;
+        this.mapService = mapService;
+        this.gridService = gridService;
+        this.journal = journal;
+        this.rasterMode = "raster".equalsIgnoreCase(mapConfiguration.getFog().getMode());
+        this.rasterCellSize = Math.max(1, mapConfiguration.getFog().getRasterCellSize());
+        this.idleEvictMs = mapConfiguration.getFog().getIdleEvictMs();
+        this.measureOptimization = mapConfiguration.getFog().isMeasureOptimization();
+        this.changeBufferSize = Math.max(1, mapConfiguration.getFog().getChangeBufferSize());
+        this.undoDepth = mapConfiguration.getFog().getUndoDepth();
+
+        long interval = Math.max(100, mapConfiguration.getFog().getFlushIntervalMs());
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fog-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushDirty, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stan mgły jednej mapy. Dostęp tylko pod monitorem wpisu (przez read/update).
+     */
+    public static class FogEntry {
+        private final String mapName;
+        private final Object flushLock = new Object();
+        private String fogMapName;
+        private FogIndex areas;
+        private FogRaster raster; // != null w trybie rastrowym - wtedy lista punktów jest pusta
+        private FogCellLayer cells; // kratki siatki mapy (tryb punktowy, gdy siatka jest skalibrowana)
+        private long version;          // rośnie przy każdej mutacji - numer sekwencyjny w dzienniku
+        private long persistedVersion; // wersja ostatnio zapisana na dysk
+        private long lastAccess;
+        private boolean evicted;
+        // Ostatnie operacje dla klientów synchronizujących przyrostowo; obejmują wersje (changesFrom, version]
+        private final ArrayDeque<FogOperation> changes = new ArrayDeque<>();
+        private long changesFrom;
+        private int maxRadius; // największy promień odsłonięcia - zasięg wpływu zasłonięcia
+        // Wynik kompaktacji geometrycznej czekający na zapis migawki (ważny tylko dla compactionVersion)
+        private List<FogState.FogPoint> pendingCompaction;
+        private long compactionVersion;
+        private final FogHistory history;
+
+        FogEntry(String mapName, String fogMapName, List<FogState.FogPoint> revealedAreas, int undoDepth) {
+            this.mapName = mapName;
+            this.fogMapName = fogMapName;
+            this.areas = new FogIndex(revealedAreas);
+            this.lastAccess = System.currentTimeMillis();
+            this.history = new FogHistory(undoDepth);
+            for (FogState.FogPoint point : revealedAreas) {
+                maxRadius = Math.max(maxRadius, point.getRadius());
+            }
+        }
+
+        public String getMapName() { return mapName; }
+
+        public FogIndex getAreas() { return areas; }
+        public void setRevealedAreas(List<FogState.FogPoint> revealedAreas) { this.areas = new FogIndex(revealedAreas); }
+
+        public FogRaster getRaster() { return raster; }
+        public FogCellLayer getCells() { return cells; }
+
+        /**
+         * Odsłoń obszar - w trybie rastrowym rasteryzowany do maski
+         */
+        public void reveal(FogState.FogPoint point) {
+            maxRadius = Math.max(maxRadius, point.getRadius());
+            if (raster != null) {
+                saveRaster();
+                raster.reveal(point);
+                return;
+            }
+
+            int index = cells != null ? cells.indexOf(point) : -1;
+            if (index >= 0) {
+                if (!cells.get(index)) {
+                    cells.set(index, true);
+                    history.record(() -> cells.set(index, false));
+                }
+            } else {
+                areas.add(point);
+                history.recordAdded(point);
+                history.record(() -> areas.remove(point));
+            }
+        }
+
+        /**
+         * Zasłoń obszar - w trybie punktowym usuwa punkty o środku w zasięgu r + 10
+         */
+        public void hide(FogState.FogPoint point) {
+            if (raster != null) {
+                saveRaster();
+                raster.hide(point);
+                return;
+            }
+
+            int reach = (int) Math.min(Integer.MAX_VALUE, (long) point.getRadius() + 10);
+            List<FogState.FogPoint> removed = areas.removeWithin(point.getX(), point.getY(), reach);
+            if (!removed.isEmpty()) {
+                history.record(() -> removed.forEach(areas::add));
+            }
+            if (cells != null) {
+                List<Integer> hidden = cells.hideWithin(point.getX(), point.getY(), point.getRadius() + 10);
+                if (!hidden.isEmpty()) {
+                    history.record(() -> hidden.forEach(index -> cells.set(index, true)));
+                }
+            }
+        }
+
+        // Jedna kopia maski na krok historii - cofnięcie przywraca ją w całości
+        private void saveRaster() {
+            if (history.markRasterSaved()) {
+                FogRaster before = raster.copy();
+                history.record(() -> raster = before);
+            }
+        }
+
+        /**
+         * Zastąp cały stan mgły podaną listą punktów (i maską, jeśli klient ją przesłał)
+         */
+        public void replace(List<FogState.FogPoint> revealedAreas, FogState.RasterData rasterData) {
+            if (rasterData != null && rasterData.getData() != null) {
+                // Dekodowanie przed zmianą stanu - błędne dane nie zostawią wyczyszczonej mapy
+                FogRaster replacement = FogRaster.fromData(rasterData);
+                areas.clear();
+                raster = replacement;
+                revealedAreas.forEach(raster::reveal);
+            } else if (raster != null) {
+                raster.clear();
+                revealedAreas.forEach(raster::reveal);
+            } else {
+                areas.clear();
+                if (cells != null) {
+                    cells.clear();
+                }
+                revealedAreas.forEach(this::reveal);
+            }
+        }
+
+        public void clear() {
+            areas.clear();
+            if (cells != null) {
+                cells.clear();
+            }
+            if (raster != null) {
+                raster.clear();
+            }
+        }
+
+        /**
+         * Operacja, która zmieniła stan, i jej zapis w dzienniku. Historia cofania jest tylko
+         * w pamięci, więc cofnięcie trafia do dziennika jako zastąpienie stanu jego wynikiem,
+         * a ponowienie jako kopie ponownie zastosowanych operacji - odtworzenie nie zależy od historii.
+         */
+        static final class Applied {
+            private final FogOperation operation;
+            private final List<FogOperation> journal;
+
+            Applied(FogOperation operation, List<FogOperation> journal) {
+                this.operation = operation;
+                this.journal = journal;
+            }
+        }
+
+        /**
+         * Zastosuj operacje jednego wywołania jako jeden krok historii - ta sama ścieżka
+         * dla żądań klienta i odtwarzania dziennika. Zwraca operacje, które zmieniły stan
+         * (cofnięcie przy pustej historii jest pomijane). Niepoprawna grupa jest odrzucana
+         * (IllegalArgumentException) przed jakąkolwiek zmianą stanu.
+         */
+        List<Applied> applyGroup(List<FogOperation> operations) {
+            List<FogOperation> mutations = new ArrayList<>();
+            for (FogOperation operation : operations) {
+                if (!FogOperation.UNDO.equals(operation.getType()) && !FogOperation.REDO.equals(operation.getType())) {
+                    checkMutation(operation);
+                    mutations.add(operation);
+                }
+            }
+            if (!mutations.isEmpty() && mutations.size() != operations.size()) {
+                throw new IllegalArgumentException("Cofanie i ponawianie nie mogą być łączone z innymi operacjami mgły");
+            }
+
+            List<Applied> applied = new ArrayList<>();
+            if (!mutations.isEmpty()) {
+                beginStep(mutations);
+                mutations.forEach(this::applyMutation);
+                history.commit(true);
+                for (FogOperation mutation : mutations) {
+                    applied.add(new Applied(mutation, List.of(mutation)));
+                }
+                return applied;
+            }
+
+            for (FogOperation operation : operations) {
+                if (FogOperation.UNDO.equals(operation.getType())) {
+                    if (undo()) {
+                        FogState state = toFogState();
+                        applied.add(new Applied(operation, List.of(FogOperation.replace(state.getRevealedAreas(), state.getRaster()))));
+                    }
+                } else {
+                    List<FogOperation> redone = redo();
+                    if (redone != null) {
+                        applied.add(new Applied(operation, redone));
+                    }
+                }
+            }
+            return applied;
+        }
+
+        private static void checkMutation(FogOperation operation) {
+            switch (operation.getType() != null ? operation.getType() : "") {
+                case FogOperation.REVEAL, FogOperation.HIDE, FogOperation.RESET -> { }
+                case FogOperation.REPLACE -> {
+                    if (operation.getRaster() != null && operation.getRaster().getData() != null) {
+                        FogRaster.fromData(operation.getRaster()); // Uszkodzona maska - błąd przed zmianą stanu
+                    }
+                }
+                default -> throw new IllegalArgumentException("Nieznany typ operacji mgły: " + operation.getType());
+            }
+        }
+
+        private void beginStep(List<FogOperation> operations) {
+            history.begin(operations);
+            boolean replacesState = operations.stream().anyMatch(operation ->
+                FogOperation.RESET.equals(operation.getType()) || FogOperation.REPLACE.equals(operation.getType()));
+            if (replacesState) {
+                List<FogState.FogPoint> areasBefore = areas.toList();
+                FogCellLayer cellsBefore = cells != null ? cells.copy() : null;
+                FogRaster rasterBefore = raster != null ? raster.copy() : null;
+                history.recordFullState(() -> {
+                    areas = new FogIndex(areasBefore);
+                    cells = cellsBefore;
+                    raster = rasterBefore;
+                });
+            }
+        }
+
+        private boolean undo() {
+            return history.undo() != null;
+        }
+
+        // Kopie ponownie zastosowanych operacji (do dziennika) albo null, gdy nie ma czego ponowić
+        private List<FogOperation> redo() {
+            FogHistory.Step step = history.popRedo();
+            if (step == null) {
+                return null;
+            }
+            beginStep(step.getOperations());
+            step.getOperations().forEach(this::applyMutation);
+            history.commit(false);
+
+            List<FogOperation> copies = new ArrayList<>();
+            for (FogOperation operation : step.getOperations()) {
+                FogOperation copy = new FogOperation(operation.getType(), operation.getPoints());
+                copy.setRaster(operation.getRaster());
+                copies.add(copy);
+            }
+            return copies;
+        }
+
+        private void applyMutation(FogOperation operation) {
+            List<FogState.FogPoint> points = operation.getPoints() != null ? operation.getPoints() : List.of();
+            switch (operation.getType()) {
+                case FogOperation.REVEAL -> points.forEach(this::reveal);
+                case FogOperation.HIDE -> points.forEach(this::hide);
+                case FogOperation.RESET -> clear();
+                case FogOperation.REPLACE -> replace(points, operation.getRaster());
+                default -> throw new IllegalArgumentException("Nieznany typ operacji mgły: " + operation.getType());
+            }
+        }
+
+        /**
+         * Punkty, które muszą przetrwać kompaktację - cofnięcie kroku usuwa je z mapy
+         */
+        public Set<FogState.FogPoint> getProtectedPoints() {
+            return history.protectedPoints();
+        }
+
+        public int getUndoSize() { return history.undoSize(); }
+        public int getRedoSize() { return history.redoSize(); }
+
+        FogState toFogState() {
+            // Kratki rozwijane do punktów - klient rysuje je tak samo jak wcześniej
+            List<FogState.FogPoint> points = areas.toList();
+            if (cells != null) {
+                points.addAll(cells.toPoints());
+            }
+            FogState state = new FogState(fogMapName, points, raster != null ? raster.toData() : null);
+            state.setVersion(version);
+            return state;
+        }
+
+        public long getVersion() { return version; }
+
+        public int getMaxRadius() {
+            return cells != null ? Math.max(maxRadius, (int) Math.ceil(cells.getGridSize() / 2)) : maxRadius;
+        }
+
+        boolean isDirty() { return version != persistedVersion || pendingCompaction != null; }
+    }
+
+    /**
+     * Odczyt stanu mgły pod blokadą mapy - ładuje mapę z dysku przy pierwszym dostępie
+     */
+    public <T> T read(String mapName, Function<FogEntry, T> reader) {
+        while (true) {
+            FogEntry entry = entries.computeIfAbsent(mapName, this::load);
+            synchronized (entry) {
+                if (entry.evicted) {
+                    continue; // Wpis usunięty z pamięci w międzyczasie - wczytaj ponownie
+                }
+                entry.lastAccess = System.currentTimeMillis();
+                return reader.apply(entry);
+            }
+        }
+    }
+
+    /**
+     * Zastosuj operacje pod blokadą mapy jako jedną całość - każda dostaje kolejną wersję
+     * i trafia do dziennika (jeden krok historii cofania). Zwraca wersję mgły po ostatniej operacji.
+     */
+    public long apply(String mapName, List<FogOperation> operations) {
+        while (true) {
+            FogEntry entry = entries.computeIfAbsent(mapName, this::load);
+            synchronized (entry) {
+                if (entry.evicted) {
+                    continue;
+                }
+                entry.lastAccess = System.currentTimeMillis();
+                checkRaster(entry, operations);
+                List<FogOperation> journaled = new ArrayList<>();
+                for (FogEntry.Applied applied : entry.applyGroup(operations)) {
+                    entry.version++;
+                    FogOperation operation = applied.operation;
+                    operation.setVersion(entry.version);
+                    for (FogOperation effect : applied.journal) {
+                        effect.setVersion(entry.version);
+                        journaled.add(effect);
+                    }
+
+                    entry.changes.addLast(operation);
+                    if (entry.changes.size() > changeBufferSize) {
+                        entry.changesFrom = entry.changes.removeFirst().getVersion();
+                    }
+                }
+
+                try {
+                    journal.append(mapName, journaled);
+                } catch (IOException e) {
+                    // Stan w pamięci jest poprawny - trafi na dysk z najbliższą migawką
+                    System.err.println("⚠️ Błąd zapisu dziennika mgły dla mapy: " + mapName + " - " + e.getMessage());
+                }
+                return entry.version;
+            }
+        }
+    }
+
+    /**
+     * Maska przesłana przez klienta musi mieć układ rastra tej mapy (z obrazu mapy i app.fog.raster-cell-size) -
+     * inaczej IllegalArgumentException (400) zamiast alokacji według wymiarów z żądania
+     */
+    private void checkRaster(FogEntry entry, List<FogOperation> operations) {
+        for (FogOperation operation : operations) {
+            FogState.RasterData data = operation.getRaster();
+            if (!FogOperation.REPLACE.equals(operation.getType()) || data == null || data.getData() == null) {
+                continue;
+            }
+            FogRaster expected = entry.raster;
+            if (expected == null) {
+                Dimension dimensions = mapService.getMapDimensions(entry.mapName);
+                if (!rasterMode || dimensions == null) {
+                    throw new IllegalArgumentException("Mapa " + entry.mapName + " nie używa rastrowej maski mgły");
+                }
+                expected = FogRaster.forMap(dimensions.width, dimensions.height, rasterCellSize);
+            }
+            if (!expected.matches(data)) {
+                throw new IllegalArgumentException("Maska mgły " + data.getCellSize() + "/" + data.getWidth() + "x"
+                    + data.getHeight() + " nie pasuje do rastra mapy " + expected.getCellSize() + "/"
+                    + expected.getWidth() + "x" + expected.getHeight());
+            }
+        }
+    }
+
+    /**
+     * Aktualna wersja mgły mapy - bez kopiowania stanu
+     */
+    public long version(String mapName) {
+        return read(mapName, FogEntry::getVersion);
+    }
+
+    /**
+     * Operacje zastosowane po wersji since albo pełna migawka, gdy bufor zmian ich nie obejmuje
+     * (klient zbyt daleko w tyle, wersja z innej instancji, zastąpienie całego stanu)
+     */
+    public FogChanges changesSince(String mapName, long since) {
+        return read(mapName, entry -> {
+            if (since < entry.changesFrom || since > entry.version) {
+                return FogChanges.full(mapName, since, entry.toFogState());
+            }
+
+            List<FogOperation> operations = new ArrayList<>();
+            for (FogOperation operation : entry.changes) {
+                if (operation.getVersion() <= since) {
+                    continue;
+                }
+                if (!operation.isIncremental()) {
+                    // Zastąpienie stanu, cofnięcie, ponowienie - klient pobiera pełny stan
+                    return FogChanges.full(mapName, since, entry.toFogState());
+                }
+                operations.add(operation);
+            }
+            return FogChanges.delta(mapName, since, entry.version, operations);
+        });
+    }
+
+    /**
+     * Kopia stanu mgły bezpieczna do serializacji poza blokadą
+     */
+    public FogState snapshot(String mapName) {
+        return read(mapName, FogEntry::toFogState);
+    }
+
+    /**
+     * Sekcja fog w formacie pliku danych (maska i kratki skompresowane) z aktualnego stanu w pamięci -
+     * plik może być starszy o interwał zapisu migawki
+     */
+    public MapDocument.Fog fogSection(String mapName) {
+        FogCopy copy = read(mapName, FogCopy::new);
+        // Kodowanie maski i kratek na kopii, poza blokadą mapy
+        return toFogSection(copy.state, copy.raster, copy.cells, copy.version);
+    }
+
+    // Kopia stanu wpisu do zakodowania poza blokadą
+    private static final class FogCopy {
+        private final FogState state;
+        private final FogRaster raster;
+        private final FogCellLayer cells;
+        private final long version;
+
+        FogCopy(FogEntry entry) {
+            this.state = new FogState(entry.fogMapName, entry.areas.toList());
+            this.raster = entry.raster != null ? entry.raster.copy() : null;
+            this.cells = entry.cells != null ? entry.cells.copy() : null;
+            this.version = entry.version;
+        }
+    }
+
+    /**
+     * Nazwy map, których mgła jest w pamięci
+     */
+    public List<String> activeMaps() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * Przekaż wynik kompaktacji policzony dla wersji baseVersion - zostanie zastosowany
+     * przy zapisie migawki, jeśli mapa nie zmieniła się w międzyczasie
+     */
+    public void offerCompaction(String mapName, long baseVersion, List<FogState.FogPoint> points) {
+        FogEntry entry = entries.get(mapName);
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            if (!entry.evicted && entry.version == baseVersion) {
+                entry.pendingCompaction = points;
+                entry.compactionVersion = baseVersion;
+            }
+        }
+    }
+
+    /**
+     * Zapisz natychmiast mapę, jeśli ma niezapisane zmiany
+     */
+    public void flush(String mapName) {
+        FogEntry entry = entries.get(mapName);
+        if (entry != null) {
+            flushEntry(entry);
+        }
+    }
+
+    /**
+     * Zapisz wszystkie zmienione mapy i zwolnij pamięć map nieużywanych od dłuższego czasu
+     */
+    public void flushDirty() {
+        long now = System.currentTimeMillis();
+        for (FogEntry entry : entries.values()) {
+            try {
+                flushEntry(entry);
+
+                synchronized (entry) {
+                    if (!entry.isDirty() && now - entry.lastAccess > idleEvictMs) {
+                        entry.evicted = true;
+                        entries.remove(entry.mapName, entry);
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("Błąd zapisu mgły w tle dla mapy: " + entry.mapName + " - " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Usuń mapę z pamięci bez zapisu (np. po usunięciu pliku danych)
+     */
+    public void invalidate(String mapName) {
+        FogEntry entry = entries.remove(mapName);
+        if (entry != null) {
+            synchronized (entry) {
+                entry.evicted = true;
+                retiredVersions.merge(mapName, entry.version + 1, Math::max);
+                journal.delete(mapName);
+            }
+        } else {
+            journal.delete(mapName);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushDirty();
+    }
+
+    private void flushEntry(FogEntry entry) {
+        synchronized (entry.flushLock) {
+            FogState snapshot;
+            FogRaster raster;
+            FogCellLayer cells;
+            long version;
+            synchronized (entry) {
+                if (entry.evicted || !entry.isDirty()) {
+                    return;
+                }
+                // Zmiana zbioru punktów (przy tym samym pokryciu) jest zapisywana razem z migawką,
+                // więc dziennik po niej zawsze odtwarza się na tym samym zbiorze
+                boolean reshaped = applyCompaction(entry) | optimize(entry);
+                if (reshaped) {
+                    // Klienci przyrostowi mają inny zbiór punktów - muszą pobrać pełny stan
+                    entry.version++;
+                    entry.changes.clear();
+                    entry.changesFrom = entry.version;
+                }
+                snapshot = new FogState(entry.fogMapName, entry.areas.toList());
+                raster = entry.raster != null ? entry.raster.copy() : null;
+                cells = entry.cells != null ? entry.cells.copy() : null;
+                version = entry.version;
+                // Kolejne operacje trafią do nowego segmentu, którego migawka nie obejmuje
+                journal.roll(entry.mapName);
+            }
+
+            try {
+                persist(entry.mapName, snapshot, raster, cells, version);
+                synchronized (entry) {
+                    entry.persistedVersion = version;
+                }
+                journal.compact(entry.mapName, version);
+            } catch (IOException e) {
+                // Mapa pozostaje oznaczona do zapisu - spróbujemy w następnym cyklu
+                System.err.println("Błąd zapisu pliku danych dla mapy: " + entry.mapName);
+                System.err.println("Błąd I/O: " + e.getMessage());
+            }
+        }
+    }
+
+    private FogEntry load(String mapName) {
+        FogEntry entry = readFromDisk(mapName);
+        Long retired = retiredVersions.get(mapName);
+        if (retired != null && retired > entry.version) {
+            // Nowy stan po usunięciu danych - ETag starego stanu nie może się powtórzyć
+            entry.version = retired;
+            entry.persistedVersion = retired;
+        }
+        Dimension dimensions = mapService.getMapDimensions(mapName);
+        convertFormat(entry, dimensions);
+        replayJournal(entry);
+        entry.changesFrom = entry.version;
+        return entry;
+    }
+
+    /**
+     * Odtwórz operacje z dziennika, których nie obejmuje migawka z pliku danych
+     */
+    private void replayJournal(FogEntry entry) {
+        // Grupy = wywołania apply; cofnięcia i ponowienia są zapisane jako ich faktyczne zmiany
+        List<List<FogOperation>> groups = journal.replay(entry.mapName, entry.persistedVersion);
+        int count = 0;
+        for (List<FogOperation> group : groups) {
+            try {
+                entry.applyGroup(group);
+            } catch (Exception e) {
+                // Grupa odrzucona przed zmianą stanu - jej wersja nie może trafić do klientów (ETag, /changes)
+                System.err.println("⚠️ Ignoruję operacje dziennika od wersji " + group.get(0).getVersion() + ": " + e.getMessage());
+                continue;
+            }
+            for (FogOperation operation : group) {
+                entry.version = Math.max(entry.version, operation.getVersion());
+            }
+            count += group.size();
+        }
+        if (count > 0) {
+            System.out.println("📜 Odtworzono " + count + " operacji mgły z dziennika dla mapy: " + entry.mapName);
+        }
+    }
+
+    private void convertFormat(FogEntry entry, Dimension dimensions) {
+        String mapName = entry.mapName;
+
+        // Tryb rastrowy - pliki z listą punktów są konwertowane przy pierwszym wczytaniu
+        if (rasterMode && entry.raster == null) {
+            if (dimensions != null) {
+                List<FogState.FogPoint> points = entry.toFogState().getRevealedAreas();
+                entry.raster = FogRaster.forMap(dimensions.width, dimensions.height, rasterCellSize);
+                points.forEach(entry.raster::reveal);
+                entry.areas.clear();
+                entry.cells = null;
+                entry.version++; // zapisz skonwertowany format
+                return;
+            }
+            System.err.println("⚠️ Brak obrazu mapy " + mapName + " - mgła pozostaje w trybie punktowym");
+        }
+
+        if (entry.raster == null) {
+            attachCellLayer(entry, dimensions);
+        }
+    }
+
+    /**
+     * Przenieś kratki siatki z listy punktów do warstwy BitSet zgodnej z aktualną siatką mapy
+     */
+    private void attachCellLayer(FogEntry entry, Dimension dimensions) {
+        GridService.GridConfig config = gridService.getGridConfig(entry.mapName);
+
+        // Siatka przekalibrowana - stare kratki wracają do listy jako zwykłe punkty kratek
+        if (entry.cells != null && !entry.cells.matches(config)) {
+            entry.cells.toPoints().forEach(entry.areas::add);
+            entry.cells = null;
+            entry.version++;
+        }
+
+        if (entry.cells == null && config != null && config.getGridSize() > 0) {
+            entry.cells = FogCellLayer.forGrid(config, dimensions != null ? dimensions.width : null,
+                dimensions != null ? dimensions.height : null);
+        }
+
+        if (entry.cells != null) {
+            int moved = 0;
+            for (FogState.FogPoint point : entry.areas.toList()) {
+                if (point.isGridCell() && entry.cells.reveal(point)) {
+                    entry.areas.remove(point);
+                    moved++;
+                }
+            }
+            if (moved > 0) {
+                entry.version++; // zapisz kompaktowy format
+            }
+        }
+    }
+
+    private FogEntry readFromDisk(String mapName) {
+        try {
+            FogSectionReader.FogSection section = mapDataService.readFogSection(mapName);
+
+            if (section == null) {
+                return new FogEntry(mapName, mapName, new ArrayList<>(), undoDepth);
+            }
+
+            FogEntry entry = new FogEntry(mapName, section.getMapName() != null ? section.getMapName() : mapName,
+                section.toPoints(), undoDepth);
+
+            FogSectionReader.RasterSection raster = section.getRaster();
+            if (raster != null) {
+                entry.raster = FogRaster.fromCompressedBase64(raster.getCellSize(), raster.getWidth(),
+                    raster.getHeight(), raster.getData());
+            }
+
+            FogSectionReader.CellsSection cells = section.getGridCells();
+            if (cells != null) {
+                entry.cells = FogCellLayer.fromBase64(cells.getGridSize(), cells.getOffsetX(), cells.getOffsetY(),
+                    cells.getColumns(), cells.getRows(), cells.getData());
+            }
+
+            // Wersja migawki - dziennik jest odtwarzany od następnej operacji
+            if (section.getVersion() != null) {
+                entry.version = section.getVersion();
+                entry.persistedVersion = entry.version;
+            }
+            return entry;
+
+        } catch (JsonProcessingException e) {
+            // Uszkodzony plik - pełny odczyt przenosi go do kopii zapasowej
+            System.err.println("BŁĄD składni pliku danych mapy " + mapName + ": " + e.getOriginalMessage());
+            try {
+                mapDataService.getMapData(mapName);
+            } catch (IOException ignored) {
+                // Błąd już zgłoszony
+            }
+            return new FogEntry(mapName, mapName, new ArrayList<>(), undoDepth);
+
+        } catch (Exception e) {
+            System.err.println("BŁĄD odczytu stanu mgły dla mapy: " + mapName);
+            System.err.println("Szczegóły błędu: " + e.getMessage());
+
+            // ZAWSZE zwróć jakąkolwiek mgłę - nie null
+            return new FogEntry(mapName, mapName, new ArrayList<>(), undoDepth);
+        }
+    }
+
+    private void persist(String mapName, FogState fogState, FogRaster raster, FogCellLayer cells, long version) throws IOException {
+        // Odczyt i zapis pod jedną blokadą zapisu mapy - zapis z klienta nie zginie pomiędzy
+        mapDataService.updateMapData(mapName, mapData -> withFogSection(mapData, fogState, raster, cells, version));
+    }
+
+    private MapDocument withFogSection(MapDocument mapData, FogState fogState, FogRaster raster,
+                                       FogCellLayer cells, long version) {
+        if (mapData == null) {
+            // Plik nie istnieje lub jest uszkodzony - stwórz MINIMALNĄ strukturę
+            mapData = MapDocument.createDefault();
+        }
+
+        // Zaktualizuj sekcję mgły - punkty migawki trafiają do dokumentu bez kopiowania
+        mapData.setFog(toFogSection(fogState, raster, cells, version));
+        mapData.setTimestamp(java.time.Instant.now().toString());
+        return mapData;
+    }
+
+    private static MapDocument.Fog toFogSection(FogState fogState, FogRaster raster, FogCellLayer cells, long version) {
+        MapDocument.Fog fog = new MapDocument.Fog();
+        fog.setMapName(fogState.getMapName());
+        fog.setVersion(version);
+        fog.setRevealedAreas(fogState.getRevealedAreas());
+
+        if (raster != null) {
+            fog.setRaster(new FogState.RasterData(raster.getCellSize(), raster.getWidth(), raster.getHeight(),
+                raster.toCompressedBase64()));
+        }
+
+        if (cells != null) {
+            fog.setGridCells(new MapDocument.GridCells(cells.getGridSize(), cells.getOffsetX(), cells.getOffsetY(),
+                cells.getColumns(), cells.getRows(), cells.toBase64()));
+        }
+        return fog;
+    }
+
+    private boolean applyCompaction(FogEntry entry) {
+        List<FogState.FogPoint> compacted = entry.pendingCompaction;
+        entry.pendingCompaction = null;
+        if (compacted == null || entry.compactionVersion != entry.version) {
+            return false; // Mapa zmieniła się od policzenia kompaktacji
+        }
+        entry.setRevealedAreas(compacted);
+        return true;
+    }
+
+    private boolean optimize(FogEntry entry) {
+        // Małe mapy nie wymagają optymalizacji
+        if (entry.areas.size() <= OPTIMIZE_THRESHOLD) {
+            return false;
+        }
+
+        // Punkty z historii cofania nie są optymalizowane ani nie pokrywają innych
+        Set<FogState.FogPoint> protectedPoints = entry.getProtectedPoints();
+        List<FogState.FogPoint> stable = new ArrayList<>();
+        for (FogState.FogPoint point : entry.areas.toList()) {
+            if (!protectedPoints.contains(point)) {
+                stable.add(point);
+            }
+        }
+
+        FogOptimizer.Result result = FogOptimizer.optimize(stable);
+        boolean changed = result.getPointsAfter() < result.getPointsBefore();
+        if (changed) {
+            List<FogState.FogPoint> optimized = new ArrayList<>(result.getPoints());
+            optimized.addAll(protectedPoints);
+            entry.setRevealedAreas(optimized);
+        }
+
+        if (measureOptimization) {
+            System.out.printf("📊 Optymalizacja mgły %s: %d -> %d punktów w %.2f ms%n",
+                entry.mapName, result.getPointsBefore(), result.getPointsAfter(), result.getDurationMs());
+        }
+        return changed;
+    }
+}
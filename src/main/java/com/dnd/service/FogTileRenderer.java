@@ -0,0 +1,268 @@
+package com.dnd.service;
+
+import com.dnd.model.FogChanges;
+import com.dnd.model.FogOperation;
+import com.dnd.model.FogState;
+import com.dnd.model.MapSettings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renderowanie maski mgły do kafelków PNG 256 x 256 px.
+ * Poziom z to skala 1 / 2^z - kafelek (x, y) obejmuje piksele mapy
+ * [x * 256 * 2^z, (x + 1) * 256 * 2^z) w poziomie (analogicznie w pionie).
+ *
+ * Kafelki są cache'owane razem z wersją mgły, z której powstały. Przy starszej
+ * wersji sprawdzane są operacje z bufora zmian FogStore - kafelek jest renderowany
+ * ponownie tylko wtedy, gdy któraś z nich go dotyka.
+ */
+@Service
+public class FogTileRenderer {
+
+    public static final int TILE_SIZE = 256;
+    public static final int MAX_ZOOM = 6;
+
+    private static final int MAX_CACHED_TILES = 1024;
+    private static final String DEFAULT_FOG_COLOR = "#808080";
+    private static final double DEFAULT_FOG_OPACITY = 0.65;
+
+    private final FogStore fogStore;
+    private final MapSettingsService mapSettingsService;
+
+    // LRU po kolejności dostępu
+    private final Map<String, CachedTile> cache = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedTile> eldest) {
+            return size() > MAX_CACHED_TILES;
+        }
+    };
+
+    @Autowired
+    public FogTileRenderer(FogStore fogStore, MapSettingsService mapSettingsService) {
+        this.fogStore = fogStore;
+        this.mapSettingsService = mapSettingsService;
+    }
+
+    public static class Tile {
+        private final byte[] png;
+        private final String etag;
+
+        Tile(CachedTile cached) {
+            this.png = cached.png;
+            // Wersja renderowania, a nie bieżąca - nietknięty kafelek zachowuje ETag
+            this.etag = "\"tile-" + cached.renderedVersion + "-" + cached.style + "\"";
+        }
+
+        public byte[] getPng() { return png; }
+        public String getEtag() { return etag; }
+    }
+
+    private static class CachedTile {
+        private final byte[] png;
+        private final String style;
+        private final long renderedVersion;
+        private volatile long version; // wersja mgły, dla której kafelek jest aktualny
+
+        CachedTile(byte[] png, String style, long version) {
+            this.png = png;
+            this.style = style;
+            this.renderedVersion = version;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Kafelek maski mgły - z cache, jeśli od jego wersji żadna operacja go nie dotknęła
+     */
+    public Tile renderTile(String mapName, int z, int x, int y) throws IOException {
+        if (z < 0 || z > MAX_ZOOM || x < 0 || y < 0) {
+            throw new IllegalArgumentException("Nieprawidłowy kafelek: " + z + "/" + x + "/" + y);
+        }
+
+        Color fogColor = fogColor(mapName);
+        String style = Integer.toHexString(fogColor.getRGB());
+        String key = mapName + "/" + z + "/" + x + "/" + y;
+        Rectangle2D bounds = tileBounds(z, x, y);
+
+        CachedTile cached;
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+        if (cached != null && cached.style.equals(style)) {
+            long current = fogStore.version(mapName);
+            if (cached.version == current) {
+                return new Tile(cached);
+            }
+            FogChanges changes = fogStore.changesSince(mapName, cached.version);
+            int maxRadius = fogStore.read(mapName, FogStore.FogEntry::getMaxRadius);
+            if (!changes.isFull() && !touches(changes.getOperations(), bounds, maxRadius)) {
+                cached.version = changes.getVersion();
+                return new Tile(cached);
+            }
+        }
+
+        TileInput input = fogStore.read(mapName, entry -> collect(entry, bounds));
+        CachedTile rendered = new CachedTile(draw(input, bounds, z, fogColor), style, input.version);
+        synchronized (cache) {
+            cache.put(key, rendered);
+        }
+        return new Tile(rendered);
+    }
+
+    /**
+     * Usuń z cache kafelki mapy (np. po usunięciu jej danych)
+     */
+    public void evict(String mapName) {
+        synchronized (cache) {
+            cache.keySet().removeIf(key -> key.startsWith(mapName + "/"));
+        }
+    }
+
+    // Punkty i maska potrzebne do kafelka - zbierane pod blokadą mapy, rysowane poza nią
+    private static class TileInput {
+        private final List<FogState.FogPoint> points = new ArrayList<>();
+        private FogRaster raster;
+        private long version;
+    }
+
+    private TileInput collect(FogStore.FogEntry entry, Rectangle2D bounds) {
+        TileInput input = new TileInput();
+        input.version = entry.getVersion();
+        // Tylko kubełki indeksu w zasięgu kafelka - środek punktu może leżeć dalej o największy promień
+        int margin = entry.getMaxRadius();
+        entry.getAreas().forEachInside(
+            (long) Math.floor(bounds.getMinX()) - margin, (long) Math.floor(bounds.getMinY()) - margin,
+            (long) Math.ceil(bounds.getMaxX()) + margin, (long) Math.ceil(bounds.getMaxY()) + margin,
+            point -> {
+                if (intersects(point, bounds)) {
+                    input.points.add(point);
+                }
+            });
+        if (entry.getCells() != null) {
+            input.points.addAll(entry.getCells().pointsWithin(
+                bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY()));
+        }
+        if (entry.getRaster() != null) {
+            input.raster = entry.getRaster().copy();
+        }
+        return input;
+    }
+
+    private byte[] draw(TileInput input, Rectangle2D bounds, int z, Color fogColor) throws IOException {
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(fogColor);
+            g.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+
+            // Odsłonięte obszary wycinane z mgły - jak destination-out w kliencie
+            g.setComposite(AlphaComposite.Clear);
+            double scale = 1.0 / (1 << z);
+            g.scale(scale, scale);
+            g.translate(-bounds.getX(), -bounds.getY());
+
+            for (FogState.FogPoint point : input.points) {
+                double r = point.getRadius();
+                if (point.isGridCell()) {
+                    g.fill(new Rectangle2D.Double(point.getX() - r, point.getY() - r, 2 * r, 2 * r));
+                } else {
+                    g.fill(new Ellipse2D.Double(point.getX() - r, point.getY() - r, 2 * r, 2 * r));
+                }
+            }
+
+            if (input.raster != null) {
+                drawRaster(g, input.raster, bounds);
+            }
+        } finally {
+            g.dispose();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    // Ciągłe odcinki odsłoniętych komórek w wierszach widocznych na kafelku
+    private void drawRaster(Graphics2D g, FogRaster raster, Rectangle2D bounds) {
+        int size = raster.getCellSize();
+        int firstRow = Math.max(0, (int) (bounds.getMinY() / size));
+        int lastRow = Math.min(raster.getHeight() - 1, (int) (bounds.getMaxY() / size));
+        int firstColumn = Math.max(0, (int) (bounds.getMinX() / size));
+        int lastColumn = Math.min(raster.getWidth() - 1, (int) (bounds.getMaxX() / size));
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            int runStart = -1;
+            for (int column = firstColumn; column <= lastColumn + 1; column++) {
+                boolean revealed = column <= lastColumn && raster.isRevealed(column, row);
+                if (revealed && runStart < 0) {
+                    runStart = column;
+                } else if (!revealed && runStart >= 0) {
+                    g.fillRect(runStart * size, row * size, (column - runStart) * size, size);
+                    runStart = -1;
+                }
+            }
+        }
+    }
+
+    private boolean touches(List<FogOperation> operations, Rectangle2D bounds, int maxRadius) {
+        for (FogOperation operation : operations) {
+            // Reset, zastąpienie, cofnięcie i ponowienie mogą zmienić dowolny kafelek
+            if (!FogOperation.REVEAL.equals(operation.getType()) && !FogOperation.HIDE.equals(operation.getType())) {
+                return true;
+            }
+            if (operation.getPoints() == null) {
+                continue;
+            }
+            // Zasłonięcie usuwa punkty o środku w zasięgu r + 10 - sięgają one dalej o swój promień
+            int margin = FogOperation.HIDE.equals(operation.getType()) ? maxRadius + 10 : 0;
+            for (FogState.FogPoint point : operation.getPoints()) {
+                double r = point.getRadius() + margin;
+                if (bounds.intersects(point.getX() - r, point.getY() - r, 2 * r, 2 * r)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean intersects(FogState.FogPoint point, Rectangle2D bounds) {
+        double r = point.getRadius();
+        return bounds.intersects(point.getX() - r, point.getY() - r, 2 * r, 2 * r);
+    }
+
+    private static Rectangle2D tileBounds(int z, int x, int y) {
+        double span = (double) TILE_SIZE * (1 << z);
+        return new Rectangle2D.Double(x * span, y * span, span, span);
+    }
+
+    private Color fogColor(String mapName) {
+        MapSettings settings = mapSettingsService.loadMapSettings(mapName);
+        String hex = settings != null && settings.getFogColor() != null ? settings.getFogColor() : DEFAULT_FOG_COLOR;
+        double opacity = settings != null && settings.getFogOpacity() != null ? settings.getFogOpacity() : DEFAULT_FOG_OPACITY;
+
+        Color base;
+        try {
+            base = Color.decode(hex);
+        } catch (NumberFormatException e) {
+            base = Color.decode(DEFAULT_FOG_COLOR);
+        }
+        int alpha = (int) Math.round(Math.max(0, Math.min(1, opacity)) * 255);
+        return new Color(base.getRed(), base.getGreen(), base.getBlue(), alpha);
+    }
+}
@@ -6,19 +6,21 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.Map;
 
 @Service
 public class GridService {
-    private final Map<String, GridConfig> gridConfigs = new ConcurrentHashMap<>();
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final MapConfiguration mapConfiguration;
+    private final PersistenceQueue persistenceQueue;
+    private final DocumentCache documentCache;
     private final String GRID_CONFIG_DIR;
 
     @Autowired
-    public GridService(MapConfiguration mapConfiguration) {
+    public GridService(MapConfiguration mapConfiguration, PersistenceQueue persistenceQueue,
+                       DocumentCache documentCache) {
         this.mapConfiguration = mapConfiguration;
+        this.persistenceQueue = persistenceQueue;
+        this.documentCache = documentCache;
         this.GRID_CONFIG_DIR = mapConfiguration.getGridConfigs().getDirectory();
 
         // Utwórz katalog na konfiguracje siatki jeśli nie istnieje
@@ -70,16 +72,8 @@ public class GridService {
     }
 
     public GridConfig getGridConfig(String mapName) {
-        // Spróbuj pobrać z cache
-        GridConfig config = gridConfigs.get(mapName);
-        if (config == null) {
-            // Jeśli nie ma w cache, spróbuj wczytać z pliku
-            config = loadGridConfigFromFile(mapName);
-            if (config != null) {
-                gridConfigs.put(mapName, config);
-            }
-        }
-        return config;
+        // Wspólny cache dokumentów (DocumentCache), przy braku - plik
+        return loadGridConfigFromFile(mapName);
     }
 
     public void setGridConfig(String mapName, double gridSize, double offsetX, double offsetY) {
@@ -88,30 +82,30 @@ public class GridService {
 
     public void setGridConfig(String mapName, double gridSize, double offsetX, double offsetY, double lineWidth) {
         GridConfig config = new GridConfig(gridSize, offsetX, offsetY, lineWidth);
-        gridConfigs.put(mapName, config);
         saveGridConfigToFile(mapName, config);
     }
 
     public void clearGridConfig(String mapName) {
-        gridConfigs.remove(mapName);
         deleteGridConfigFile(mapName);
     }
 
     private void saveGridConfigToFile(String mapName, GridConfig config) {
+        // Zapis w tle - do czasu zapisu odczyty dostają konfigurację z kolejki
+        File file = new File(GRID_CONFIG_DIR, mapName + "_grid.json");
         try {
-            File file = new File(GRID_CONFIG_DIR, mapName + "_grid.json");
-            objectMapper.writeValue(file, config);
+            persistenceQueue.submit(file.toPath(), config, objectMapper::writeValueAsBytes);
         } catch (IOException e) {
-            System.err.println("Błąd zapisywania konfiguracji siatki dla mapy " + mapName + ": " + e.getMessage());
+            System.err.println("Błąd zapisu konfiguracji siatki dla mapy " + mapName + ": " + e.getMessage());
+        } finally {
+            documentCache.invalidate(file.toPath());
         }
     }
 
     private GridConfig loadGridConfigFromFile(String mapName) {
         try {
             File file = new File(GRID_CONFIG_DIR, mapName + "_grid.json");
-            if (file.exists()) {
-                return objectMapper.readValue(file, GridConfig.class);
-            }
+            return documentCache.get(file.toPath(), GridConfig.class,
+                data -> objectMapper.readValue(data, GridConfig.class));
         } catch (IOException e) {
             System.err.println("Błąd wczytywania konfiguracji siatki dla mapy " + mapName + ": " + e.getMessage());
         }
@@ -121,9 +115,8 @@ public class GridService {
     private void deleteGridConfigFile(String mapName) {
         try {
             File file = new File(GRID_CONFIG_DIR, mapName + "_grid.json");
-            if (file.exists()) {
-                file.delete();
-            }
+            persistenceQueue.delete(file.toPath());
+            documentCache.invalidate(file.toPath());
         } catch (Exception e) {
             System.err.println("Błąd usuwania konfiguracji siatki dla mapy " + mapName + ": " + e.getMessage());
         }
@@ -0,0 +1,344 @@
+package com.dnd.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Jednoplikowy magazyn dokumentów (klucz -> bajty): log rekordów w pliku mapowanym do pamięci
+ * i indeks kluczy w pamięci. Zapis dopisuje rekord na końcu logu - nowszy rekord klucza
+ * przesłania starsze, a compact() przepisuje tylko żywe rekordy do nowego pliku.
+ *
+ * Rekord: magic | crc32 | długość klucza | długość wartości (-1 = usunięcie) | klucz UTF-8 | wartość.
+ * Po awarii log kończy się na pierwszym urwanym rekordzie albo rekordzie z błędną sumą kontrolną.
+ */
+final class LogStructuredStore implements Closeable {
+
+    private static final int MAGIC = 0x444E4431; // "DND1"
+    private static final int HEADER = 16;
+    private static final int TOMBSTONE = -1;
+    private static final int MAX_KEY_LENGTH = 4096;
+    private static final int INITIAL_CAPACITY = 1 << 20;
+
+    private static final class Location {
+        private final int offset;
+        private final int keyLength;
+        private final int valueLength;
+
+        Location(int offset, int keyLength, int valueLength) {
+            this.offset = offset;
+            this.keyLength = keyLength;
+            this.valueLength = valueLength;
+        }
+
+        int length() {
+            return HEADER + keyLength + valueLength;
+        }
+    }
+
+    private final Path file;
+    // Zapis i kompaktacja zmieniają bufor i indeks - odczyty działają równolegle
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Location> index = new HashMap<>();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int writePosition;
+    private long liveBytes;
+
+    private LogStructuredStore(Path file) {
+        this.file = file;
+    }
+
+    static LogStructuredStore open(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Files.deleteIfExists(compactionFile(file)); // Przerwana kompaktacja - stary plik jest kompletny
+
+        LogStructuredStore store = new LogStructuredStore(file);
+        store.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        store.buffer = store.map(Math.max(store.channel.size(), INITIAL_CAPACITY));
+        store.recover();
+        return store;
+    }
+
+    public byte[] read(String key) {
+        lock.readLock().lock();
+        try {
+            Location location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            byte[] value = new byte[location.valueLength];
+            buffer.get(location.offset + HEADER + location.keyLength, value);
+            return value;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String key) {
+        lock.readLock().lock();
+        try {
+            return index.containsKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public TreeSet<String> keys() {
+        lock.readLock().lock();
+        try {
+            return new TreeSet<>(index.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void write(String key, byte[] value) throws IOException {
+        lock.writeLock().lock();
+        try {
+            int offset = append(key, value);
+            buffer.force(offset, writePosition - offset);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Wiele dokumentów jednym wymuszeniem zapisu (np. import katalogów)
+     */
+    public void writeAll(Map<String, byte[]> documents) throws IOException {
+        lock.writeLock().lock();
+        try {
+            int start = writePosition;
+            for (Map.Entry<String, byte[]> document : documents.entrySet()) {
+                append(document.getKey(), document.getValue());
+            }
+            buffer.force(start, writePosition - start);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean delete(String key) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!index.containsKey(key)) {
+                return false;
+            }
+            int offset = append(key, null);
+            buffer.force(offset, writePosition - offset);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Bajty zajęte przez przesłonięte rekordy i znaczniki usunięcia
+     */
+    public long garbageBytes() {
+        lock.readLock().lock();
+        try {
+            return writePosition - liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long liveBytes() {
+        lock.readLock().lock();
+        try {
+            return liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Przepisz żywe rekordy do nowego pliku i podmień go atomowo. Rekordy są kopiowane
+     * bez zmian (suma kontrolna nie zależy od położenia). Zapisy czekają na koniec kompaktacji.
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            Path temp = compactionFile(file);
+            Map<String, Location> compacted = new HashMap<>(index.size() * 2);
+            int position = 0;
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                for (Map.Entry<String, Location> entry : index.entrySet()) {
+                    Location location = entry.getValue();
+                    ByteBuffer record = buffer.slice(location.offset, location.length());
+                    while (record.hasRemaining()) {
+                        out.write(record);
+                    }
+                    compacted.put(entry.getKey(), new Location(position, location.keyLength, location.valueLength));
+                    position += location.length();
+                }
+                out.force(true);
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                // Np. Windows nie podmieni pliku, który jest zmapowany - zostaje stary log
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+
+            channel.close();
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = map(Math.max(position + (long) INITIAL_CAPACITY, INITIAL_CAPACITY));
+            index.clear();
+            index.putAll(compacted);
+            writePosition = position;
+            liveBytes = position;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            buffer.force();
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int append(String key, byte[] value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length == 0 || keyBytes.length > MAX_KEY_LENGTH) {
+            throw new IOException("Nieprawidłowy klucz dokumentu: " + key);
+        }
+        int valueLength = value != null ? value.length : TOMBSTONE;
+        long length = (long) HEADER + keyBytes.length + Math.max(valueLength, 0);
+        ensureCapacity(length);
+
+        int offset = writePosition;
+        buffer.putInt(offset + 8, keyBytes.length);
+        buffer.putInt(offset + 12, valueLength);
+        buffer.put(offset + HEADER, keyBytes);
+        if (value != null) {
+            buffer.put(offset + HEADER + keyBytes.length, value);
+        }
+        buffer.putInt(offset + 4, checksum(offset, (int) length));
+        buffer.putInt(offset, MAGIC);
+        writePosition = offset + (int) length;
+
+        Location previous = value != null
+            ? index.put(key, new Location(offset, keyBytes.length, valueLength))
+            : index.remove(key);
+        if (previous != null) {
+            liveBytes -= previous.length();
+        }
+        if (value != null) {
+            liveBytes += length;
+        }
+        return offset;
+    }
+
+    private void ensureCapacity(long length) throws IOException {
+        long required = writePosition + length;
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        if (required > Integer.MAX_VALUE) {
+            throw new IOException("Magazyn " + file.getFileName() + " przekroczyłby 2 GB - uruchom kompaktację");
+        }
+        long capacity = Math.min(Integer.MAX_VALUE, Math.max(required, buffer.capacity() * 2L));
+        buffer = map(capacity);
+        channel.force(true); // Nowy rozmiar pliku musi przetrwać awarię razem z rekordami
+    }
+
+    private MappedByteBuffer map(long capacity) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    // Odtwórz indeks z logu - kolejne rekordy aż do pustego miejsca albo uszkodzonego rekordu
+    private void recover() {
+        int capacity = buffer.capacity();
+        int position = 0;
+        boolean torn = false;
+        while (position + HEADER <= capacity) {
+            int magic = buffer.getInt(position);
+            if (magic != MAGIC) {
+                torn = magic != 0;
+                break;
+            }
+            int keyLength = buffer.getInt(position + 8);
+            int valueLength = buffer.getInt(position + 12);
+            long length = (long) HEADER + keyLength + Math.max(valueLength, 0);
+            if (keyLength <= 0 || keyLength > MAX_KEY_LENGTH || valueLength < TOMBSTONE
+                || position + length > capacity
+                || buffer.getInt(position + 4) != checksum(position, (int) length)) {
+                torn = true;
+                break;
+            }
+
+            byte[] keyBytes = new byte[keyLength];
+            buffer.get(position + HEADER, keyBytes);
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            Location previous = valueLength != TOMBSTONE
+                ? index.put(key, new Location(position, keyLength, valueLength))
+                : index.remove(key);
+            if (previous != null) {
+                liveBytes -= previous.length();
+            }
+            if (valueLength != TOMBSTONE) {
+                liveBytes += length;
+            }
+            position += (int) length;
+        }
+        writePosition = position;
+
+        if (torn) {
+            // Resztki urwanego zapisu nie mogą wrócić jako rekordy po kolejnych dopisaniach
+            for (int i = position; i < capacity; i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+            System.err.println("⚠️ Magazyn " + file.getFileName() + ": urwany rekord na pozycji " + position + " - pominięty");
+        }
+    }
+
+    private int checksum(int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + 8, length - 8));
+        return (int) crc.getValue();
+    }
+
+    private static Path compactionFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".compact");
+    }
+}
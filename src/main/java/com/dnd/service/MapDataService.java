@@ -1,132 +1,214 @@
 package com.dnd.service;
 
+import com.dnd.model.MapDocument;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.nio.file.*;
 import java.io.IOException;
-import java.util.List;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * Pliki data/<mapa>_data.json. Każda mapa ma własną blokadę odczyt/zapis:
+ * odczyty tej samej mapy działają równolegle, zapis wyklucza tylko odczyty i zapisy
+ * tej mapy - wolny zapis jednej mapy nie blokuje podglądu graczy na innej.
+ */
 @Service
 public class MapDataService {
 
-    private final ObjectMapper objectMapper;
-    private static final String DATA_DIR = "data";
+    static final String DATA_DIR = "data";
+
+    // Czytnik i zapis przygotowane raz dla typu dokumentu - bez wyszukiwania serializatorów przy każdym wywołaniu
+    private final ObjectReader documentReader;
+    private final ObjectWriter documentWriter;
+
+    private final Path dataDirectory;
+    private final Map<String, ReentrantReadWriteLock> locks = new ConcurrentHashMap<>();
+
+    private final PersistenceQueue persistenceQueue;
+    private final DocumentStorage storage;
+    private final DocumentCache documentCache;
+
+    @Autowired
+    public MapDataService(PersistenceQueue persistenceQueue, DocumentStorage storage, DocumentCache documentCache) {
+        this(Paths.get(DATA_DIR), persistenceQueue, storage, documentCache);
+    }
+
+    MapDataService(Path dataDirectory, PersistenceQueue persistenceQueue, DocumentStorage storage,
+                   DocumentCache documentCache) {
+        ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.documentReader = objectMapper.readerFor(MapDocument.class);
+        this.documentWriter = objectMapper.writerFor(MapDocument.class);
+        this.dataDirectory = dataDirectory;
+        this.persistenceQueue = persistenceQueue;
+        this.storage = storage;
+        this.documentCache = documentCache;
+    }
 
-    public MapDataService() {
-        this.objectMapper = new ObjectMapper();
+    // Blokady nie są usuwane - jedna na nazwę mapy, map jest niewiele
+    ReentrantReadWriteLock lockFor(String mapName) {
+        return locks.computeIfAbsent(mapName, name -> new ReentrantReadWriteLock());
     }
 
     /**
-     * Zapisz wszystkie dane mapy do pliku JSON - PROSTY ZAPIS Z RETRY
+     * Odczyt-modyfikacja-zapis pod blokadą zapisu mapy - inny zapis tej mapy
+     * nie może wejść pomiędzy odczyt a zapis (np. zapis mgły i ustawień z klienta).
+     * Updater dostaje własną kopię aktualnych danych (null, gdy pliku nie ma) i zwraca dane do zapisu -
+     * po zapisie ich kopia zastępuje wpis w cache.
+     * Zapis jest synchroniczny i trwały - FogStore usuwa dziennik mgły dopiero po nim.
      */
-    public synchronized void saveMapData(String mapName, Map<String, Object> mapData) throws IOException {
-        System.out.println("🔒 SYNCHRONIZED saveMapData START dla: " + mapName);
-        Path dataDir = Paths.get(DATA_DIR);
-        if (!Files.exists(dataDir)) {
-            Files.createDirectories(dataDir);
+    public void updateMapData(String mapName, UnaryOperator<MapDocument> updater) throws IOException {
+        Lock lock = lockFor(mapName).writeLock();
+        lock.lock();
+        boolean cached = false;
+        try {
+            MapDocument mapData = updater.apply(getMapData(mapName));
+            if (hasFog(mapName, mapData)) {
+                mapData.setCharacters(null); // Pionki zapisuje CharacterService
+                byte[] jsonData = serialize(mapData);
+                persistenceQueue.writeNow(dataFile(mapName), jsonData, data -> data);
+                documentCache.replace(dataFile(mapName), mapData, jsonData.length);
+                cached = true;
+                System.out.println("💾 Zapis zakończony dla: " + mapName + " (" + jsonData.length + " bajtów)");
+            }
+        } finally {
+            if (!cached) {
+                // Nieudany zapis - nie wiadomo, która wersja jest w pliku
+                documentCache.invalidate(dataFile(mapName));
+            }
+            lock.unlock();
         }
+    }
 
-        Path filePath = dataDir.resolve(mapName + "_data.json");
-        String jsonData = objectMapper.writeValueAsString(mapData);
-
-        // DIAGNOSTYKA - sprawdź co jest zapisywane
-        if (mapData.containsKey("fog")) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> fogSection = (Map<String, Object>) mapData.get("fog");
-            if (fogSection != null) {
-                @SuppressWarnings("unchecked")
-                List<Map<String, Object>> areas = (List<Map<String, Object>>) fogSection.get("revealedAreas");
-
-                // Sprawdź czy JSON zawiera mgłę
-                if (jsonData.contains("\"fog\"") && jsonData.contains("revealedAreas")) {
-                } else {
-                }
-            } else {
+    /**
+     * Zapisz dane mapy z klienta - w tle, przez kolejkę zapisu (kolejne zapisy tej mapy
+     * przed zapisem na dysk zastępują poprzedni). Mgłę zapisuje FogStore (migawka + dziennik),
+     * kopia mgły z klienta może być starsza, więc sekcja fog z pliku ma pierwszeństwo.
+     */
+    public void saveMapData(String mapName, MapDocument mapData) throws IOException {
+        Lock lock = lockFor(mapName).writeLock();
+        lock.lock();
+        try {
+            MapDocument existing = getMapData(mapName);
+            if (existing != null && existing.getFog() != null) {
+                mapData.setFog(existing.getFog());
             }
-        } else {
-            return;
+            // Pionki mają własny plik (CharacterService) - kopia w pliku danych szybko by się zestarzała
+            mapData.setCharacters(null);
+            if (hasFog(mapName, mapData)) {
+                persistenceQueue.submit(dataFile(mapName), mapData, this::serialize);
+                documentCache.invalidate(dataFile(mapName));
+            }
+        } finally {
+            lock.unlock();
         }
+    }
 
-        // PROSTY ZAPIS Z RETRY - unikaj skomplikowanych operacji atomic
-        IOException lastException = null;
-        boolean writeSuccessful = false;
-
-        for (int attempt = 1; attempt <= 3; attempt++) {
-            try {
-                // Bezpośredni zapis do pliku
-                Files.write(filePath, jsonData.getBytes(),
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING,
-                    StandardOpenOption.WRITE);
-
-                // Weryfikuj że plik został zapisany poprawnie
-                if (Files.exists(filePath) && Files.size(filePath) > 0) {
-                    writeSuccessful = true;
-                    System.out.println("💾 Zapis zakończony dla: " + mapName + " (" + jsonData.length() + " bajtów)");
-
-                    // WERYFIKACJA: Sprawdź co faktycznie zostało zapisane
-                    try {
-                        String writtenData = Files.readString(filePath);
-                        if (writtenData.contains("\"fog\"") && writtenData.contains("revealedAreas")) {
-                            System.out.println("✅ WERYFIKACJA: Plik zawiera sekcję fog");
-                        } else {
-                            System.out.println("❌ WERYFIKACJA: Plik NIE zawiera sekcji fog!");
-                            System.out.println("   Zapisane dane (pierwsze 200 znaków): " + writtenData.substring(0, Math.min(200, writtenData.length())));
-                        }
-                    } catch (Exception verifyEx) {
-                        System.err.println("❌ Błąd weryfikacji zapisu: " + verifyEx.getMessage());
-                    }
+    // Dokument bez mgły nie nadpisuje pliku - mgła zawsze jest w pliku danych mapy
+    private static boolean hasFog(String mapName, MapDocument mapData) {
+        if (mapData == null || mapData.getFog() == null) {
+            System.out.println("❌ saveMapData pominięty - brak sekcji fog dla: " + mapName);
+            return false;
+        }
+        return true;
+    }
 
-                    break;
-                } else {
-                    throw new IOException("Plik został utworzony ale jest pusty");
-                }
+    private byte[] serialize(MapDocument mapData) throws IOException {
+        return documentWriter.writeValueAsBytes(mapData);
+    }
 
-            } catch (IOException writeEx) {
-                lastException = writeEx;
-                System.err.println("⚠️ Próba " + attempt + " zapisu nie powiodła się: " + writeEx.getMessage());
+    Path dataFile(String mapName) {
+        return dataDirectory.resolve(mapName + "_data.json");
+    }
 
-                if (attempt < 3) {
-                    try {
-                        // Wymuś garbage collection przed retry
-                        System.gc();
-                        Thread.sleep(100 * attempt); // Zwiększaj delay: 100ms, 200ms, 300ms
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                }
+    /**
+     * Załaduj wszystkie dane mapy z pliku JSON - z retry przy błędach blokady.
+     * Wynik jest własną kopią wywołującego (cache i kolejka zapisu zwracają kopie).
+     */
+    public MapDocument getMapData(String mapName) throws IOException {
+        ReentrantReadWriteLock lock = lockFor(mapName);
+        lock.readLock().lock();
+        try {
+            MapDocument cached = documentCache.getIfPresent(dataFile(mapName), MapDocument.class);
+            if (cached != null) {
+                return cached;
+            }
+            // Dokument czekający w kolejce zapisu jest nowszy niż plik
+            MapDocument pending = persistenceQueue.pending(dataFile(mapName), documentReader::readValue);
+            if (pending != null) {
+                return pending;
+            }
+            MapDocument mapData = readMapData(mapName, false);
+            if (mapData != CORRUPTED) {
+                return mapData;
             }
+        } finally {
+            lock.readLock().unlock();
         }
 
-        if (!writeSuccessful) {
-            throw new IOException("Nie udało się zapisać pliku po 3 próbach. Ostatni błąd: " +
-                (lastException != null ? lastException.getMessage() : "nieznany"));
+        // Uszkodzony plik - usunięcie/backup wymaga blokady zapisu (odczyt nie może jej podnieść),
+        // więc plik jest czytany ponownie: w międzyczasie mógł zostać poprawnie zapisany
+        lock.writeLock().lock();
+        try {
+            return readMapData(mapName, true);
+        } finally {
+            lock.writeLock().unlock();
         }
-
-        System.out.println("🔓 SYNCHRONIZED saveMapData END dla: " + mapName);
     }
 
     /**
-     * Załaduj wszystkie dane mapy z pliku JSON - z retry przy błędach blokady
+     * Tylko sekcja mgły, czytana strumieniowo - bez wczytywania całego pliku do Map.
+     * Zawsze z pliku: mgła jest zapisywana synchronicznie (updateMapData), kolejka jej nie zmienia.
+     * Null, gdy plik nie istnieje lub nie ma mgły; uszkodzony JSON zgłasza JsonProcessingException.
      */
-    @SuppressWarnings("unchecked")
-    public synchronized Map<String, Object> getMapData(String mapName) throws IOException {
-        Path filePath = Paths.get(DATA_DIR, mapName + "_data.json");
+    public FogSectionReader.FogSection readFogSection(String mapName) throws IOException {
+        Path filePath = dataDirectory.resolve(mapName + "_data.json");
+        Lock lock = lockFor(mapName).readLock();
+        lock.lock();
+        try {
+            InputStream in = storage.open(filePath);
+            if (in == null) {
+                return null;
+            }
+            try (in) {
+                return FogSectionReader.read(in);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Znacznik "plik uszkodzony" z odczytu pod blokadą odczytu
+    private static final MapDocument CORRUPTED = new MapDocument();
 
-        if (!Files.exists(filePath)) {
+    private MapDocument readMapData(String mapName, boolean repair) throws IOException {
+        Path filePath = dataDirectory.resolve(mapName + "_data.json");
+
+        if (!storage.exists(filePath)) {
             return null;
         }
 
         // Retry mechanism dla odczytu (może być zablokowany przez zapis)
-        String jsonData = null;
+        byte[] raw = null;
         Exception lastException = null;
 
         for (int retry = 0; retry < 3; retry++) {
             try {
-                jsonData = Files.readString(filePath);
+                raw = storage.readRaw(filePath);
+                if (raw == null) {
+                    return null; // Usunięty w międzyczasie
+                }
                 break; // Sukces - wyjdź z pętli
 
             } catch (IOException readEx) {
@@ -143,65 +225,53 @@ public class MapDataService {
             }
         }
 
-        if (jsonData == null) {
+        if (raw == null) {
             throw new IOException("Nie udało się odczytać pliku po 3 próbach: " +
                 (lastException != null ? lastException.getMessage() : "unknown error"));
         }
 
+        String jsonData;
+        try {
+            jsonData = new String(DocumentStorage.decode(raw), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            // Urwany plik gzip - traktowany jak błąd parsowania (backup poniżej)
+            jsonData = "<uszkodzony gzip: " + e.getMessage() + ">";
+        }
+
         // Sprawdź czy plik nie jest pusty lub zawiera tylko białe znaki
         if (jsonData.trim().isEmpty()) {
+            if (!repair) {
+                return CORRUPTED;
+            }
             System.err.println("Plik danych mapy " + mapName + " jest pusty. Usuwam uszkodzony plik.");
-            Files.delete(filePath);
+            storage.delete(filePath);
             return null;
         }
 
         try {
-            Map<String, Object> mapData = objectMapper.readValue(jsonData, Map.class);
-
-            // DIAGNOSTYKA - sprawdź co zostało odczytane
-            if (mapData.containsKey("fog")) {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> fogSection = (Map<String, Object>) mapData.get("fog");
-                if (fogSection != null) {
-                    @SuppressWarnings("unchecked")
-                    List<Map<String, Object>> areas = (List<Map<String, Object>>) fogSection.get("revealedAreas");
-
-                    // Sprawdź surowy JSON
-                    if (jsonData.contains("\"fog\"") && jsonData.contains("revealedAreas")) {
-                        // Znajdź i pokaż sekcję fog w JSON
-                        int fogStart = jsonData.indexOf("\"fog\"");
-                        if (fogStart >= 0) {
-                            int fogEnd = jsonData.indexOf("}", fogStart) + 1;
-                            String fogJson = jsonData.substring(fogStart, Math.min(fogEnd + 100, jsonData.length()));
-                            System.out.println("   Sekcja fog: " + fogJson);
-                        }
-                    } else {
-                        System.out.println("❌ Surowy JSON NIE zawiera sekcji fog!");
-                    }
-                } else {
-                    System.out.println("❌ ODCZYTANO - sekcja fog jest null mimo że klucz istnieje!");
-                }
-            } else {
-                System.out.println("❌ ODCZYTANO - brak klucza 'fog' w mapData!");
-                System.out.println("   Klucze w odczytanym mapData: " + mapData.keySet());
-                System.out.println("   Rozmiar pliku: " + jsonData.length() + " znaków");
+            long generation = documentCache.generation(filePath);
+            MapDocument mapData = documentReader.readValue(jsonData);
+            documentCache.put(filePath, generation, mapData, jsonData.length());
 
-                // Sprawdź czy JSON zawiera fog mimo że nie został sparsowany
-                if (jsonData.contains("\"fog\"")) {
-                    System.out.println("⚠️ JSON zawiera 'fog' ale nie został sparsowany do mapData!");
-                }
+            // DIAGNOSTYKA - plik bez sekcji mgły
+            if (mapData.getFog() == null) {
+                System.out.println("❌ ODCZYTANO - brak sekcji fog w danych mapy " + mapName);
+                System.out.println("   Rozmiar pliku: " + jsonData.length() + " znaków");
             }
 
             return mapData;
         } catch (Exception e) {
+            if (!repair) {
+                return CORRUPTED;
+            }
             System.err.println("Błąd parsowania pliku danych mapy " + mapName + ": " + e.getMessage());
-            System.err.println("Rozmiar pliku: " + Files.size(filePath) + " bajtów");
+            System.err.println("Rozmiar pliku: " + jsonData.length() + " znaków");
             System.err.println("Zawartość pliku: " + jsonData.substring(0, Math.min(100, jsonData.length())));
 
             // Utwórz backup uszkodzonego pliku
-            Path backupPath = Paths.get(DATA_DIR, mapName + "_data_backup_" + System.currentTimeMillis() + ".json");
+            Path backupPath = dataDirectory.resolve(mapName + "_data_backup_" + System.currentTimeMillis() + ".json");
             try {
-                Files.move(filePath, backupPath);
+                storage.move(filePath, backupPath);
                 System.err.println("Uszkodzony plik został przeniesiony do: " + backupPath.getFileName());
             } catch (IOException backupEx) {
                 System.err.println("Nie udało się utworzyć backup: " + backupEx.getMessage());
@@ -216,13 +286,23 @@ public class MapDataService {
      * Usuń plik danych mapy
      */
     public boolean deleteMapData(String mapName) throws IOException {
-        Path filePath = Paths.get(DATA_DIR, mapName + "_data.json");
+        Path filePath = dataDirectory.resolve(mapName + "_data.json");
 
-        if (Files.exists(filePath)) {
-            Files.delete(filePath);
-            return true;
+        Lock lock = lockFor(mapName).writeLock();
+        lock.lock();
+        try {
+            boolean deleted = persistenceQueue.delete(filePath);
+            documentCache.invalidate(filePath);
+            return deleted;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return false;
+    /**
+     * Katalog plików danych map
+     */
+    public Path getDataDirectory() {
+        return dataDirectory;
     }
 }
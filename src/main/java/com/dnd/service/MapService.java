@@ -7,15 +7,20 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -23,11 +28,18 @@ import java.util.stream.Collectors;
 public class MapService {
 
     private final MapConfiguration mapConfiguration;
+    private final PersistenceQueue persistenceQueue;
+    private final DocumentCache documentCache;
+    private final CharacterService characterService;
     private static final List<String> SUPPORTED_FORMATS = Arrays.asList(".jpg", ".jpeg", ".png", ".gif");
 
     @Autowired
-    public MapService(MapConfiguration mapConfiguration) {
+    public MapService(MapConfiguration mapConfiguration, PersistenceQueue persistenceQueue,
+                      DocumentCache documentCache, CharacterService characterService) {
         this.mapConfiguration = mapConfiguration;
+        this.persistenceQueue = persistenceQueue;
+        this.documentCache = documentCache;
+        this.characterService = characterService;
         createDirectoriesIfNotExist();
     }
 
@@ -38,6 +50,7 @@ public class MapService {
 
             Files.createDirectories(mapsDir);
             Files.createDirectories(fogStatesDir);
+            AtomicFiles.cleanTemporaryFiles(mapsDir);
         } catch (IOException e) {
             throw new RuntimeException("Nie można utworzyć katalogów", e);
         }
@@ -73,6 +86,32 @@ public class MapService {
         return maps;
     }
 
+    /**
+     * Pliki obrazów map (bez dekodowania obrazów)
+     */
+    public List<Path> getMapImages() throws IOException {
+        List<Path> images = new ArrayList<>();
+        Path mapsDirectory = Paths.get(mapConfiguration.getMaps().getDirectory());
+        if (!Files.isDirectory(mapsDirectory)) {
+            return images;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(mapsDirectory, this::isMapImage)) {
+            for (Path file : stream) {
+                images.add(file);
+            }
+        }
+        return images;
+    }
+
+    public boolean isMapImage(Path file) {
+        return Files.isRegularFile(file) && isSupportedFormat(file.getFileName().toString());
+    }
+
+    public boolean isSupportedFormat(String filename) {
+        String lowerName = filename.toLowerCase();
+        return SUPPORTED_FORMATS.stream().anyMatch(lowerName::endsWith);
+    }
+
     public MapInfo getMapByName(String mapName) {
         return getAllMaps().stream()
                 .filter(map -> map.getName().equals(mapName))
@@ -80,6 +119,34 @@ public class MapService {
                 .orElse(null);
     }
 
+    /**
+     * Wymiary obrazu mapy odczytane z nagłówka pliku - bez dekodowania całego obrazu
+     */
+    public Dimension getMapDimensions(String mapName) {
+        for (String extension : SUPPORTED_FORMATS) {
+            File file = new File(mapConfiguration.getMaps().getDirectory(), mapName + extension);
+            if (!file.exists()) {
+                continue;
+            }
+
+            try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+                if (readers.hasNext()) {
+                    ImageReader reader = readers.next();
+                    try {
+                        reader.setInput(input);
+                        return new Dimension(reader.getWidth(0), reader.getHeight(0));
+                    } finally {
+                        reader.dispose();
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Błąd odczytu wymiarów mapy: " + file.getName());
+            }
+        }
+        return null;
+    }
+
     public boolean mapExists(String mapName) {
         return getMapByName(mapName) != null;
     }
@@ -107,10 +174,17 @@ public class MapService {
                     String.join(", ", SUPPORTED_FORMATS));
         }
 
-        // Zapisz plik
+        // Zapisz plik - najpierw obok, pod docelową nazwą dopiero kompletny (backup nie zobaczy połowy obrazu)
         String filename = mapName + extension;
         Path targetPath = Paths.get(mapConfiguration.getMaps().getDirectory(), filename);
-        Files.copy(file.getInputStream(), targetPath, StandardCopyOption.REPLACE_EXISTING);
+        Path temp;
+        try (InputStream in = file.getInputStream()) {
+            temp = AtomicFiles.writeTemporary(targetPath, in);
+        }
+        persistenceQueue.withBarrier(List.of(targetPath), () -> {
+            AtomicFiles.commit(temp, targetPath);
+            return null;
+        });
     }
 
     public boolean deleteMap(String mapName) throws IOException {
@@ -121,24 +195,25 @@ public class MapService {
 
         // Usuń plik mapy
         Path mapPath = Paths.get(mapConfiguration.getMaps().getDirectory(), map.getFilename());
-        Files.deleteIfExists(mapPath);
+        persistenceQueue.withBarrier(List.of(mapPath), () -> Files.deleteIfExists(mapPath));
 
         // Usuń powiązane pliki (fog state, grid config, characters, settings)
         String fogStateFilename = mapName + ".json";
         Path fogStatePath = Paths.get(mapConfiguration.getFogStates().getDirectory(), fogStateFilename);
-        Files.deleteIfExists(fogStatePath);
+        persistenceQueue.delete(fogStatePath);
 
         // Usuń grid config
         Path gridConfigPath = Paths.get(mapConfiguration.getGridConfigs().getDirectory(), mapName + "_grid.json");
-        Files.deleteIfExists(gridConfigPath);
+        persistenceQueue.delete(gridConfigPath); // Razem z oczekującym zapisem - kolejka nie odtworzy pliku
+        documentCache.invalidate(gridConfigPath);
 
-        // Usuń characters
-        Path charactersPath = Paths.get(mapConfiguration.getCharacters().getDirectory(), mapName + "_characters.json");
-        Files.deleteIfExists(charactersPath);
+        // Usuń characters - razem z pionkami w pamięci, niezapisany ruch nie odtworzy pliku
+        characterService.deleteCharacters(mapName);
 
         // Usuń settings
         Path settingsPath = Paths.get(mapConfiguration.getSettings().getDirectory(), mapName + "_settings.json");
-        Files.deleteIfExists(settingsPath);
+        persistenceQueue.delete(settingsPath);
+        documentCache.invalidate(settingsPath);
 
         return true;
     }
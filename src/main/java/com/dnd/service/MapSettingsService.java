@@ -3,6 +3,7 @@ package com.dnd.service;
 import com.dnd.config.MapConfiguration;
 import com.dnd.model.MapSettings;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -11,17 +12,25 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.function.Consumer;
 
 @Service
 public class MapSettingsService {
 
     private final MapConfiguration mapConfiguration;
     private final ObjectMapper objectMapper;
+    private final ObjectWriter settingsWriter;
+    private final PersistenceQueue persistenceQueue;
+    private final DocumentCache documentCache;
 
     @Autowired
-    public MapSettingsService(MapConfiguration mapConfiguration, ObjectMapper objectMapper) {
+    public MapSettingsService(MapConfiguration mapConfiguration, ObjectMapper objectMapper,
+                              PersistenceQueue persistenceQueue, DocumentCache documentCache) {
         this.mapConfiguration = mapConfiguration;
         this.objectMapper = objectMapper;
+        this.settingsWriter = objectMapper.writerWithDefaultPrettyPrinter();
+        this.persistenceQueue = persistenceQueue;
+        this.documentCache = documentCache;
     }
 
     public void saveMapSettings(String mapName, MapSettings settings) throws IOException {
@@ -32,11 +41,22 @@ public class MapSettingsService {
             Files.createDirectories(settingsDirPath);
         }
 
-        // Zapisz ustawienia do pliku
+        // Zapisz ustawienia do pliku (w tle, przez kolejkę zapisu)
         String fileName = mapName + "_settings.json";
         File file = new File(settingsDir, fileName);
 
-        objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, settings);
+        persistenceQueue.submit(file.toPath(), settings, settingsWriter::writeValueAsBytes);
+        documentCache.invalidate(file.toPath());
+    }
+
+    /**
+     * Zmień część ustawień - loadMapSettings zwraca kopię, więc cache nie jest modyfikowany w miejscu
+     */
+    public void updateMapSettings(String mapName, Consumer<MapSettings> update) throws IOException {
+        MapSettings current = loadMapSettings(mapName);
+        MapSettings settings = current != null ? current : new MapSettings();
+        update.accept(settings);
+        saveMapSettings(mapName, settings);
     }
 
     public MapSettings loadMapSettings(String mapName) {
@@ -45,11 +65,9 @@ public class MapSettingsService {
             String fileName = mapName + "_settings.json";
             File file = new File(settingsDir, fileName);
 
-            if (!file.exists()) {
-                return null;
-            }
-
-            return objectMapper.readValue(file, MapSettings.class);
+            // Podgląd i kafelki mgły czytają ustawienia przy każdym odświeżeniu - przez cache
+            return documentCache.get(file.toPath(), MapSettings.class,
+                data -> objectMapper.readValue(data, MapSettings.class));
 
         } catch (IOException e) {
             System.err.println("Błąd wczytywania ustawień mapy " + mapName + ": " + e.getMessage());
@@ -62,15 +80,9 @@ public class MapSettingsService {
             String settingsDir = mapConfiguration.getSettings().getDirectory();
             String fileName = mapName + "_settings.json";
             File file = new File(settingsDir, fileName);
-
-            if (file.exists()) {
-                boolean deleted = file.delete();
-                if (file.exists() && file.delete()) {
-                    // Usunięto log
-                }
-                return deleted;
-            }
-            return false;
+            boolean deleted = persistenceQueue.delete(file.toPath());
+            documentCache.invalidate(file.toPath());
+            return deleted;
         } catch (Exception e) {
             System.err.println("Błąd usuwania ustawień mapy " + mapName + ": " + e.getMessage());
             return false;
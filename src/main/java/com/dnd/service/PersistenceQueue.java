@@ -0,0 +1,345 @@
+package com.dnd.service;
+
+import com.dnd.config.MapConfiguration;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wspólna asynchroniczna kolejka zapisu plików JSON map (postacie, siatka, ustawienia, dane mapy).
+ * Dla każdego pliku trzymany jest tylko najnowszy oczekujący dokument - seria zmian
+ * (np. 50 przesunięć pionka) kończy się jednym zapisem najpóźniej po writeDelayMs.
+ * Zapis odbywa się w wątku "persistence-writer" przez DocumentStorage; żądanie HTTP nie czeka na dysk.
+ *
+ * Dokument jest serializowany już w submit() - kolejka trzyma bajty, więc wywołujący może dalej
+ * zmieniać swój obiekt, a wątek zapisu nigdy nie serializuje obiektu zmienianego przez inny wątek.
+ * Odczyty muszą najpierw sprawdzić pending() - dokument w kolejce jest nowszy niż plik
+ * (każde wywołanie dekoduje własną kopię z bajtów).
+ * Nieudany zapis zostaje w kolejce i jest ponawiany z rosnącym odstępem (do MAX_BACKOFF_MS) -
+ * odczyty nadal widzą dokument z kolejki, a liczba błędów jest widoczna w getStats() (GET /api/storage/queue).
+ * Przy zamknięciu aplikacji kolejka jest opróżniana, a późniejsze zapisy idą od razu na dysk.
+ */
+@Service
+public class PersistenceQueue {
+
+    @FunctionalInterface
+    public interface Serializer<T> {
+        byte[] serialize(T document) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Deserializer<T> {
+        T deserialize(byte[] data) throws IOException;
+    }
+
+    private static final int WARN_ATTEMPTS = 3; // po tylu nieudanych próbach błąd jest zgłaszany jako trwały
+    private static final long MAX_BACKOFF_MS = 60_000;
+
+    private final long writeDelayMs;
+    private final DocumentStorage storage;
+    private final ScheduledExecutorService executor;
+    private final Map<Path, Pending> pending = new ConcurrentHashMap<>();
+    // Zapisy jednego pliku są serializowane - starszy dokument nie nadpisze nowszego
+    private final Map<Path, ReentrantLock> locks = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+
+    private static final class Pending {
+        private volatile byte[] data;
+        private long sequence;
+        private boolean scheduled;
+        private volatile int failures;
+        private volatile String lastError;
+    }
+
+    @Autowired
+    public PersistenceQueue(MapConfiguration mapConfiguration, DocumentStorage storage) {
+        this(mapConfiguration.getStorage().getWriteDelayMs(), storage);
+    }
+
+    PersistenceQueue(long writeDelayMs) {
+        this(writeDelayMs, new DocumentStorage());
+    }
+
+    private PersistenceQueue(long writeDelayMs, DocumentStorage storage) {
+        this.writeDelayMs = Math.max(0, writeDelayMs);
+        this.storage = storage;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "persistence-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Zakolejkuj dokument do zapisu - zastępuje wcześniejszy, jeszcze niezapisany dokument tego pliku.
+     * Serializacja odbywa się w wątku wywołującego (pod jego blokadą) - błąd serializacji trafia do niego.
+     */
+    public <T> void submit(Path target, T document, Serializer<? super T> serializer) throws IOException {
+        Path key = key(target);
+        byte[] data = serializer.serialize(document);
+        if (closed) {
+            writeBytes(key, data);
+            return;
+        }
+
+        boolean[] schedule = new boolean[1];
+        pending.compute(key, (path, entry) -> {
+            if (entry == null) {
+                entry = new Pending();
+            }
+            entry.data = data;
+            entry.sequence++;
+            if (!entry.scheduled) {
+                entry.scheduled = true;
+                schedule[0] = true;
+            }
+            return entry;
+        });
+        if (schedule[0]) {
+            executor.schedule(() -> flush(key), writeDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Zapisz od razu (np. migawka mgły, po której usuwany jest dziennik). Dokument zastępuje
+     * oczekujący - wywołujący musi go zbudować z pending() pod blokadą swojego magazynu.
+     */
+    public <T> void writeNow(Path target, T document, Serializer<? super T> serializer) throws IOException {
+        writeBytes(key(target), serializer.serialize(document));
+    }
+
+    private void writeBytes(Path key, byte[] data) throws IOException {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            storage.write(key, data);
+            pending.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Zapisz gotowe bajty (np. dokument z backupu) - zastępuje oczekujący dokument
+     */
+    public void writeRaw(Path target, byte[] data) throws IOException {
+        Path key = key(target);
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            storage.writeRaw(key, data);
+            pending.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Oczekujący (nowszy niż plik) dokument albo null - nowa kopia zdekodowana z zakolejkowanych bajtów
+     */
+    public <T> T pending(Path target, Deserializer<T> deserializer) throws IOException {
+        Pending entry = pending.get(key(target));
+        byte[] data = entry != null ? entry.data : null;
+        return data != null ? deserializer.deserialize(data) : null;
+    }
+
+    /**
+     * Usuń dokument razem z oczekującym zapisem - po powrocie kolejka nie odtworzy pliku
+     */
+    public boolean delete(Path target) throws IOException {
+        Path key = key(target);
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            pending.remove(key);
+            return storage.delete(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @FunctionalInterface
+    public interface LockedAction<R> {
+        R run() throws IOException;
+    }
+
+    /**
+     * Wykonaj akcję pod blokadą pliku (żaden zapis ani usunięcie nie wejdzie w trakcie),
+     * o ile nie czeka na niego nowszy dokument - wtedy null
+     */
+    public <R> R whenIdle(Path target, LockedAction<R> action) throws IOException {
+        Path key = key(target);
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            return pending.containsKey(key) ? null : action.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bariera zapisu kilku plików (np. wszystkich plików mapy): zapisuje ich oczekujące dokumenty
+     * i wykonuje akcję pod blokadami wszystkich - akcja widzi spójny stan z jednej chwili.
+     * Blokady są brane w stałej kolejności ścieżek, więc dwie bariery się nie zakleszczą.
+     */
+    public <R> R withBarrier(Collection<Path> targets, LockedAction<R> action) throws IOException {
+        List<Path> keys = targets.stream().map(PersistenceQueue::key).distinct().sorted().toList();
+        List<ReentrantLock> held = new ArrayList<>(keys.size());
+        try {
+            for (Path key : keys) {
+                ReentrantLock lock = lockFor(key);
+                lock.lock();
+                held.add(lock);
+            }
+            for (Path key : keys) {
+                flush(key);
+            }
+            return action.run();
+        } finally {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).unlock();
+            }
+        }
+    }
+
+    /**
+     * Zapisz wszystkie oczekujące dokumenty w bieżącym wątku
+     */
+    public void flushAll() {
+        for (Path key : new ArrayList<>(pending.keySet())) {
+            flush(key);
+        }
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    private void flush(Path key) {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            byte[][] data = new byte[1][];
+            long[] sequence = new long[1];
+            pending.computeIfPresent(key, (path, entry) -> {
+                // Zmiana w trakcie zapisu zaplanuje kolejny zapis
+                entry.scheduled = false;
+                data[0] = entry.data;
+                sequence[0] = entry.sequence;
+                return entry;
+            });
+            if (data[0] == null) {
+                return; // Anulowany albo zapisany przez writeNow
+            }
+
+            try {
+                storage.write(key, data[0]);
+                writes.incrementAndGet();
+                // Dokument zostaje widoczny w pending() do końca zapisu - odczyt nie trafi na stary plik
+                pending.computeIfPresent(key, (path, entry) -> {
+                    if (entry.sequence == sequence[0]) {
+                        return null;
+                    }
+                    entry.failures = 0;
+                    entry.lastError = null;
+                    return entry;
+                });
+            } catch (IOException e) {
+                retry(key, e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Dokument nigdy nie jest porzucany - zapis potwierdzony klientowi czeka w kolejce do skutku
+    private void retry(Path key, Exception error) {
+        failedWrites.incrementAndGet();
+        long[] delay = new long[1];
+        pending.computeIfPresent(key, (path, entry) -> {
+            entry.failures++;
+            entry.lastError = error.getMessage();
+            if (entry.failures == WARN_ATTEMPTS) {
+                System.err.println("BŁĄD zapisu pliku " + key.getFileName() + " po " + WARN_ATTEMPTS + " próbach (dokument czeka w kolejce): " + error.getMessage());
+            } else if (entry.failures < WARN_ATTEMPTS) {
+                System.err.println("⚠️ Zapis pliku " + key.getFileName() + " nie powiódł się, ponawiam: " + error.getMessage());
+            }
+            if (!entry.scheduled && !closed) {
+                entry.scheduled = true;
+                delay[0] = Math.min(MAX_BACKOFF_MS, Math.max(writeDelayMs, 100) << Math.min(entry.failures - 1, 10));
+            }
+            return entry;
+        });
+        if (delay[0] > 0) {
+            executor.schedule(() -> flush(key), delay[0], TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stan kolejki: oczekujące dokumenty, zapisy, błędy i pliki, których zapis się nie udaje
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> failing = new TreeMap<>();
+        for (Map.Entry<Path, Pending> item : pending.entrySet()) {
+            Pending entry = item.getValue();
+            int failures = entry.failures;
+            if (failures > 0) {
+                Map<String, Object> failure = new LinkedHashMap<>();
+                failure.put("attempts", failures);
+                failure.put("error", entry.lastError);
+                failing.put(item.getKey().toString(), failure);
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", pending.size());
+        stats.put("writes", writes.get());
+        stats.put("failedWrites", failedWrites.get());
+        stats.put("failing", failing);
+        return stats;
+    }
+
+    private ReentrantLock lockFor(Path key) {
+        return locks.computeIfAbsent(key, path -> new ReentrantLock());
+    }
+
+    private static Path key(Path target) {
+        return target.toAbsolutePath().normalize();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        closed = true;
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int count = pending.size();
+        flushAll();
+        if (count > 0) {
+            System.out.println("💾 Zapisano " + (count - pending.size()) + " z " + count + " oczekujących plików przy zamykaniu");
+        }
+        for (Path key : pending.keySet()) {
+            System.err.println("BŁĄD: plik " + key + " nie został zapisany przy zamykaniu");
+        }
+    }
+}
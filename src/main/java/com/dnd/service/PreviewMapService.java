@@ -1,8 +1,18 @@
 package com.dnd.service;
+import com.dnd.config.MapConfiguration;
+import com.dnd.model.MapSettings;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 @Service
@@ -14,15 +24,41 @@ public class PreviewMapService {
     private final AtomicReference<Map<String, String>> navigationCommand = new AtomicReference<>(new HashMap<>());
     private final AtomicReference<Map<String, Object>> viewport = new AtomicReference<>(new HashMap<>());
 
+    // Najnowszy niezapisany viewport każdej mapy - seria ruchów kamery kończy się jednym zapisem ustawień
+    private final Map<String, Map<String, Object>> pendingViewports = new ConcurrentHashMap<>();
+    private final Object viewportFlushLock = new Object();
+    private final AtomicLong viewportUpdates = new AtomicLong();
+    private final AtomicLong viewportWrites = new AtomicLong();
+    private final AtomicLong viewportCoalesced = new AtomicLong();
+    private ScheduledExecutorService viewportWriter;
+    private long viewportSaveIntervalMs;
+
     @Autowired
     private MapSettingsService mapSettingsService;
 
+    @Autowired
+    private MapConfiguration mapConfiguration;
+
+    @PostConstruct
+    public void startViewportWriter() {
+        viewportSaveIntervalMs = Math.max(50, mapConfiguration.getSettings().getViewportSaveIntervalMs());
+        viewportWriter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "viewport-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        viewportWriter.scheduleWithFixedDelay(this::flushViewports, viewportSaveIntervalMs, viewportSaveIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
     public String getPreviewMapName() {
         return previewMapName.get();
     }
 
     public void setPreviewMapName(String mapName) {
-        previewMapName.set(mapName);
+        String previous = previewMapName.getAndSet(mapName);
+        if (previous != null && !previous.equals(mapName)) {
+            flushViewport(previous); // Ostatnie ustawienie kamery poprzedniej mapy nie czeka na interwał
+        }
     }
 
     public boolean isRefreshRequested() {
@@ -80,54 +116,90 @@ public class PreviewMapService {
     public void setViewport(Map<String, Object> viewportData) {
         viewport.set(viewportData);
 
+        // Automatyczna synchronizacja ustawień mapy z viewport-em - w tle, najczęściej co viewportSaveIntervalMs
+        String mapName = previewMapName.get();
+        if (viewportData != null && mapName != null) {
+            viewportUpdates.incrementAndGet();
+            if (pendingViewports.put(mapName, viewportData) != null) {
+                viewportCoalesced.incrementAndGet(); // Poprzedni ruch kamery nie zdążył trafić na dysk
+            }
+        }
+    }
+
+    /**
+     * Liczniki zapisu viewportu do ustawień map
+     */
+    public Map<String, Object> getViewportStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("updates", viewportUpdates.get());
+        stats.put("writes", viewportWrites.get());
+        stats.put("coalesced", viewportCoalesced.get());
+        stats.put("pending", pendingViewports.size());
+        stats.put("intervalMs", viewportSaveIntervalMs);
+        return stats;
+    }
 
-        // Automatyczna synchronizacja ustawień mapy z viewport-em
-        if (viewportData != null && previewMapName.get() != null) {
-            try {
-                // Zaktualizuj ustawienia mapy zgodnie z viewport-em
-                String mapName = previewMapName.get();
-
-                // Pobierz obecne ustawienia
-                com.dnd.model.MapSettings currentSettings = mapSettingsService.loadMapSettings(mapName);
-                if (currentSettings == null) {
-                    currentSettings = new com.dnd.model.MapSettings();
-                }
-
-                // Aktualizuj z viewport-em
-                if (viewportData.containsKey("zoom")) {
-                    currentSettings.setZoom(((Number) viewportData.get("zoom")).doubleValue());
-                }
-
-                if (viewportData.containsKey("panX") || viewportData.containsKey("panY")) {
-                    com.dnd.model.MapSettings.PanOffset panOffset = currentSettings.getPanOffset();
-                    if (panOffset == null) {
-                        panOffset = new com.dnd.model.MapSettings.PanOffset();
-                    }
-
-                    if (viewportData.containsKey("panX")) {
-                        panOffset.setX(((Number) viewportData.get("panX")).doubleValue());
-                    }
-                    if (viewportData.containsKey("panY")) {
-                        panOffset.setY(((Number) viewportData.get("panY")).doubleValue());
-                    }
-
-                    currentSettings.setPanOffset(panOffset);
-                }
-
-                if (viewportData.containsKey("rotation")) {
-                    double rotation = ((Number) viewportData.get("rotation")).doubleValue();
-                    currentSettings.setRotation(rotation);
-                }
-
-                // Zapisz zaktualizowane ustawienia
-                mapSettingsService.saveMapSettings(mapName, currentSettings);
+    private void flushViewports() {
+        for (String mapName : pendingViewports.keySet()) {
+            flushViewport(mapName);
+        }
+    }
 
+    // Zapis pod blokadą - starszy viewport mapy nie nadpisze nowszego
+    private void flushViewport(String mapName) {
+        synchronized (viewportFlushLock) {
+            Map<String, Object> viewportData = pendingViewports.remove(mapName);
+            if (viewportData == null) {
+                return;
+            }
+            try {
+                mapSettingsService.updateMapSettings(mapName, settings -> applyViewport(settings, viewportData));
+                viewportWrites.incrementAndGet();
             } catch (Exception e) {
                 System.err.println("Błąd synchronizacji ustawień mapy z viewport: " + e.getMessage());
             }
         }
     }
 
+    private static void applyViewport(MapSettings settings, Map<String, Object> viewportData) {
+        if (viewportData.containsKey("zoom")) {
+            settings.setZoom(((Number) viewportData.get("zoom")).doubleValue());
+        }
+
+        if (viewportData.containsKey("panX") || viewportData.containsKey("panY")) {
+            MapSettings.PanOffset panOffset = settings.getPanOffset();
+            if (panOffset == null) {
+                panOffset = new MapSettings.PanOffset();
+            }
+
+            if (viewportData.containsKey("panX")) {
+                panOffset.setX(((Number) viewportData.get("panX")).doubleValue());
+            }
+            if (viewportData.containsKey("panY")) {
+                panOffset.setY(((Number) viewportData.get("panY")).doubleValue());
+            }
+
+            settings.setPanOffset(panOffset);
+        }
+
+        if (viewportData.containsKey("rotation")) {
+            settings.setRotation(((Number) viewportData.get("rotation")).doubleValue());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (viewportWriter != null) {
+            viewportWriter.shutdown();
+            try {
+                viewportWriter.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushViewports();
+    }
+
     public Map<String, Object> getViewport() {
         return viewport.get();
     }
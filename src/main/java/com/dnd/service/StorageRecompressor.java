@@ -0,0 +1,154 @@
+package com.dnd.service;
+
+import com.dnd.config.MapConfiguration;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Przepisuje w tle dokumenty zapisane w innym formacie niż bieżący app.storage.compression
+ * (np. stare pliki JSON po włączeniu gzip). Raport: rozmiar i czas wczytania (odczyt,
+ * dekompresja, parsowanie JSON) przepisanych dokumentów przed i po.
+ *
+ * Każdy dokument jest przepisywany pod blokadą pliku w PersistenceQueue - zapis z aplikacji
+ * nie zostanie nadpisany starszą treścią. Dokumenty czekające w kolejce są pomijane
+ * (i tak zostaną zapisane w bieżącym formacie).
+ */
+@Service
+public class StorageRecompressor {
+
+    private final DocumentStorage storage;
+    private final PersistenceQueue persistenceQueue;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScheduledExecutorService executor;
+    private volatile Map<String, Object> lastReport;
+
+    @Autowired
+    public StorageRecompressor(DocumentStorage storage, PersistenceQueue persistenceQueue, MapConfiguration mapConfiguration) {
+        this.storage = storage;
+        this.persistenceQueue = persistenceQueue;
+
+        long interval = mapConfiguration.getStorage().getRecompressionIntervalMs();
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "storage-recompressor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        if (interval > 0) {
+            // Pierwszy przebieg krótko po starcie - stare pliki po zmianie formatu nie czekają godzinę
+            executor.scheduleWithFixedDelay(this::recompressInBackground, 30000, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Raport ostatniego przebiegu albo null
+     */
+    public Map<String, Object> getLastReport() {
+        return lastReport;
+    }
+
+    private void recompressInBackground() {
+        try {
+            Map<String, Object> report = recompressAll();
+            if ((int) report.get("converted") > 0) {
+                System.out.println("🗜️ Przepisano " + report.get("converted") + " dokumentów do formatu " + report.get("format") +
+                    ": " + report.get("bytesBefore") + " -> " + report.get("bytesAfter") + " bajtów");
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ Przepisywanie dokumentów nie powiodło się: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Przepisz wszystkie dokumenty do bieżącego formatu - jeden przebieg naraz
+     */
+    public synchronized Map<String, Object> recompressAll() throws IOException {
+        long start = System.nanoTime();
+        List<Path> documents = storage.documents();
+        int converted = 0;
+        int skipped = 0;
+        int failed = 0;
+        long bytesBefore = 0;
+        long bytesAfter = 0;
+        long loadNanosBefore = 0;
+        long loadNanosAfter = 0;
+
+        for (Path document : documents) {
+            long[] sizes;
+            try {
+                sizes = persistenceQueue.whenIdle(document, () -> recompress(document));
+            } catch (IOException e) {
+                failed++;
+                System.err.println("⚠️ Nie można przepisać " + document.getFileName() + ": " + e.getMessage());
+                continue;
+            }
+            if (sizes == null) {
+                skipped++;
+            } else if (sizes.length > 0) {
+                converted++;
+                bytesBefore += sizes[0];
+                bytesAfter += sizes[1];
+                loadNanosBefore += sizes[2];
+                loadNanosAfter += sizes[3];
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("format", storage.isCompressed() ? DocumentStorage.GZIP : "none");
+        report.put("documents", documents.size());
+        report.put("converted", converted);
+        report.put("skipped", skipped);
+        report.put("failed", failed);
+        report.put("bytesBefore", bytesBefore);
+        report.put("bytesAfter", bytesAfter);
+        report.put("sizeRatio", bytesBefore > 0 ? (double) bytesAfter / bytesBefore : 1.0);
+        report.put("loadMsBefore", loadNanosBefore / 1_000_000.0);
+        report.put("loadMsAfter", loadNanosAfter / 1_000_000.0);
+        report.put("durationMs", (System.nanoTime() - start) / 1_000_000.0);
+        report.put("timestamp", System.currentTimeMillis());
+        lastReport = report;
+        return report;
+    }
+
+    // {rozmiar przed, po, czas wczytania przed, po}; pusta tablica - dokument już w bieżącym formacie
+    private long[] recompress(Path document) throws IOException {
+        byte[] raw = storage.readRaw(document);
+        if (raw == null || !storage.needsRecompression(raw)) {
+            return new long[0];
+        }
+        long loadBefore = measureLoad(document);
+
+        byte[] data = DocumentStorage.decode(raw);
+        storage.write(document, data);
+
+        long loadAfter = measureLoad(document);
+        byte[] rewritten = storage.readRaw(document);
+        return new long[] { raw.length, rewritten != null ? rewritten.length : 0, loadBefore, loadAfter };
+    }
+
+    // Odczyt + dekompresja + parsowanie JSON, jak przy ładowaniu dokumentu przez serwis
+    private long measureLoad(Path document) throws IOException {
+        long start = System.nanoTime();
+        byte[] data = storage.read(document);
+        if (data != null) {
+            objectMapper.readTree(data);
+        }
+        return System.nanoTime() - start;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -523,10 +523,7 @@ class DnDMapViewer {
                         }).catch(err => console.log('⚠️ Błąd synchronizacji obrotu:', err));
                     }
 
-                    // Wyślij postacie jeśli są
-                    if (this.characters && (this.characters.players.length || this.characters.enemies.length)) {
-                        await this.sendCharactersToPreview(mapName);
-                    }
+                    // Postacie podgląd pobiera sam (/api/characters/{mapa}/changes)
 
                     // CZWARTY: Ostateczna weryfikacja
                     setTimeout(async () => {
@@ -643,6 +640,10 @@ class DnDMapViewer {
 
             if (!response.ok) {
                 console.error('ERROR Fog save batch error:', await response.text());
+            } else {
+                // Wersja mgły po zastosowaniu partii na serwerze
+                const result = await response.json();
+                this.fogVersion = result.version;
             }
         } catch (error) {
             console.error('ERROR Fog save batch error:', error);
@@ -811,8 +812,9 @@ class DnDMapViewer {
                         await this.loadFogState();
                         await this.loadCharacters();
                     } else {
-                        // Dane załadowane z pliku, załaduj tylko mgłę z serwera
+                        // Dane załadowane z pliku, mgła i pionki (z id) z własnych endpointów
                         await this.loadFogState();
+                        await this.loadCharacters();
                     }
 
                     // Zastosuj załadowane ustawienia
@@ -1071,28 +1073,6 @@ class DnDMapViewer {
         return { x, y };
     }
 
-    async sendCharactersToPreview(mapName) {
-        if (!mapName) return;
-        const data = {
-            characters: {
-                players: this.characters.players,
-                enemies: this.characters.enemies
-            },
-            enemyLetterCounter: this.enemyLetterCounter,
-            playerColor: this.playerColor,
-            enemyColor: this.enemyColor
-        };
-        try {
-            await fetch(`/api/characters/${encodeURIComponent(mapName)}`, {
-                method: 'POST',
-                headers: { 'Content-Type': 'application/json' },
-                body: JSON.stringify(data)
-            });
-        } catch (e) {
-            console.error('Error sending characters to preview:', e);
-        }
-    }
-
     // Zunifikowany system zapisywania/ładowania wszystkich danych mapy
     async saveAllMapData() {
         // BARDZO WIDOCZNY TEST - czy nowa wersja zostaje załadowana
@@ -1159,14 +1139,7 @@ class DnDMapViewer {
                 opacity: this.gridOpacity
             },
 
-            // Postacie
-            characters: {
-                players: this.characters.players,
-                enemies: this.characters.enemies,
-                enemyLetterCounter: this.enemyLetterCounter,
-                playerColor: this.playerColor,
-                enemyColor: this.enemyColor
-            },
+            // Postacie nie są wysyłane - pionki zapisują operacje /api/characters/{mapa}/...
 
             // Metadane
             timestamp: new Date().toISOString(),
@@ -1264,19 +1237,7 @@ class DnDMapViewer {
                 if (this.gridLineWidthInput) this.gridLineWidthInput.value = this.gridLineWidth;
             }
 
-            // Załaduj postacie
-            if (allData.characters) {
-                this.characters = allData.characters.players || allData.characters.enemies ?
-                    { players: allData.characters.players || [], enemies: allData.characters.enemies || [] } :
-                    { players: [], enemies: [] };
-                this.enemyLetterCounter = allData.characters.enemyLetterCounter || 0;
-                this.playerColor = allData.characters.playerColor || '#00ff00';
-                this.enemyColor = allData.characters.enemyColor || '#ff0000';
-
-                // Aktualizuj kontrolki kolorów
-                if (this.playerColorPicker) this.playerColorPicker.value = this.playerColor;
-                if (this.enemyColorPicker) this.enemyColorPicker.value = this.enemyColor;
-            }
+            // Postacie wczytuje loadCharacters() - sekcja characters pliku danych nie jest aktualizowana
 
             return true;
         } catch (error) {
@@ -2,6 +2,8 @@
 class CharactersManager {
     constructor(viewer) {
         this.viewer = viewer;
+        // Operacje na pojedynczych pionkach idą po kolei - przesunięcie nowego pionka czeka na jego id
+        this.tokenRequests = Promise.resolve();
     }
 
     toggleCharacterMode(mode) {
@@ -67,16 +69,19 @@ class CharactersManager {
             return;
         }
 
-        // Dodaj postać
+        // Dodaj postać - serwer nada id (wrogowi także literę, zgodną z licznikiem)
         if (this.viewer.characterMode === 'player') {
-            this.viewer.characters.players.push({ x: cell.x, y: cell.y });
+            const player = { x: cell.x, y: cell.y };
+            this.viewer.characters.players.push(player);
+            this.sendTokenOperation(player, 'POST', 'players', { x: cell.x, y: cell.y });
         } else if (this.viewer.characterMode === 'enemy') {
             const letter = this.getNextEnemyLetter();
-            this.viewer.characters.enemies.push({ x: cell.x, y: cell.y, letter });
+            const enemy = { x: cell.x, y: cell.y, letter };
+            this.viewer.characters.enemies.push(enemy);
+            this.sendTokenOperation(enemy, 'POST', 'enemies', { x: cell.x, y: cell.y });
         }
 
         this.drawCharacters();
-        this.saveCharacters();
     }
 
     findCharacterAtCell(cellX, cellY) {
@@ -109,16 +114,17 @@ class CharactersManager {
         }
 
         // Przenieś postać
-        if (character.type === 'player') {
-            this.viewer.characters.players[character.index].x = newCellX;
-            this.viewer.characters.players[character.index].y = newCellY;
-        } else if (character.type === 'enemy') {
-            this.viewer.characters.enemies[character.index].x = newCellX;
-            this.viewer.characters.enemies[character.index].y = newCellY;
+        const token = character.type === 'player'
+            ? this.viewer.characters.players[character.index]
+            : this.viewer.characters.enemies[character.index];
+        if (!token) {
+            return;
         }
+        token.x = newCellX;
+        token.y = newCellY;
 
         this.drawCharacters();
-        this.saveCharacters();
+        this.sendTokenOperation(token, 'PATCH', 'tokens', { x: newCellX, y: newCellY });
     }
 
     getNextEnemyLetter() {
@@ -136,9 +142,9 @@ class CharactersManager {
             return Math.abs(p.x - cellX) < tolerance && Math.abs(p.y - cellY) < tolerance;
         });
         if (playerIndex !== -1) {
-            this.viewer.characters.players.splice(playerIndex, 1);
+            const [player] = this.viewer.characters.players.splice(playerIndex, 1);
             this.drawCharacters();
-            this.saveCharacters();
+            this.sendTokenOperation(player, 'DELETE', 'tokens');
             return;
         }
 
@@ -147,9 +153,9 @@ class CharactersManager {
             return Math.abs(e.x - cellX) < tolerance && Math.abs(e.y - cellY) < tolerance;
         });
         if (enemyIndex !== -1) {
-            this.viewer.characters.enemies.splice(enemyIndex, 1);
+            const [enemy] = this.viewer.characters.enemies.splice(enemyIndex, 1);
             this.drawCharacters();
-            this.saveCharacters();
+            this.sendTokenOperation(enemy, 'DELETE', 'tokens');
             return;
         }
     }
@@ -198,9 +204,13 @@ class CharactersManager {
     removeLastCharacter(type) {
         if (type === 'player') {
             if (this.viewer.characters.players.length > 0) {
-                this.viewer.characters.players.pop();
+                const player = this.viewer.characters.players.pop();
+                this.drawCharacters();
+                this.sendTokenOperation(player, 'DELETE', 'tokens');
             }
+            return;
         } else if (type === 'enemy') {
+            // Cofnięcie licznika liter zmienia dokument - pełny zapis
             if (this.viewer.characters.enemies.length > 0) {
                 this.viewer.characters.enemies.pop();
                 this.viewer.enemyLetterCounter--;
@@ -274,10 +284,53 @@ class CharactersManager {
         });
     }
 
-    saveCharacters() {
+    /**
+     * Wyślij operację jednego pionka (dodanie, przesunięcie, usunięcie) - serwer zapisuje tylko zmianę,
+     * a podgląd pobiera ją przez /changes. Pionek bez id (np. z zapisu lokalnego) wymaga pełnego zapisu.
+     */
+    sendTokenOperation(token, method, resource, body) {
+        if (!this.viewer.currentMap) return;
+        const mapName = this.viewer.currentMap.name;
+
+        this.storeCharactersLocally();
+        this.tokenRequests = this.tokenRequests.then(async () => {
+            if (method !== 'POST' && !token.id) {
+                this.saveCharacters();
+                return;
+            }
+            const path = method === 'POST' ? resource : `${resource}/${encodeURIComponent(token.id)}`;
+            const response = await fetch(`/api/characters/${encodeURIComponent(mapName)}/${path}`, {
+                method,
+                headers: body ? { 'Content-Type': 'application/json' } : undefined,
+                body: body ? JSON.stringify(body) : undefined
+            });
+            if (response.status === 404) {
+                // Pionek zmieniony przez inną kartę - wczytaj aktualny stan z serwera
+                await this.loadCharacters();
+                return;
+            }
+            if (!response.ok) {
+                throw new Error(`HTTP ${response.status}`);
+            }
+            if (method === 'POST') {
+                const operation = await response.json();
+                token.id = operation.id;
+                if (operation.letter && operation.letter !== token.letter) {
+                    token.letter = operation.letter;
+                    this.drawCharacters();
+                }
+                this.storeCharactersLocally();
+            }
+        }).catch(err => console.error('Error saving character to server:', err));
+    }
+
+    storeCharactersLocally() {
         if (!this.viewer.currentMap) return;
+        localStorage.setItem(`characters_${this.viewer.currentMap.name}`, JSON.stringify(this.charactersData()));
+    }
 
-        const data = {
+    charactersData() {
+        return {
             characters: {
                 players: this.viewer.characters.players,
                 enemies: this.viewer.characters.enemies
@@ -286,16 +339,25 @@ class CharactersManager {
             playerColor: this.viewer.playerColor,
             enemyColor: this.viewer.enemyColor
         };
+    }
+
+    // Pełny zapis (kolory, usunięcie wszystkich pionków) - klienci przyrostowi pobiorą cały stan
+    saveCharacters() {
+        if (!this.viewer.currentMap) return;
+
+        const mapName = this.viewer.currentMap.name;
+        const data = this.charactersData();
 
         // Zapisz lokalnie
-        localStorage.setItem(`characters_${this.viewer.currentMap.name}`, JSON.stringify(data));
+        localStorage.setItem(`characters_${mapName}`, JSON.stringify(data));
 
-        // Wyślij na serwer dla synchronizacji z podglądem
-        fetch(`/api/characters/${this.viewer.currentMap.name}`, {
+        // Wyślij na serwer dla synchronizacji z podglądem - po oczekujących operacjach pionków
+        const body = JSON.stringify(data);
+        this.tokenRequests = this.tokenRequests.then(() => fetch(`/api/characters/${encodeURIComponent(mapName)}`, {
             method: 'POST',
             headers: { 'Content-Type': 'application/json' },
-            body: JSON.stringify(data)
-        }).catch(err => console.error('Error saving characters to server:', err));
+            body
+        })).catch(err => console.error('Error saving characters to server:', err));
 
         // Użyj zunifikowanego systemu zapisywania
         // Użyj saveMapSettings - bezpieczne dla mgły
@@ -304,11 +366,6 @@ class CharactersManager {
                 console.error('Error saving character settings:', err)
             );
         }
-
-        // Jeśli aktywny podgląd, wyślij postacie natychmiast
-        if (this.viewer.remotePreviewControl && this.viewer.sendCharactersToPreview) {
-            this.viewer.sendCharactersToPreview(this.viewer.currentMap.name);
-        }
     }
 
     async loadCharacters() {
@@ -316,7 +373,20 @@ class CharactersManager {
             return;
         }
 
-        // Najpierw spróbuj z localStorage
+        // Serwer jest źródłem prawdy - tylko jego pionki mają id dla operacji na pojedynczym pionku
+        try {
+            const response = await fetch(`/api/characters/${encodeURIComponent(this.viewer.currentMap.name)}`);
+            if (response.ok) {
+                const data = await response.json();
+                this.applyCharactersData(data);
+                this.storeCharactersLocally();
+                return;
+            }
+        } catch (error) {
+            console.error('❌ Characters load error:', error);
+        }
+
+        // Serwer niedostępny - spróbuj z localStorage
         const saved = localStorage.getItem(`characters_${this.viewer.currentMap.name}`);
         if (saved) {
             try {
@@ -328,20 +398,8 @@ class CharactersManager {
             }
         }
 
-        // Jeśli nie ma w localStorage, spróbuj z serwera
-        try {
-            const response = await fetch(`/api/characters/${encodeURIComponent(this.viewer.currentMap.name)}`);
-            if (response.ok) {
-                const data = await response.json();
-                this.applyCharactersData(data);
-            } else {
-                // Brak danych - użyj domyślnych wartości
-                this.resetCharacters();
-            }
-        } catch (error) {
-            console.error('❌ Characters load error:', error);
-            this.resetCharacters();
-        }
+        // Brak danych - użyj domyślnych wartości
+        this.resetCharacters();
     }
 
     applyCharactersData(data) {
@@ -232,6 +232,38 @@ class FogManager {
         }
     }
 
+    // Cofnij / ponów ostatni krok mgły (partia pędzla, reset) - stan liczy serwer
+    async undoFog() {
+        await this.applyHistory('undo');
+    }
+
+    async redoFog() {
+        await this.applyHistory('redo');
+    }
+
+    async applyHistory(action) {
+        if (!this.viewer.currentMap) return;
+
+        // Najpierw wyślij oczekujące punkty - inaczej cofnięty zostałby wcześniejszy krok
+        await this.viewer.flushPending();
+
+        try {
+            const response = await fetch(`/api/fog/${encodeURIComponent(this.viewer.currentMap.name)}/${action}`, {
+                method: 'POST'
+            });
+            if (response.ok) {
+                const result = await response.json();
+                this.viewer.fogVersion = result.version;
+                this.viewer.lastLocalFogChange = Date.now();
+                await this.loadFogState();
+            } else {
+                console.error(`❌ Fog ${action} error:`, await response.text());
+            }
+        } catch (error) {
+            console.error(`❌ Fog ${action} error:`, error);
+        }
+    }
+
     async renderFullFog() {
         if (!this.viewer.currentMap) return;
 
@@ -281,6 +313,33 @@ class FogManager {
                 this.viewer.fogCtx.fillRect(cellX, cellY, area.radius * 2, area.radius * 2);
             }
         }
+
+        // Tryb rastrowy - odsłonięte komórki maski bitowej
+        if (fogState.raster) {
+            this.viewer.fogCtx.globalCompositeOperation = 'destination-out';
+            this.viewer.fogCtx.fillStyle = 'rgba(0,0,0,1)';
+            this.drawRasterMask(this.viewer.fogCtx, fogState.raster);
+        }
+    }
+
+    // Maska: 1 bit na komórkę cellSize x cellSize, wierszami, LSB pierwszy - rysuj ciągłe odcinki wierszy
+    drawRasterMask(ctx, raster) {
+        const bytes = Uint8Array.from(atob(raster.data), c => c.charCodeAt(0));
+        const size = raster.cellSize;
+
+        for (let row = 0; row < raster.height; row++) {
+            let runStart = -1;
+            for (let col = 0; col <= raster.width; col++) {
+                const index = row * raster.width + col;
+                const revealed = col < raster.width && (bytes[index >> 3] & (1 << (index & 7))) !== 0;
+                if (revealed && runStart < 0) {
+                    runStart = col;
+                } else if (!revealed && runStart >= 0) {
+                    ctx.fillRect(runStart * size, row * size, (col - runStart) * size, size);
+                    runStart = -1;
+                }
+            }
+        }
     }
 
     async saveFogState() {
@@ -19,6 +19,20 @@ class InputManager {
                 this.viewer.isShiftPressed = true;
                 this.viewer.updateCursor();
             }
+
+            // Ctrl+Z cofa, Ctrl+Y / Ctrl+Shift+Z ponawia krok mgły (nie w polach formularzy)
+            const target = e.target;
+            const editing = target && (target.tagName === 'INPUT' || target.tagName === 'TEXTAREA' || target.isContentEditable);
+            if ((e.ctrlKey || e.metaKey) && !editing) {
+                const key = e.key.toLowerCase();
+                if (key === 'z' && !e.shiftKey) {
+                    e.preventDefault();
+                    this.viewer.fog.undoFog();
+                } else if (key === 'y' || (key === 'z' && e.shiftKey)) {
+                    e.preventDefault();
+                    this.viewer.fog.redoFog();
+                }
+            }
         });
 
         document.addEventListener('keyup', (e) => {
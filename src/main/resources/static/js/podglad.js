@@ -27,6 +27,8 @@ class PodgladManager {
         this.gridOffsetX = 0;
         this.gridOffsetY = 0;
         this.characters = { players: [], enemies: [] };
+        this.charactersVersion = null; // wersja pionków z /api/characters/{map}/changes
+        this.charactersMapName = null;
         this.playerColor = '#00ff00';
         this.enemyColor = '#ff0000';
 
@@ -256,11 +258,30 @@ class PodgladManager {
     async fetchFogState() {
         if (!this.previewMapName) return;
 
+        // Mamy już stan tej mapy - pobierz tylko zmiany od znanej wersji
+        if (this.fogState && this.fogVersion != null && this.fogMapName === this.previewMapName && !this.fogState.raster) {
+            if (await this.fetchFogChanges()) return;
+        }
+
         try {
-            const response = await fetch(`/api/fog/${this.previewMapName}`);
+            // Binarny format jest kilkukrotnie mniejszy od JSON przy dużej liczbie punktów
+            const response = await fetch(`/api/fog/${this.previewMapName}`, {
+                headers: { 'Accept': 'application/x-dnd-fog, application/json;q=0.9' }
+            });
 
             if (response.ok) {
-                this.fogState = await response.json();
+                // Przeglądarka rewaliduje ETag - ta sama wersja mgły nie wymaga przerysowania
+                const etag = response.headers.get('ETag');
+                if (etag && etag === this.fogEtag && this.fogState && this.fogMapName === this.previewMapName) {
+                    return;
+                }
+                this.fogEtag = etag;
+                const contentType = response.headers.get('Content-Type') || '';
+                this.fogState = contentType.includes('application/x-dnd-fog')
+                    ? this.decodeFogBinary(await response.arrayBuffer())
+                    : await response.json();
+                this.fogVersion = this.fogState.version;
+                this.fogMapName = this.previewMapName;
                 this.renderFog();
             }
         } catch (error) {
@@ -268,31 +289,191 @@ class PodgladManager {
         }
     }
 
+    // Dekoder formatu application/x-dnd-fog (opis w FogBinaryCodec.java)
+    decodeFogBinary(buffer) {
+        const bytes = new Uint8Array(buffer);
+        let position = 3; // "DF" + wersja formatu
+
+        const varint = () => {
+            let value = 0;
+            let multiplier = 1;
+            let b;
+            do {
+                b = bytes[position++];
+                value += (b & 0x7F) * multiplier;
+                multiplier *= 128;
+            } while (b & 0x80);
+            return value;
+        };
+        const zigzag = () => {
+            const value = varint();
+            return value % 2 === 0 ? value / 2 : -(value + 1) / 2;
+        };
+        const rawBytes = () => {
+            const length = varint();
+            const result = bytes.subarray(position, position + length);
+            position += length;
+            return result;
+        };
+
+        const version = varint();
+        const mapName = new TextDecoder().decode(rawBytes());
+        const radii = [];
+        for (let count = varint(); count > 0; count--) radii.push(zigzag());
+
+        const revealedAreas = [];
+        let x = 0;
+        let y = 0;
+        for (let count = varint(); count > 0; count--) {
+            x += zigzag();
+            y += zigzag();
+            const packed = varint();
+            revealedAreas.push({ x, y, radius: radii[Math.floor(packed / 2)], isGridCell: (packed & 1) === 1 });
+        }
+
+        const state = { mapName, revealedAreas, version };
+        if (bytes[position++] === 1) {
+            const cellSize = varint();
+            const width = varint();
+            const height = varint();
+            const data = rawBytes();
+            let binary = '';
+            for (let i = 0; i < data.length; i++) binary += String.fromCharCode(data[i]);
+            state.raster = { cellSize, width, height, data: btoa(binary) };
+        }
+        return state;
+    }
+
+    // Zmiany mgły od this.fogVersion - false oznacza powrót do pełnego pobrania
+    async fetchFogChanges() {
+        try {
+            const response = await fetch(`/api/fog/${this.previewMapName}/changes?since=${this.fogVersion}`);
+            if (!response.ok) return false;
+
+            const changes = await response.json();
+            if (changes.full) {
+                this.fogState = changes.snapshot;
+            } else if (changes.operations && changes.operations.length > 0) {
+                changes.operations.forEach(operation => this.applyFogOperation(operation));
+            } else {
+                return true; // Bez zmian
+            }
+
+            this.fogVersion = changes.version;
+            this.fogEtag = null;
+            this.renderFog();
+            return true;
+        } catch (error) {
+            return false;
+        }
+    }
+
+    // Ta sama semantyka co na serwerze: zasłonięcie usuwa punkty o środku w zasięgu r + 10
+    applyFogOperation(operation) {
+        const points = operation.points || [];
+        if (operation.type === 'reveal') {
+            this.fogState.revealedAreas.push(...points);
+        } else if (operation.type === 'hide') {
+            points.forEach(point => {
+                const limit = point.radius + 10;
+                this.fogState.revealedAreas = this.fogState.revealedAreas.filter(area => {
+                    const dx = area.x - point.x;
+                    const dy = area.y - point.y;
+                    return dx * dx + dy * dy > limit * limit;
+                });
+            });
+        } else if (operation.type === 'reset') {
+            this.fogState.revealedAreas = [];
+        }
+    }
+
+    // Pionki przyrostowo jak mgła: zmiany od this.charactersVersion, pełny stan przy pierwszym
+    // pobraniu, po zmianie mapy albo gdy bufor zmian serwera nie sięga tak daleko
     async fetchCharacters() {
         if (!this.previewMapName) return;
+        const mapName = this.previewMapName;
+        const since = this.charactersMapName === mapName && this.charactersVersion != null ? this.charactersVersion : -1;
 
         try {
-            const response = await fetch(`/api/characters/${this.previewMapName}`);
-
-            if (response.ok) {
-                const data = await response.json();
+            const response = await fetch(`/api/characters/${encodeURIComponent(mapName)}/changes?since=${since}`);
+            if (!response.ok) {
+                await this.fetchAllCharacters(mapName);
+                return;
+            }
 
-                // Defensywne parsowanie struktury danych
-                if (data.characters) {
-                    this.characters = data.characters;
-                } else if (data.players || data.enemies) {
-                    this.characters = data;
-                } else {
-                    this.characters = { players: [], enemies: [] };
+            const changes = await response.json();
+            if (changes.full) {
+                this.setCharacters(changes.snapshot);
+            } else if (changes.operations && changes.operations.length > 0) {
+                if (!changes.operations.every(operation => this.applyCharacterOperation(operation))) {
+                    this.charactersVersion = null; // Kolejne pobranie przyniesie pełny stan
+                    return;
                 }
-
-                this.drawCharacters();
+            } else {
+                return; // Bez zmian
             }
+
+            this.charactersMapName = mapName;
+            this.charactersVersion = changes.version;
+            this.drawCharacters();
         } catch (error) {
             // Silent fail
         }
     }
 
+    // Pełny stan pionków - gdy endpoint zmian jest niedostępny
+    async fetchAllCharacters(mapName) {
+        const response = await fetch(`/api/characters/${encodeURIComponent(mapName)}`);
+        if (response.ok) {
+            const data = await response.json();
+            this.setCharacters(data);
+            this.charactersMapName = mapName;
+            this.charactersVersion = data.version != null ? data.version : null;
+            this.drawCharacters();
+        }
+    }
+
+    setCharacters(data) {
+        // Defensywne parsowanie struktury danych
+        if (data && data.characters) {
+            this.characters = data.characters;
+        } else if (data && (data.players || data.enemies)) {
+            this.characters = data;
+        } else {
+            this.characters = { players: [], enemies: [] };
+        }
+    }
+
+    // Operacja pionka z /changes - false, gdy kopia klienta nie zgadza się z serwerem (potrzebny pełny stan)
+    applyCharacterOperation(operation) {
+        const players = this.characters.players || (this.characters.players = []);
+        const enemies = this.characters.enemies || (this.characters.enemies = []);
+        if (operation.type === 'add') {
+            const token = { id: operation.id, x: operation.x, y: operation.y };
+            if (operation.kind === 'enemy') {
+                token.letter = operation.letter;
+                enemies.push(token);
+            } else {
+                players.push(token);
+            }
+            return true;
+        }
+        const token = players.find(p => p.id === operation.id) || enemies.find(e => e.id === operation.id);
+        if (!token) {
+            return false;
+        }
+        if (operation.type === 'move') {
+            token.x = operation.x;
+            token.y = operation.y;
+        } else if (operation.type === 'remove') {
+            this.characters.players = players.filter(p => p !== token);
+            this.characters.enemies = enemies.filter(e => e !== token);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
     // Polling komend nawigacji
     pollNavigationCommands() {
         setInterval(() => {
@@ -562,9 +743,34 @@ class PodgladManager {
                 this.fogCtx.fill();
             }
         });
+
+        // Tryb rastrowy - odsłonięte komórki maski bitowej
+        if (this.fogState.raster) {
+            this.drawRasterMask(this.fogState.raster);
+        }
         this.fogCtx.globalCompositeOperation = 'source-over';
     }
 
+    // Maska: 1 bit na komórkę cellSize x cellSize, wierszami, LSB pierwszy - rysuj ciągłe odcinki wierszy
+    drawRasterMask(raster) {
+        const bytes = Uint8Array.from(atob(raster.data), c => c.charCodeAt(0));
+        const size = raster.cellSize;
+
+        for (let row = 0; row < raster.height; row++) {
+            let runStart = -1;
+            for (let col = 0; col <= raster.width; col++) {
+                const index = row * raster.width + col;
+                const revealed = col < raster.width && (bytes[index >> 3] & (1 << (index & 7))) !== 0;
+                if (revealed && runStart < 0) {
+                    runStart = col;
+                } else if (!revealed && runStart >= 0) {
+                    this.fogCtx.fillRect(runStart * size, row * size, (col - runStart) * size, size);
+                    runStart = -1;
+                }
+            }
+        }
+    }
+
     // Animowana tekstura mgły jak w prawdziwej grze
     drawAnimatedFog() {
         const time = (this.animationTime || 0) / 1000;
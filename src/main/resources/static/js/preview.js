@@ -27,6 +27,8 @@ class PreviewManager {
 
         // Characters variables
         this.characters = { players: [], enemies: [] };
+        this.charactersVersion = null; // wersja pionków z /api/characters/{map}/changes
+        this.charactersMapName = null;
         this.playerColor = '#00ff00';
         this.enemyColor = '#ff0000';
 
@@ -380,25 +382,90 @@ class PreviewManager {
         }
     }
 
+    // Tylko zmienione pionki: zmiany od this.charactersVersion, pełny stan przy pierwszym pobraniu,
+    // po zmianie mapy albo gdy bufor zmian serwera nie sięga tak daleko
     async fetchCharacters() {
         if (!this.previewMapName) return;
+        const mapName = this.previewMapName;
+        const since = this.charactersMapName === mapName && this.charactersVersion != null ? this.charactersVersion : -1;
 
         try {
-            const response = await fetch(`/api/characters/${this.previewMapName}`);
-            if (response.ok) {
-                const data = await response.json();
-                if (data) {
-                    this.characters = data.characters || { players: [], enemies: [] };
-                    this.playerColor = data.playerColor || '#00ff00';
-                    this.enemyColor = data.enemyColor || '#ff0000';
-                    this.drawCharacters();
+            const response = await fetch(`/api/characters/${encodeURIComponent(mapName)}/changes?since=${since}`);
+            if (!response.ok) {
+                await this.fetchAllCharacters(mapName);
+                return;
+            }
+
+            const changes = await response.json();
+            if (changes.full) {
+                this.setCharacters(changes.snapshot);
+            } else if (changes.operations && changes.operations.length > 0) {
+                if (!changes.operations.every(operation => this.applyCharacterOperation(operation))) {
+                    this.charactersVersion = null; // Kolejne pobranie przyniesie pełny stan
+                    return;
                 }
+            } else {
+                return; // Bez zmian
             }
+
+            this.charactersMapName = mapName;
+            this.charactersVersion = changes.version;
+            this.drawCharacters();
         } catch (error) {
             console.error('Error fetching characters:', error);
         }
     }
 
+    // Pełny stan pionków - gdy endpoint zmian jest niedostępny
+    async fetchAllCharacters(mapName) {
+        const response = await fetch(`/api/characters/${encodeURIComponent(mapName)}`);
+        if (response.ok) {
+            const data = await response.json();
+            if (data) {
+                this.setCharacters(data);
+                this.charactersMapName = mapName;
+                this.charactersVersion = data.version != null ? data.version : null;
+                this.drawCharacters();
+            }
+        }
+    }
+
+    setCharacters(data) {
+        this.characters = (data && data.characters) || { players: [], enemies: [] };
+        this.playerColor = (data && data.playerColor) || '#00ff00';
+        this.enemyColor = (data && data.enemyColor) || '#ff0000';
+    }
+
+    // Operacja pionka z /changes - false, gdy kopia klienta nie zgadza się z serwerem (potrzebny pełny stan)
+    applyCharacterOperation(operation) {
+        const players = this.characters.players || (this.characters.players = []);
+        const enemies = this.characters.enemies || (this.characters.enemies = []);
+        if (operation.type === 'add') {
+            const token = { id: operation.id, x: operation.x, y: operation.y };
+            if (operation.kind === 'enemy') {
+                token.letter = operation.letter;
+                enemies.push(token);
+            } else {
+                players.push(token);
+            }
+            return true;
+        }
+        const token = players.find(p => p.id === operation.id) || enemies.find(e => e.id === operation.id);
+        if (!token) {
+            return false;
+        }
+        if (operation.type === 'move') {
+            token.x = operation.x;
+            token.y = operation.y;
+        } else if (operation.type === 'remove') {
+            this.characters.players = players.filter(p => p !== token);
+            this.characters.enemies = enemies.filter(e => e !== token);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
     // Animation functions
     animateFog() {
         this.animationTime += 32;
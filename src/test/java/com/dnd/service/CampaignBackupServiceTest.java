@@ -0,0 +1,214 @@
+package com.dnd.service;
+
+import com.dnd.config.MapConfiguration;
+import com.dnd.model.CharacterData;
+import com.dnd.model.FogOperation;
+import com.dnd.model.FogState;
+import com.dnd.model.MapSettings;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Backup i odtwarzanie kampanii - archiwum z /backup odtwarza obraz i wszystkie dokumenty mapy,
+ * także gdy w pamięci (mgła, pionki) są już nowsze zmiany.
+ */
+class CampaignBackupServiceTest {
+
+    private static final String MAP = "loch";
+
+    @TempDir
+    Path root;
+
+    private MapConfiguration configuration;
+    private PersistenceQueue persistenceQueue;
+    private DocumentStorage storage;
+    private CharacterService characterService;
+    private MapService mapService;
+    private GridService gridService;
+    private MapSettingsService mapSettingsService;
+    private FogJournal journal;
+    private FogStore fogStore;
+    private FogCompactor compactor;
+    private CampaignBackupService backupService;
+
+    @BeforeEach
+    void start() {
+        configuration = new MapConfiguration();
+        configuration.getMaps().setDirectory(root.resolve("maps").toString());
+        configuration.getFogStates().setDirectory(root.resolve("fog-states").toString());
+        configuration.getGridConfigs().setDirectory(root.resolve("grid-configs").toString());
+        configuration.getCharacters().setDirectory(root.resolve("characters").toString());
+        configuration.getSettings().setDirectory(root.resolve("settings").toString());
+        configuration.getFog().setFlushIntervalMs(3_600_000);
+        configuration.getFog().setCompactionIntervalMs(0);
+
+        Path dataDir = root.resolve("data");
+        persistenceQueue = new PersistenceQueue(10);
+        storage = new DocumentStorage(configuration, dataDir);
+        DocumentCache documentCache = new DocumentCache(32L << 20, persistenceQueue, storage);
+        MapDataService mapDataService = new MapDataService(dataDir, persistenceQueue, storage, documentCache);
+        characterService = new CharacterService(configuration, persistenceQueue, documentCache, storage);
+        mapService = new MapService(configuration, persistenceQueue, documentCache, characterService);
+        gridService = new GridService(configuration, persistenceQueue, documentCache);
+        mapSettingsService = new MapSettingsService(configuration, new ObjectMapper(), persistenceQueue, documentCache);
+        journal = new FogJournal(mapDataService);
+        fogStore = new FogStore(mapDataService, mapService, gridService, journal, configuration);
+        compactor = new FogCompactor(fogStore, configuration);
+        FogService fogService = new FogService(fogStore, new PreviewMapService(),
+            new FogTileRenderer(fogStore, mapSettingsService), compactor);
+        backupService = new CampaignBackupService(configuration, mapService, mapDataService, storage, persistenceQueue,
+            documentCache, fogStore, fogService, characterService);
+    }
+
+    @AfterEach
+    void stop() {
+        compactor.shutdown();
+        fogStore.shutdown();
+        characterService.shutdown();
+        journal.close();
+        persistenceQueue.shutdown();
+    }
+
+    @Test
+    void backupThenRestoreBringsBackEveryFileOfTheMap() throws Exception {
+        byte[] image = png(64, 48);
+        Files.createDirectories(root.resolve("maps"));
+        Files.write(root.resolve("maps").resolve(MAP + ".png"), image);
+        fogStore.apply(MAP, List.of(FogOperation.reveal(points(120, 80, 30))));
+        characterService.saveCharacters(MAP, characters(10, 20));
+        gridService.setGridConfig(MAP, 48, 3, 5);
+        mapSettingsService.saveMapSettings(MAP, settings("#112233"));
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        Map<String, Object> backup = backupService.writeBackup(archive);
+        assertEquals(1, backup.get("maps"));
+        assertEquals(List.of("maps/" + MAP + ".png", "data/" + MAP + "_data.json", "characters/" + MAP + "_characters.json",
+            "grid-configs/" + MAP + "_grid.json", "settings/" + MAP + "_settings.json"), entryNames(archive.toByteArray()));
+
+        // Zmiany po backupie - na dysku i w pamięci (mgła, pionki)
+        Files.write(root.resolve("maps").resolve(MAP + ".png"), png(10, 10));
+        fogStore.apply(MAP, List.of(FogOperation.reveal(points(500, 500, 40))));
+        characterService.saveCharacters(MAP, characters(99, 99));
+        gridService.setGridConfig(MAP, 70, 0, 0);
+        mapSettingsService.saveMapSettings(MAP, settings("#ffffff"));
+        persistenceQueue.flushAll();
+
+        Map<String, Object> restored = backupService.restore(new ByteArrayInputStream(archive.toByteArray()));
+
+        assertEquals(1, restored.get("maps"));
+        assertEquals(4, restored.get("documents"));
+        assertEquals(1, restored.get("images"));
+        assertEquals(0, restored.get("skipped"));
+        assertArrayEquals(image, Files.readAllBytes(root.resolve("maps").resolve(MAP + ".png")));
+        assertEquals(List.of("120,80,30"), describe(fogStore.snapshot(MAP)));
+        CharacterData.Character player = characterService.loadCharacters(MAP).getCharacters().getPlayers().get(0);
+        assertEquals(10, player.getX());
+        assertEquals(20, player.getY());
+        GridService.GridConfig grid = gridService.getGridConfig(MAP);
+        assertEquals(48, grid.getGridSize());
+        assertEquals(3, grid.getOffsetX());
+        assertEquals(5, grid.getOffsetY());
+        assertEquals("#112233", mapSettingsService.loadMapSettings(MAP).getFogColor());
+    }
+
+    @Test
+    void restoreDeletesMapDocumentsMissingFromArchive() throws Exception {
+        Files.createDirectories(root.resolve("maps"));
+        Files.write(root.resolve("maps").resolve(MAP + ".png"), png(8, 8));
+        fogStore.apply(MAP, List.of(FogOperation.reveal(points(1, 1, 5))));
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        backupService.writeBackup(archive);
+
+        gridService.setGridConfig(MAP, 30, 0, 0);
+        persistenceQueue.flushAll();
+        assertTrue(Files.exists(root.resolve("grid-configs").resolve(MAP + "_grid.json")));
+
+        backupService.restore(new ByteArrayInputStream(archive.toByteArray()));
+        persistenceQueue.flushAll();
+
+        assertFalse(Files.exists(root.resolve("grid-configs").resolve(MAP + "_grid.json")));
+    }
+
+    @Test
+    void oversizedDocumentEntryIsRejectedBeforeReplacingFiles() throws Exception {
+        gridService.setGridConfig(MAP, 48, 0, 0);
+        persistenceQueue.flushAll();
+        byte[] before = Files.readAllBytes(root.resolve("grid-configs").resolve(MAP + "_grid.json"));
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("grid-configs/" + MAP + "_grid.json"));
+            byte[] chunk = new byte[1 << 20];
+            Arrays.fill(chunk, (byte) ' ');
+            for (int written = 0; written <= CampaignBackupService.MAX_DOCUMENT_BYTES; written += chunk.length) {
+                zip.write(chunk);
+            }
+            zip.closeEntry();
+        }
+
+        assertThrows(IOException.class, () -> backupService.restore(new ByteArrayInputStream(archive.toByteArray())));
+        persistenceQueue.flushAll();
+        assertArrayEquals(before, Files.readAllBytes(root.resolve("grid-configs").resolve(MAP + "_grid.json")));
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+        return out.toByteArray();
+    }
+
+    private static CharacterData characters(double x, double y) {
+        CharacterData data = new CharacterData();
+        data.getCharacters().getPlayers().add(new CharacterData.Character(x, y));
+        return data;
+    }
+
+    private static MapSettings settings(String fogColor) {
+        MapSettings settings = new MapSettings();
+        settings.setFogColor(fogColor);
+        return settings;
+    }
+
+    private static List<FogState.FogPoint> points(int x, int y, int radius) {
+        return new ArrayList<>(List.of(new FogState.FogPoint(x, y, radius, false)));
+    }
+
+    private static List<String> describe(FogState state) {
+        return state.getRevealedAreas().stream().map(p -> p.getX() + "," + p.getY() + "," + p.getRadius()).toList();
+    }
+
+    private static List<String> entryNames(byte[] archive) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            for (ZipEntry entry; (entry = zip.getNextEntry()) != null; ) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+}
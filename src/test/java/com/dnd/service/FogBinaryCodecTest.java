@@ -0,0 +1,128 @@
+package com.dnd.service;
+
+import com.dnd.controller.FogController;
+import com.dnd.model.FogState;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Format binarny mgły - kodowanie i dekodowanie daje te same dane,
+ * a urwane lub błędne dane kończą się IllegalArgumentException (400), nie innym wyjątkiem.
+ */
+class FogBinaryCodecTest {
+
+    @Test
+    void stateRoundTripKeepsPointsVersionAndRaster() {
+        List<FogState.FogPoint> points = List.of(
+            new FogState.FogPoint(100, 200, 30, false),
+            new FogState.FogPoint(-50, 7, 25, true),
+            new FogState.FogPoint(100_000, -100_000, 30, false),
+            new FogState.FogPoint(0, 0, 1, true));
+        String bits = Base64.getEncoder().encodeToString(new byte[]{1, 0, (byte) 0xFF, 42});
+        FogState state = new FogState("Mapa ż", points, new FogState.RasterData(16, 8, 4, bits));
+        state.setVersion(12345L);
+
+        FogState decoded = FogBinaryCodec.decodeState(FogBinaryCodec.encodeState(state));
+
+        assertEquals("Mapa ż", decoded.getMapName());
+        assertEquals(12345L, decoded.getVersion());
+        assertEquals(describe(points), describe(decoded.getRevealedAreas()));
+        assertEquals(16, decoded.getRaster().getCellSize());
+        assertEquals(8, decoded.getRaster().getWidth());
+        assertEquals(4, decoded.getRaster().getHeight());
+        assertEquals(bits, decoded.getRaster().getData());
+    }
+
+    @Test
+    void stateRoundTripWithoutPointsOrRaster() {
+        FogState state = new FogState("pusta", new ArrayList<>());
+        state.setVersion(0L);
+
+        FogState decoded = FogBinaryCodec.decodeState(FogBinaryCodec.encodeState(state));
+
+        assertEquals("pusta", decoded.getMapName());
+        assertEquals(List.of(), decoded.getRevealedAreas());
+        assertNull(decoded.getRaster());
+    }
+
+    @Test
+    void batchRoundTripKeepsActionsAndOrder() {
+        List<FogController.BatchFogPoint> points = List.of(
+            batchPoint(10, 10, 40, false, "erase"),
+            batchPoint(12, 9, 40, false, "erase"),
+            batchPoint(300, -20, 25, true, "paint"),
+            batchPoint(Integer.MAX_VALUE, Integer.MIN_VALUE, 40, true, "erase"));
+
+        List<FogController.BatchFogPoint> decoded = FogBinaryCodec.decodeBatch(FogBinaryCodec.encodeBatch(points));
+
+        assertEquals(describeBatch(points), describeBatch(decoded));
+    }
+
+    @Test
+    void truncatedInputIsRejectedAtEveryLength() {
+        FogState state = new FogState("mapa", List.of(new FogState.FogPoint(1, 2, 3, false)),
+            new FogState.RasterData(8, 2, 2, Base64.getEncoder().encodeToString(new byte[]{5})));
+        state.setVersion(3L);
+        byte[] encodedState = FogBinaryCodec.encodeState(state);
+        byte[] encodedBatch = FogBinaryCodec.encodeBatch(List.of(batchPoint(1, 2, 3, false, "paint")));
+
+        for (int length = 0; length < encodedState.length; length++) {
+            byte[] truncated = Arrays.copyOf(encodedState, length);
+            assertThrows(IllegalArgumentException.class, () -> FogBinaryCodec.decodeState(truncated),
+                "stan urwany po " + length + " bajtach");
+        }
+        for (int length = 0; length < encodedBatch.length; length++) {
+            byte[] truncated = Arrays.copyOf(encodedBatch, length);
+            assertThrows(IllegalArgumentException.class, () -> FogBinaryCodec.decodeBatch(truncated),
+                "partia urwana po " + length + " bajtach");
+        }
+    }
+
+    @Test
+    void radiusIndexOutsideDictionaryIsRejected() {
+        // Słownik z jednym promieniem (5), punkt wskazuje indeks 1
+        byte[] state = {'D', 'F', 1, 0, 0, 1, 10, 1, 0, 0, 1 << 1, 0};
+        byte[] batch = {'D', 'B', 1, 1, 10, 1, 0, 0, 1 << 2};
+
+        assertThrows(IllegalArgumentException.class, () -> FogBinaryCodec.decodeState(state));
+        assertThrows(IllegalArgumentException.class, () -> FogBinaryCodec.decodeBatch(batch));
+    }
+
+    @Test
+    void wrongHeaderIsRejected() {
+        byte[] batch = FogBinaryCodec.encodeBatch(List.of(batchPoint(1, 2, 3, false, "paint")));
+
+        assertThrows(IllegalArgumentException.class, () -> FogBinaryCodec.decodeState(batch));
+    }
+
+    private static FogController.BatchFogPoint batchPoint(int x, int y, int radius, boolean gridCell, String action) {
+        FogController.BatchFogPoint point = new FogController.BatchFogPoint();
+        point.setX(x);
+        point.setY(y);
+        point.setRadius(radius);
+        point.setGridCell(gridCell);
+        point.setAction(action);
+        return point;
+    }
+
+    // FogPoint nie nadpisuje equals - porównanie po polach
+    private static List<String> describe(List<FogState.FogPoint> points) {
+        return points.stream()
+            .map(p -> p.getX() + "," + p.getY() + "," + p.getRadius() + "," + p.isGridCell())
+            .toList();
+    }
+
+    private static List<String> describeBatch(List<FogController.BatchFogPoint> points) {
+        return points.stream()
+            .map(p -> p.getX() + "," + p.getY() + "," + p.getRadius() + "," + p.isGridCell() + "," + p.getAction())
+            .toList();
+    }
+}
@@ -0,0 +1,190 @@
+package com.dnd.service;
+
+import com.dnd.model.FogOperation;
+import com.dnd.model.FogState;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Historia cofania mgły - przez FogEntry.applyGroup, tę samą ścieżkę co żądania klienta
+ * i odtwarzanie dziennika. Każdy krok to jedno wywołanie (grupa operacji).
+ */
+class FogHistoryTest {
+
+    private static final int DEPTH = 50;
+
+    @Test
+    void undoAndRedoStepThroughRevealHideResetAndReplace() {
+        FogStore.FogEntry entry = entry(DEPTH, point(0, 0, 10));
+        List<List<String>> states = new ArrayList<>();
+        states.add(describe(entry));
+
+        apply(entry, FogOperation.reveal(points(point(100, 100, 20), point(300, 100, 20))));
+        states.add(describe(entry));
+        apply(entry, FogOperation.hide(points(point(100, 100, 5))));
+        states.add(describe(entry));
+        apply(entry, FogOperation.reset());
+        states.add(describe(entry));
+        apply(entry, FogOperation.replace(points(point(500, 500, 40), point(600, 600, 40)), null));
+        states.add(describe(entry));
+        assertEquals(4, entry.getUndoSize());
+
+        for (int step = states.size() - 2; step >= 0; step--) {
+            assertEquals(1, apply(entry, FogOperation.undo()).size());
+            assertEquals(states.get(step), describe(entry), "po cofnięciu do kroku " + step);
+        }
+        assertTrue(apply(entry, FogOperation.undo()).isEmpty(), "pusta historia - cofnięcie pomijane");
+        assertEquals(4, entry.getRedoSize());
+
+        for (int step = 1; step < states.size(); step++) {
+            assertEquals(1, apply(entry, FogOperation.redo()).size());
+            assertEquals(states.get(step), describe(entry), "po ponowieniu kroku " + step);
+        }
+        assertTrue(apply(entry, FogOperation.redo()).isEmpty(), "nie ma czego ponowić");
+        assertEquals(4, entry.getUndoSize());
+        assertEquals(0, entry.getRedoSize());
+    }
+
+    @Test
+    void batchOfOperationsIsOneStep() {
+        FogStore.FogEntry entry = entry(DEPTH);
+        List<String> before = describe(entry);
+
+        apply(entry, FogOperation.reveal(points(point(10, 10, 5))), FogOperation.reveal(points(200, 200)),
+            FogOperation.hide(points(point(10, 10, 1))));
+        assertEquals(1, entry.getUndoSize());
+
+        apply(entry, FogOperation.undo());
+        assertEquals(before, describe(entry));
+    }
+
+    @Test
+    void oldestStepsAreEvictedBeyondDepth() {
+        FogStore.FogEntry entry = entry(3);
+        List<List<String>> states = new ArrayList<>();
+        states.add(describe(entry));
+        for (int i = 1; i <= 5; i++) {
+            apply(entry, FogOperation.reveal(points(i * 100, 0)));
+            states.add(describe(entry));
+        }
+        assertEquals(3, entry.getUndoSize());
+
+        for (int i = 0; i < 3; i++) {
+            apply(entry, FogOperation.undo());
+        }
+        // Kroki 1 i 2 wypadły z historii - zostają na mapie
+        assertEquals(states.get(2), describe(entry));
+        assertTrue(apply(entry, FogOperation.undo()).isEmpty());
+        assertEquals(states.get(2), describe(entry));
+    }
+
+    @Test
+    void zeroDepthDisablesHistory() {
+        FogStore.FogEntry entry = entry(0);
+        apply(entry, FogOperation.reveal(points(10, 10)));
+
+        assertEquals(0, entry.getUndoSize());
+        assertTrue(apply(entry, FogOperation.undo()).isEmpty());
+        assertEquals(List.of("10,10,20,false"), describe(entry));
+    }
+
+    @Test
+    void newOperationClearsRedoStack() {
+        FogStore.FogEntry entry = entry(DEPTH);
+        apply(entry, FogOperation.reveal(points(100, 100)));
+        apply(entry, FogOperation.reveal(points(300, 300)));
+        apply(entry, FogOperation.undo());
+        assertEquals(1, entry.getRedoSize());
+
+        apply(entry, FogOperation.reveal(points(500, 500)));
+
+        assertEquals(0, entry.getRedoSize());
+        assertTrue(apply(entry, FogOperation.redo()).isEmpty());
+        assertEquals(List.of("100,100,20,false", "500,500,20,false"), describe(entry));
+    }
+
+    @Test
+    void redoKeepsRemainingRedoSteps() {
+        FogStore.FogEntry entry = entry(DEPTH);
+        apply(entry, FogOperation.reveal(points(100, 100)));
+        apply(entry, FogOperation.reveal(points(300, 300)));
+        apply(entry, FogOperation.undo());
+        apply(entry, FogOperation.undo());
+
+        apply(entry, FogOperation.redo());
+
+        // Ponowienie nie jest nową zmianą - drugi krok nadal czeka
+        assertEquals(1, entry.getRedoSize());
+        apply(entry, FogOperation.redo());
+        assertEquals(List.of("100,100,20,false", "300,300,20,false"), describe(entry));
+    }
+
+    @Test
+    void rasterStepIsRestoredAsAWhole() {
+        FogStore.FogEntry entry = entry(DEPTH);
+        FogState.RasterData blank = FogRaster.forMap(400, 400, 4).toData();
+        apply(entry, FogOperation.replace(new ArrayList<>(), blank));
+        String before = entry.toFogState().getRaster().getData();
+
+        apply(entry, FogOperation.reveal(points(100, 100)), FogOperation.reveal(points(200, 200)));
+        apply(entry, FogOperation.hide(points(point(100, 100, 5))));
+        String after = entry.toFogState().getRaster().getData();
+        assertNotEquals(before, after);
+
+        apply(entry, FogOperation.undo());
+        apply(entry, FogOperation.undo());
+        assertEquals(before, entry.toFogState().getRaster().getData());
+
+        apply(entry, FogOperation.redo());
+        apply(entry, FogOperation.redo());
+        assertEquals(after, entry.toFogState().getRaster().getData());
+    }
+
+    @Test
+    void undoMixedWithMutationIsRejectedWithoutChange() {
+        FogStore.FogEntry entry = entry(DEPTH);
+        apply(entry, FogOperation.reveal(points(100, 100)));
+        List<String> before = describe(entry);
+
+        assertThrows(IllegalArgumentException.class,
+            () -> apply(entry, FogOperation.reveal(points(300, 300)), FogOperation.undo()));
+
+        assertEquals(before, describe(entry));
+        assertEquals(1, entry.getUndoSize());
+    }
+
+    private static FogStore.FogEntry entry(int depth, FogState.FogPoint... initial) {
+        return new FogStore.FogEntry("mapa", "mapa", new ArrayList<>(List.of(initial)), depth);
+    }
+
+    private static List<FogStore.FogEntry.Applied> apply(FogStore.FogEntry entry, FogOperation... operations) {
+        return entry.applyGroup(List.of(operations));
+    }
+
+    private static FogState.FogPoint point(int x, int y, int radius) {
+        return new FogState.FogPoint(x, y, radius, false);
+    }
+
+    private static List<FogState.FogPoint> points(FogState.FogPoint... points) {
+        return new ArrayList<>(List.of(points));
+    }
+
+    private static List<FogState.FogPoint> points(int x, int y) {
+        return points(point(x, y, 20));
+    }
+
+    // FogPoint nie nadpisuje equals - porównanie po polach; cofnięcie zasłonięcia dokłada punkty na koniec listy
+    private static List<String> describe(FogStore.FogEntry entry) {
+        return entry.toFogState().getRevealedAreas().stream()
+            .map(p -> p.getX() + "," + p.getY() + "," + p.getRadius() + "," + p.isGridCell())
+            .sorted()
+            .toList();
+    }
+}
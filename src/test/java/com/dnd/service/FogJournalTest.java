@@ -0,0 +1,212 @@
+package com.dnd.service;
+
+import com.dnd.config.MapConfiguration;
+import com.dnd.model.FogOperation;
+import com.dnd.model.FogState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Dziennik mgły i wczytanie mapy w FogStore - migawka z pliku danych plus segmenty dziennika
+ * odtwarzają ten sam stan, urwana ostatnia linia jest pomijana, a kompaktacja usuwa
+ * tylko segmenty objęte migawką.
+ */
+class FogJournalTest {
+
+    private static final String MAP = "mapa";
+
+    @TempDir
+    Path root;
+
+    private final List<Instance> instances = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        for (Instance instance : instances) {
+            instance.fogStore.shutdown();
+            instance.journal.close();
+            instance.persistenceQueue.shutdown();
+        }
+    }
+
+    @Test
+    void snapshotPlusSegmentsReplayToTheSameState() throws Exception {
+        Instance first = start();
+        first.fogStore.apply(MAP, List.of(FogOperation.reveal(points(100, 100, 30))));
+        first.fogStore.apply(MAP, List.of(FogOperation.reveal(points(400, 100, 20))));
+        first.fogStore.flush(MAP); // migawka w pliku danych
+        first.persistenceQueue.flushAll();
+
+        // Po migawce - tylko w dzienniku (awaria przed kolejną migawką)
+        first.fogStore.apply(MAP, List.of(FogOperation.reveal(points(700, 700, 25))));
+        first.fogStore.apply(MAP, List.of(FogOperation.hide(points(100, 100, 5))));
+        first.fogStore.apply(MAP, List.of(FogOperation.reveal(points(50, 900, 40)), FogOperation.hide(points(700, 700, 1))));
+        assertFalse(segments().isEmpty());
+
+        Instance second = start();
+
+        assertEquals(first.fogStore.version(MAP), second.fogStore.version(MAP));
+        assertEquals(describe(first.fogStore.snapshot(MAP)), describe(second.fogStore.snapshot(MAP)));
+    }
+
+    @Test
+    void journalWithoutSnapshotReplaysFromTheFirstSegment() throws Exception {
+        Instance first = start();
+        first.fogStore.apply(MAP, List.of(FogOperation.reveal(points(10, 10, 30))));
+        first.fogStore.apply(MAP, List.of(FogOperation.reset()));
+        first.fogStore.apply(MAP, List.of(FogOperation.reveal(points(20, 20, 10))));
+
+        Instance second = start();
+
+        assertEquals(3, second.fogStore.version(MAP));
+        assertEquals(describe(first.fogStore.snapshot(MAP)), describe(second.fogStore.snapshot(MAP)));
+    }
+
+    @Test
+    void truncatedLastLineIsIgnored() throws Exception {
+        Instance instance = start();
+        instance.journal.append(MAP, List.of(operation(FogOperation.reveal(points(1, 1, 10)), 1)));
+        instance.journal.append(MAP, List.of(operation(FogOperation.reveal(points(200, 200, 10)), 2),
+            operation(FogOperation.hide(points(1, 1, 1)), 2)));
+        instance.journal.roll(MAP);
+
+        // Awaria w trakcie dopisywania linii - bez końca obiektu i znaku nowej linii
+        Path segment = segments().get(0);
+        Files.writeString(segment, "{\"type\":\"reveal\",\"points\":[{\"x\":3,\"y\"", StandardCharsets.UTF_8,
+            StandardOpenOption.APPEND);
+
+        List<List<FogOperation>> groups = instance.journal.replay(MAP, 0);
+
+        assertEquals(2, groups.size());
+        assertEquals(1, groups.get(0).size());
+        assertEquals(2, groups.get(1).size());
+        assertEquals(2, groups.get(1).get(0).getVersion());
+
+        // Stan po wczytaniu mapy też pomija urwany wpis
+        Instance restarted = start();
+        assertEquals(2, restarted.fogStore.version(MAP));
+        assertEquals(List.of("200,200,10,false"), describe(restarted.fogStore.snapshot(MAP)));
+    }
+
+    @Test
+    void replaySkipsOperationsCoveredBySnapshot() throws Exception {
+        Instance instance = start();
+        for (long version = 1; version <= 4; version++) {
+            instance.journal.append(MAP, List.of(operation(FogOperation.reveal(points((int) version, 0, 5)), version)));
+        }
+
+        List<List<FogOperation>> groups = instance.journal.replay(MAP, 2);
+
+        assertEquals(2, groups.size());
+        assertEquals(3, groups.get(0).get(0).getVersion());
+        assertEquals(4, groups.get(1).get(0).getVersion());
+    }
+
+    @Test
+    void compactDeletesOnlySegmentsStartingAtOrBeforeSnapshotVersion() throws Exception {
+        Instance instance = start();
+        for (long start : new long[]{1, 5, 9}) {
+            instance.journal.append(MAP, List.of(operation(FogOperation.reveal(points(0, 0, 5)), start)));
+            instance.journal.roll(MAP);
+        }
+        // Dziennik innej mapy o podobnej nazwie nie jest ruszany
+        instance.journal.append(MAP + "2", List.of(operation(FogOperation.reveal(points(0, 0, 5)), 1)));
+        instance.journal.roll(MAP + "2");
+
+        instance.journal.compact(MAP, 5);
+
+        assertEquals(List.of(MAP + "_fog.9.journal"), segments().stream().map(p -> p.getFileName().toString()).toList());
+        assertTrue(Files.exists(dataDir().resolve(MAP + "2_fog.1.journal")));
+    }
+
+    @Test
+    void snapshotCompactsJournalSegments() throws Exception {
+        Instance instance = start();
+        instance.fogStore.apply(MAP, List.of(FogOperation.reveal(points(100, 100, 30))));
+        instance.fogStore.apply(MAP, List.of(FogOperation.reveal(points(200, 100, 30))));
+        assertEquals(1, segments().size());
+
+        instance.fogStore.flush(MAP);
+        assertTrue(segments().isEmpty());
+
+        instance.fogStore.apply(MAP, List.of(FogOperation.reveal(points(300, 100, 30))));
+        assertEquals(List.of(MAP + "_fog.3.journal"), segments().stream().map(p -> p.getFileName().toString()).toList());
+    }
+
+    private Instance start() {
+        MapConfiguration configuration = new MapConfiguration();
+        configuration.getMaps().setDirectory(root.resolve("maps").toString());
+        configuration.getFogStates().setDirectory(root.resolve("fog-states").toString());
+        configuration.getGridConfigs().setDirectory(root.resolve("grid-configs").toString());
+        configuration.getCharacters().setDirectory(root.resolve("characters").toString());
+        // Migawki tylko na żądanie testu
+        configuration.getFog().setFlushIntervalMs(3_600_000);
+
+        Instance instance = new Instance(configuration);
+        instances.add(instance);
+        return instance;
+    }
+
+    private Path dataDir() {
+        return root.resolve("data");
+    }
+
+    private List<Path> segments() throws IOException {
+        if (!Files.isDirectory(dataDir())) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(dataDir())) {
+            return files.filter(p -> p.getFileName().toString().startsWith(MAP + "_fog."))
+                .sorted()
+                .toList();
+        }
+    }
+
+    private static FogOperation operation(FogOperation operation, long version) {
+        operation.setVersion(version);
+        return operation;
+    }
+
+    private static List<FogState.FogPoint> points(int x, int y, int radius) {
+        return new ArrayList<>(List.of(new FogState.FogPoint(x, y, radius, false)));
+    }
+
+    // FogPoint nie nadpisuje equals - porównanie po polach
+    private static List<String> describe(FogState state) {
+        return state.getRevealedAreas().stream()
+            .map(p -> p.getX() + "," + p.getY() + "," + p.getRadius() + "," + p.isGridCell())
+            .toList();
+    }
+
+    // Komplet serwisów jednego uruchomienia aplikacji na wspólnym katalogu
+    private class Instance {
+        private final PersistenceQueue persistenceQueue = new PersistenceQueue(10);
+        private final FogJournal journal;
+        private final FogStore fogStore;
+
+        Instance(MapConfiguration configuration) {
+            DocumentStorage storage = new DocumentStorage();
+            DocumentCache documentCache = new DocumentCache(32L << 20, persistenceQueue, storage);
+            MapDataService mapDataService = new MapDataService(dataDir(), persistenceQueue, storage, documentCache);
+            CharacterService characterService = new CharacterService(configuration, persistenceQueue, documentCache, storage);
+            MapService mapService = new MapService(configuration, persistenceQueue, documentCache, characterService);
+            GridService gridService = new GridService(configuration, persistenceQueue, documentCache);
+            this.journal = new FogJournal(mapDataService);
+            this.fogStore = new FogStore(mapDataService, mapService, gridService, journal, configuration);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.dnd.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Magazyn jednoplikowy - po ponownym otwarciu (urwany zapis, kompaktacja) żywe klucze
+ * mają ostatnie wartości, a usunięte i urwane rekordy nie wracają.
+ */
+class LogStructuredStoreTest {
+
+    private static final int HEADER = 16;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reopenKeepsLatestValuesAndDeletions() throws IOException {
+        Path file = dir.resolve("campaign.db");
+        try (LogStructuredStore store = LogStructuredStore.open(file)) {
+            store.write("data/a.json", bytes("a1"));
+            store.write("data/b.json", bytes("b1"));
+            store.write("data/a.json", bytes("a2"));
+            store.delete("data/b.json");
+            store.writeAll(Map.of("characters/c.json", bytes("c1")));
+        }
+
+        try (LogStructuredStore store = LogStructuredStore.open(file)) {
+            assertEquals(Set.of("data/a.json", "characters/c.json"), store.keys());
+            assertEquals("a2", text(store.read("data/a.json")));
+            assertEquals("c1", text(store.read("characters/c.json")));
+            assertNull(store.read("data/b.json"));
+        }
+    }
+
+    @Test
+    void reopenAfterTornWriteKeepsEarlierRecords() throws IOException {
+        Path file = dir.resolve("campaign.db");
+        int tornOffset;
+        try (LogStructuredStore store = LogStructuredStore.open(file)) {
+            store.write("data/a.json", bytes("{\"a\":1}"));
+            store.write("data/b.json", bytes("{\"b\":2}"));
+            store.write("data/a.json", bytes("{\"a\":3}"));
+            tornOffset = recordLength("data/a.json", "{\"a\":1}") + recordLength("data/b.json", "{\"b\":2}")
+                + recordLength("data/a.json", "{\"a\":3}");
+            store.write("data/torn.json", bytes("{\"torn\":true}"));
+        }
+        // Awaria w trakcie zapisu ostatniego rekordu - końcówka wartości nie trafiła na dysk
+        int tornLength = recordLength("data/torn.json", "{\"torn\":true}");
+        overwrite(file, tornOffset + tornLength - 3, new byte[3]);
+
+        try (LogStructuredStore store = LogStructuredStore.open(file)) {
+            assertEquals(Set.of("data/a.json", "data/b.json"), store.keys());
+            assertEquals("{\"a\":3}", text(store.read("data/a.json")));
+            assertEquals("{\"b\":2}", text(store.read("data/b.json")));
+            assertFalse(store.contains("data/torn.json"));
+
+            // Nowe rekordy po urwanym zapisie są czytelne po kolejnym otwarciu
+            store.write("data/c.json", bytes("{\"c\":4}"));
+        }
+
+        try (LogStructuredStore store = LogStructuredStore.open(file)) {
+            assertEquals(Set.of("data/a.json", "data/b.json", "data/c.json"), store.keys());
+            assertEquals("{\"c\":4}", text(store.read("data/c.json")));
+            assertFalse(store.contains("data/torn.json"));
+        }
+    }
+
+    @Test
+    void reopenAfterTornHeaderKeepsEarlierRecords() throws IOException {
+        Path file = dir.resolve("campaign.db");
+        try (LogStructuredStore store = LogStructuredStore.open(file)) {
+            store.write("settings/x.json", bytes("x"));
+        }
+        // Sam początek nagłówka kolejnego rekordu (magic bez reszty)
+        overwrite(file, recordLength("settings/x.json", "x"), new byte[]{0x44, 0x4E, 0x44, 0x31, 0x7F});
+
+        try (LogStructuredStore store = LogStructuredStore.open(file)) {
+            assertEquals(Set.of("settings/x.json"), store.keys());
+            store.write("settings/y.json", bytes("y"));
+        }
+        try (LogStructuredStore store = LogStructuredStore.open(file)) {
+            assertEquals(Set.of("settings/x.json", "settings/y.json"), store.keys());
+            assertEquals("y", text(store.read("settings/y.json")));
+        }
+    }
+
+    @Test
+    void reopenAfterCompactionKeepsLiveKeys() throws IOException {
+        Path file = dir.resolve("campaign.db");
+        try (LogStructuredStore store = LogStructuredStore.open(file)) {
+            for (int i = 0; i < 50; i++) {
+                store.write("data/map.json", bytes("wersja " + i));
+            }
+            store.write("grid-configs/map_grid.json", bytes("siatka"));
+            store.write("characters/old.json", bytes("stare"));
+            store.delete("characters/old.json");
+
+            store.compact();
+            assertEquals(0, store.garbageBytes());
+            assertEquals("wersja 49", text(store.read("data/map.json")));
+
+            // Zapis po kompaktacji trafia do nowego pliku
+            store.write("settings/map_settings.json", bytes("ustawienia"));
+        }
+
+        assertFalse(Files.exists(dir.resolve("campaign.db.compact")));
+        try (LogStructuredStore store = LogStructuredStore.open(file)) {
+            assertEquals(Set.of("data/map.json", "grid-configs/map_grid.json", "settings/map_settings.json"), store.keys());
+            assertEquals("wersja 49", text(store.read("data/map.json")));
+            assertEquals("siatka", text(store.read("grid-configs/map_grid.json")));
+            assertEquals("ustawienia", text(store.read("settings/map_settings.json")));
+            assertNull(store.read("characters/old.json"));
+            assertEquals(0, store.garbageBytes());
+        }
+    }
+
+    @Test
+    void leftoverCompactionFileIsDiscarded() throws IOException {
+        Path file = dir.resolve("campaign.db");
+        try (LogStructuredStore store = LogStructuredStore.open(file)) {
+            store.write("data/a.json", bytes("a"));
+        }
+        // Awaria w trakcie kompaktacji - niepełny nowy plik obok kompletnego starego
+        Files.write(dir.resolve("campaign.db.compact"), new byte[]{1, 2, 3});
+
+        try (LogStructuredStore store = LogStructuredStore.open(file)) {
+            assertEquals("a", text(store.read("data/a.json")));
+        }
+        assertFalse(Files.exists(dir.resolve("campaign.db.compact")));
+    }
+
+    private static int recordLength(String key, String value) {
+        return HEADER + key.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void overwrite(Path file, long position, byte[] data) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(data), position);
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] bytes) {
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+}
@@ -0,0 +1,244 @@
+package com.dnd.service;
+
+import com.dnd.model.FogState;
+import com.dnd.model.MapDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Blokady per mapa w MapDataService - izolacja map: trwający zapis jednej mapy
+ * nie blokuje odczytów innych, a odczyty tej samej mapy działają równolegle.
+ * Przepustowość jest liczona w operacjach zakończonych w trakcie zapisu, nie w czasie zegarowym.
+ */
+class MapDataServiceConcurrencyTest {
+
+    private static final int STRESS_READERS = 4;
+    private static final int STRESS_READS = 200;
+
+    @TempDir
+    Path dataDir;
+
+    private final PersistenceQueue persistenceQueue = new PersistenceQueue(10);
+    private final DocumentStorage storage = new DocumentStorage();
+    private final DocumentCache documentCache = new DocumentCache(32L << 20, persistenceQueue, storage);
+
+    @AfterEach
+    void stopQueue() {
+        persistenceQueue.shutdown();
+    }
+
+    @Test
+    void writeOfOneMapDoesNotBlockReadsOfOtherMaps() throws Exception {
+        MapDataService service = new MapDataService(dataDir, persistenceQueue, storage, documentCache);
+        service.saveMapData("slow", mapData(10));
+        service.saveMapData("other", mapData(10));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        service.lockFor("slow").writeLock().lock();
+        try {
+            // Inna mapa czyta się mimo trwającego zapisu
+            MapDocument other = executor.submit(() -> service.getMapData("other")).get(2, TimeUnit.SECONDS);
+            assertNotNull(other);
+
+            // Ta sama mapa czeka na koniec zapisu
+            Future<MapDocument> slow = executor.submit(() -> service.getMapData("slow"));
+            assertThrows(TimeoutException.class, () -> slow.get(200, TimeUnit.MILLISECONDS));
+            service.lockFor("slow").writeLock().unlock();
+            assertNotNull(slow.get(2, TimeUnit.SECONDS));
+        } finally {
+            if (service.lockFor("slow").isWriteLockedByCurrentThread()) {
+                service.lockFor("slow").writeLock().unlock();
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void readsOfTheSameMapRunConcurrently() throws Exception {
+        MapDataService service = new MapDataService(dataDir, persistenceQueue, storage, documentCache);
+        service.saveMapData("shared", mapData(10));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        service.lockFor("shared").readLock().lock();
+        try {
+            assertNotNull(executor.submit(() -> service.getMapData("shared")).get(2, TimeUnit.SECONDS));
+        } finally {
+            service.lockFor("shared").readLock().unlock();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void readsOfOtherMapsFinishWhileAWriteHoldsItsMapLock() throws Exception {
+        MapDataService service = new MapDataService(dataDir, persistenceQueue, storage, documentCache);
+        service.saveMapData("big", mapData(20000));
+        service.saveMapData("small", mapData(50));
+        persistenceQueue.flushAll();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // Zapis dużej mapy trzyma jej blokadę zapisu, dopóki test go nie zwolni
+            Future<?> write = executor.submit(() -> {
+                service.updateMapData("big", existing -> {
+                    writing.countDown();
+                    await(release);
+                    return existing;
+                });
+                return null;
+            });
+            assertTrue(writing.await(2, TimeUnit.SECONDS));
+            assertTrue(service.lockFor("big").isWriteLocked());
+
+            // Odczyt innej mapy z pliku (bez cache) kończy się mimo trwającego zapisu
+            documentCache.invalidateAll();
+            MapDocument small = executor.submit(() -> service.getMapData("small")).get(2, TimeUnit.SECONDS);
+            assertNotNull(small);
+            assertEquals(50, small.getFog().getRevealedAreas().size());
+
+            release.countDown();
+            write.get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void readThroughputDuringAWriteBeatsASingleGlobalLock() throws Exception {
+        MapDataService service = new MapDataService(dataDir, persistenceQueue, storage, documentCache);
+        service.saveMapData("big", mapData(20000));
+        for (int i = 0; i < STRESS_READERS; i++) {
+            service.saveMapData("small-" + i, mapData(50));
+        }
+        persistenceQueue.flushAll();
+        documentCache.invalidateAll();
+
+        // Blokady per mapa: wszystkie odczyty innych map kończą się, zanim zapis zwolni blokadę
+        int perMap = readsCompletedDuringWrite(service, null);
+        assertEquals(STRESS_READERS * STRESS_READS, perMap);
+
+        // Jedna globalna blokada (stan sprzed zmiany): żaden odczyt nie kończy się w trakcie zapisu
+        int global = readsCompletedDuringWrite(service, new ReentrantReadWriteLock());
+        assertEquals(0, global);
+
+        assertTrue(perMap > global);
+    }
+
+    // Czytelnicy innych map w trakcie zapisu "big" - zwraca liczbę odczytów zakończonych przed zwolnieniem zapisu
+    private int readsCompletedDuringWrite(MapDataService service, ReentrantReadWriteLock globalLock) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(STRESS_READERS + 1);
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch readersDone = new CountDownLatch(STRESS_READERS);
+        AtomicInteger completed = new AtomicInteger();
+        try {
+            Future<?> write = executor.submit(() -> {
+                if (globalLock != null) {
+                    globalLock.writeLock().lock();
+                }
+                try {
+                    service.updateMapData("big", existing -> {
+                        writing.countDown();
+                        await(release);
+                        return existing;
+                    });
+                } finally {
+                    if (globalLock != null) {
+                        globalLock.writeLock().unlock();
+                    }
+                }
+                return null;
+            });
+            assertTrue(writing.await(2, TimeUnit.SECONDS));
+
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < STRESS_READERS; i++) {
+                String mapName = "small-" + i;
+                readers.add(executor.submit(() -> {
+                    try {
+                        for (int read = 0; read < STRESS_READS; read++) {
+                            if (globalLock != null) {
+                                globalLock.readLock().lock();
+                            }
+                            try {
+                                assertNotNull(service.getMapData(mapName));
+                            } finally {
+                                if (globalLock != null) {
+                                    globalLock.readLock().unlock();
+                                }
+                            }
+                            completed.incrementAndGet();
+                        }
+                    } finally {
+                        readersDone.countDown();
+                    }
+                    return null;
+                }));
+            }
+
+            if (globalLock == null) {
+                assertTrue(readersDone.await(10, TimeUnit.SECONDS));
+            } else {
+                // Wszyscy czytelnicy czekają w kolejce blokady - dalej nic się nie wykona do końca zapisu
+                for (int i = 0; i < 200 && globalLock.getQueueLength() < STRESS_READERS; i++) {
+                    Thread.sleep(10);
+                }
+                assertEquals(STRESS_READERS, globalLock.getQueueLength());
+            }
+            int duringWrite = completed.get();
+
+            release.countDown();
+            write.get(5, TimeUnit.SECONDS);
+            for (Future<?> reader : readers) {
+                reader.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(STRESS_READERS * STRESS_READS, completed.get());
+            return duringWrite;
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static MapDocument mapData(int points) {
+        List<FogState.FogPoint> areas = new ArrayList<>(points);
+        for (int i = 0; i < points; i++) {
+            areas.add(new FogState.FogPoint(i % 1000, i / 1000, 30, false));
+        }
+        MapDocument.Fog fog = new MapDocument.Fog();
+        fog.setMapName("test");
+        fog.setRevealedAreas(areas);
+
+        MapDocument mapData = MapDocument.createDefault();
+        mapData.setFog(fog);
+        return mapData;
+    }
+}